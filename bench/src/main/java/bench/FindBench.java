@@ -0,0 +1,59 @@
+// FindBench.java — recherches FIND dans l'index des noms (NameIndex) sur 1M d'entrées
+// 1000 dossiers de 1000 fichiers (p<0..99>/r<0..9>/<type>-<p>-<r>-<i>.<ext>), tailles pseudo-aléatoires ; l'index est
+// rempli directement (add), sans disque : on ne mesure que la recherche.
+// prefix / suffix : motif avec un début / une fin littérale (vue par nom / par nom à l'envers) ;
+// size : plage de tailles étroite ; scoped : tout un dossier de 1000 fichiers ;
+// infix : motif sans début ni fin littérale, rien d'autre que le parcours complet (pire cas).
+
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class FindBench {
+    static final String[] TYPES = { "rapport", "data", "img", "trace" }, EXTS = { "log", "csv", "txt", "bin", "json" };
+
+    @Param({ "1000000" })
+    int entries;
+
+    Object index;
+    Path root, dir;
+
+    @Setup public void setup() {
+        index = Server.newNameIndex();
+        root = Server.ROOT;
+        dir = root.resolve("p42").resolve("r7");
+        Random rnd = new Random(1);
+        int perDir = 1000, dirs = entries / perDir;
+        for (int d = 0; d < dirs; d++) {
+            int p = d / 10, r = d % 10;
+            String parent = "p" + p + "/r" + r;
+            if (r == 0) Server.indexAdd(index, "p" + p, true, 0, 0);
+            Server.indexAdd(index, parent, true, 0, 0);
+            for (int i = 0; i < perDir; i++) {
+                String name = TYPES[rnd.nextInt(TYPES.length)] + "-" + p + "-" + r + "-" + i + "." + EXTS[rnd.nextInt(EXTS.length)];
+                Server.indexAdd(index, parent + "/" + name, false, rnd.nextInt(10_000_000), 0);
+            }
+        }
+    }
+
+    @Benchmark public List<?> prefix() { return Server.indexFind(index, root, "trace-42-7-1??.*", 0, Long.MAX_VALUE, 1000); }
+
+    @Benchmark public List<?> suffix() { return Server.indexFind(index, root, "*-42-7-99?.json", 0, Long.MAX_VALUE, 1000); }
+
+    @Benchmark public List<?> size() { return Server.indexFind(index, root, "", 5_000_000, 5_010_000, 1000); }
+
+    @Benchmark public List<?> scoped() { return Server.indexFind(index, dir, "*", 0, Long.MAX_VALUE, 1000); }
+
+    @Benchmark public List<?> infix() { return Server.indexFind(index, root, "*-42-7-*", 0, Long.MAX_VALUE, 1000); }
+}
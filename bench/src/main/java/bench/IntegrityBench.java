@@ -0,0 +1,52 @@
+// IntegrityBench.java — débit des algorithmes d'intégrité négociables (INTEGRITY) sur 8 Mo
+// Tampons de 64 Ko comme en réception (UPLOAD) ; "direct" : tampon hors tas comme la réception nio et le
+// cache des contenus (crc32c les prend sans copie, md5 / sha256 passent par un tableau intermédiaire).
+
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntegrityBench {
+    static final int TOTAL = 8 * 1024 * 1024;
+    static final int CHUNK = 64 * 1024;
+
+    @Param({ "md5", "sha256", "crc32c", "xxh64" })
+    String algo;
+
+    byte[] data;
+    ByteBuffer direct;
+    MessageDigest md;
+
+    @Setup public void setup() throws Exception {
+        data = new byte[TOTAL];
+        new Random(42).nextBytes(data);
+        direct = ByteBuffer.allocateDirect(TOTAL);
+        direct.put(data).flip();
+        md = Server.newDigest(algo);
+    }
+
+    @Benchmark public byte[] heap() {
+        for (int off = 0; off < TOTAL; off += CHUNK) md.update(data, off, CHUNK);
+        return md.digest();
+    }
+
+    @Benchmark public byte[] direct() {
+        for (int off = 0; off < TOTAL; off += CHUNK) {
+            ByteBuffer b = direct.duplicate();
+            b.position(off).limit(off + CHUNK);
+            md.update(b);
+        }
+        return md.digest();
+    }
+}
@@ -0,0 +1,130 @@
+// LockStress.java — test de concurrence de bout en bout (pas un benchmark JMH) : serveur dans le même processus,
+// des sessions qui écrivent, lisent et suppriment les MÊMES chemins en même temps pendant quelques secondes.
+//   java -cp bench/target/benchmarks.jar bench.LockStress [secondes] [sessions]   (-Dserveur.engine=nio possible)
+// Chaque contenu envoyé est enregistré avec son MD5 ; un DOWNLOAD réussi doit rendre exactement un de ces contenus
+// avec le MD5 annoncé (aucun mélange de deux versions, aucun fichier tronqué), sinon « incohérent ».
+// Code de sortie 1 s'il y a eu la moindre incohérence.
+
+package bench;
+
+import java.io.*;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class LockStress {
+    private static final int VERSIONS = 8;            // contenus différents envoyés sous le même nom
+    private static final int[] SIZES = { 64 * 1024, 512 * 1024, 2 * 1024 * 1024 };
+
+    private final byte[][] versions = new byte[VERSIONS][];
+    private final String[] md5s = new String[VERSIONS];
+    private final Set<String> known = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder uploads = new LongAdder(), uploadErrors = new LongAdder();
+    private final LongAdder downloads = new LongAdder(), notFound = new LongAdder(), inconsistent = new LongAdder();
+    private final LongAdder deletes = new LongAdder(), sessionErrors = new LongAdder();
+    private final int port;
+
+    private LockStress(int port) throws Exception {
+        this.port = port;
+        Random rnd = new Random(7);
+        for (int i = 0; i < VERSIONS; i++) {
+            versions[i] = new byte[SIZES[i % SIZES.length]];
+            rnd.nextBytes(versions[i]);
+            md5s[i] = Server.toHex(MessageDigest.getInstance("MD5").digest(versions[i]));
+            known.add(md5s[i]);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 12;
+        int port = Integer.getInteger("bench.port", 5049);
+        Server.start(port);
+        LockStress s = new LockStress(port);
+        System.out.printf(Locale.ROOT, "Moteur %s : %d sessions pendant %d s (écrivains / lecteurs / suppressions sur les mêmes chemins)%n",
+                System.getProperty("serveur.engine", "blocking"), sessions, seconds);
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(sessions);
+        for (int i = 0; i < sessions; i++) {
+            final int role = i % 4, id = i;
+            Thread t = new Thread(() -> {
+                try { s.session(role, id, end); }
+                catch (IOException e) { s.sessionErrors.increment(); System.err.println("session " + id + ": " + e); }
+                finally { done.countDown(); }
+            }, "stress-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        done.await();
+        System.out.printf(Locale.ROOT, "uploads=%d (refusés %d)  downloads=%d (introuvables %d)  suppressions=%d  sessions coupées=%d%n",
+                s.uploads.sum(), s.uploadErrors.sum(), s.downloads.sum(), s.notFound.sum(), s.deletes.sum(), s.sessionErrors.sum());
+        System.out.println("incohérents=" + s.inconsistent.sum());
+        System.exit(s.inconsistent.sum() == 0 && s.sessionErrors.sum() == 0 ? 0 : 1);
+    }
+
+    // role 0-1 : écrivain (shared.bin et dir/f.bin), 2 : lecteur, 3 : lecteur + suppression / recréation de dir
+    private void session(int role, int id, long end) throws IOException {
+        Random rnd = new Random(id);
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            in.readUTF(); in.readUTF();                            // accueil + CWD
+            byte[] sink = new byte[64 * 1024];
+            while (System.nanoTime() < end) {
+                String name = rnd.nextBoolean() ? "shared.bin" : "dir/f.bin";
+                if (role <= 1) upload(in, out, name, rnd.nextInt(VERSIONS));
+                else if (role == 3 && rnd.nextInt(8) == 0) deleteDir(in, out);
+                else download(in, out, name, sink);
+            }
+            out.writeUTF("EXIT"); out.flush(); in.readUTF();
+        }
+    }
+
+    // UPLOAD ne garde que le nom de base : pour dir/f.bin, on se place dans dir le temps de l'envoi
+    private void upload(DataInputStream in, DataOutputStream out, String name, int v) throws IOException {
+        boolean sub = name.startsWith("dir/");
+        if (sub) {
+            out.writeUTF("MKDIR"); out.writeUTF("dir"); out.flush(); in.readUTF();
+            out.writeUTF("CD"); out.writeUTF("dir"); out.flush();
+            boolean refused = in.readUTF().startsWith("ERR");
+            in.readUTF();                                          // CWD
+            if (refused) { uploadErrors.increment(); return; }     // supprimé entre-temps
+            name = "f.bin";
+        }
+        out.writeUTF("UPLOAD"); out.writeUTF(name); out.writeLong(versions[v].length); out.writeUTF(md5s[v]);
+        out.write(versions[v]);
+        out.flush();
+        String r = in.readUTF();
+        if (r.startsWith("UPLOAD_OK")) uploads.increment(); else uploadErrors.increment();
+        if (sub) { out.writeUTF("CD"); out.writeUTF(".."); out.flush(); in.readUTF(); in.readUTF(); }
+    }
+
+    private void download(DataInputStream in, DataOutputStream out, String name, byte[] sink) throws IOException {
+        out.writeUTF("DOWNLOAD"); out.writeUTF(name); out.flush();
+        long n = in.readLong();
+        if (n < 0) { in.readUTF(); notFound.increment(); return; }
+        MessageDigest md;
+        try { md = MessageDigest.getInstance("MD5"); } catch (Exception e) { throw new IOException(e); }
+        while (n > 0) {
+            int r = in.read(sink, 0, (int) Math.min(sink.length, n));
+            if (r < 0) throw new EOFException();
+            md.update(sink, 0, r);
+            n -= r;
+        }
+        String announced = in.readUTF(), actual = Server.toHex(md.digest());
+        downloads.increment();
+        if (!announced.equals(actual) || !known.contains(actual)) inconsistent.increment();
+    }
+
+    private void deleteDir(DataInputStream in, DataOutputStream out) throws IOException {
+        out.writeUTF("DELETE"); out.writeUTF("dir"); out.flush();
+        if (!in.readUTF().startsWith("ERR")) deletes.increment();
+    }
+}
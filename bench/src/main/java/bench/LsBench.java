@@ -0,0 +1,53 @@
+// LsBench.java — ClientHandler.handleLs sur un dossier de 10k / 100k entrées (1 dossier pour 10 fichiers)
+// Mesure le listage, le tri (dossiers d'abord, puis nom) et l'écriture des trames ; la réponse part
+// dans un flux qui jette les octets.
+
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LsBench {
+    @Param({ "10000", "100000" })
+    int entries;
+
+    Path dir;
+    Object handler;
+    DataOutputStream out;
+
+    @Setup public void setup() throws IOException {
+        dir = Server.ROOT.resolve("ls-" + entries);
+        Server.deleteRecursive(dir);
+        Files.createDirectories(dir);
+        for (int i = 0; i < entries; i++) {
+            String name = String.format("entry-%06d", (i * 7919) % entries);   // ordre de création ≠ ordre trié
+            if (i % 10 == 0) Files.createDirectory(dir.resolve(name));
+            else Files.createFile(dir.resolve(name + ".txt"));
+        }
+        handler = Server.newHandler(dir);
+        out = new DataOutputStream(new OutputStream() {
+            @Override public void write(int b) {}
+            @Override public void write(byte[] b, int off, int len) {}
+        });
+    }
+
+    @TearDown public void tearDown() throws IOException {
+        Server.deleteRecursive(dir);
+    }
+
+    @Benchmark public void handleLs() throws IOException {
+        Server.handleLs(handler, out);
+    }
+}
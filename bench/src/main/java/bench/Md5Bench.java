@@ -0,0 +1,39 @@
+// Md5Bench.java — MessageDigest MD5 sur 8 Mo, par tampons de taille variable
+// Le serveur hache tout ce qu'il reçoit (UPLOAD, CHUNK) et ce qu'il envoie hors zéro-copie : le coût
+// fixe de chaque update() pèse sur les petits tampons (8 Ko en DOWNLOAD classique, 64 Ko en réception).
+
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Md5Bench {
+    static final int TOTAL = 8 * 1024 * 1024;
+
+    @Param({ "512", "8192", "65536", "1048576" })
+    int bufferSize;
+
+    byte[] data;
+    MessageDigest md;
+
+    @Setup public void setup() throws Exception {
+        data = new byte[TOTAL];
+        new Random(42).nextBytes(data);
+        md = MessageDigest.getInstance("MD5");
+    }
+
+    @Benchmark public byte[] md5() {
+        md.reset();
+        for (int off = 0; off < TOTAL; off += bufferSize) md.update(data, off, Math.min(bufferSize, TOTAL - off));
+        return md.digest();
+    }
+}
@@ -0,0 +1,55 @@
+// PathLocksBench.java — coût et contention des verrous par chemin (PathLocks), à lancer avec plusieurs threads :
+//   java -jar bench/target/benchmarks.jar PathLocksBench -t 4
+// stripes=1 : un seul verrou pour tout storage/ (ce que donnerait un verrou global) ; 1024 : valeur par défaut.
+// distinct : chaque thread travaille sur son propre fichier ; same : tous sur le même fichier.
+// Section critique courte simulée (consumeCPU), comme l'ouverture d'un fichier ou un renommage.
+
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathLocksBench {
+    static final int WORK = 64;                        // unités de consumeCPU tenues sous le verrou
+
+    @State(Scope.Benchmark)
+    public static class Locks {
+        @Param({ "1", "1024" })
+        int stripes;
+
+        @Param({ "read", "write" })
+        String mode;
+
+        Object locks;
+        boolean write;
+        final Path shared = Server.ROOT.resolve("dir").resolve("shared.bin");
+
+        @Setup public void setup() {
+            locks = Server.newPathLocks(stripes);
+            write = mode.equals("write");
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Own {
+        static final AtomicInteger next = new AtomicInteger();
+        final Path path = Server.ROOT.resolve("dir").resolve("f" + next.getAndIncrement() + ".bin");
+    }
+
+    @Benchmark public void distinct(Locks l, Own o) throws Exception {
+        try (AutoCloseable h = Server.lock(l.locks, o.path, l.write)) { Blackhole.consumeCPU(WORK); }
+    }
+
+    @Benchmark public void same(Locks l) throws Exception {
+        try (AutoCloseable h = Server.lock(l.locks, l.shared, l.write)) { Blackhole.consumeCPU(WORK); }
+    }
+}
@@ -0,0 +1,171 @@
+// Server.java — accès aux classes du serveur depuis les benchmarks
+// Le serveur est en paquet par défaut (non importable depuis un paquet nommé) : on passe par la réflexion,
+// résolue une seule fois en MethodHandle. Les réglages -Dserveur.* sont posés AVANT le chargement des classes
+// (racine de stockage temporaire, journal dans un fichier, politique drop pour ne pas mesurer le journal).
+
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+
+final class Server {
+    private Server() {}
+
+    static final Path ROOT;
+    static {
+        try {
+            ROOT = Files.createTempDirectory("bench-storage");
+            setDefault("serveur.root", ROOT.toString());
+            setDefault("serveur.accessLog", ROOT.resolveSibling(ROOT.getFileName() + "-access.log").toString());
+            setDefault("serveur.accessLogPolicy", "drop");
+        } catch (IOException e) { throw new ExceptionInInitializerError(e); }
+    }
+
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null) System.setProperty(key, value);
+    }
+
+    private static final MethodHandle TO_HEX, HANDLE_LS, NEW_HANDLER, SET_CWD, NEW_DIGEST, NEW_LOCKS, LOCK_READ, LOCK_WRITE, NEW_INDEX, INDEX_ADD, INDEX_FIND;
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Class<?> ch = Class.forName("ClientHandler");
+            Method toHex = ch.getDeclaredMethod("toHex", byte[].class);
+            toHex.setAccessible(true);
+            TO_HEX = lookup.unreflect(toHex).asType(MethodType.methodType(String.class, byte[].class));
+            Method ls = ch.getDeclaredMethod("handleLs", DataOutputStream.class);
+            ls.setAccessible(true);
+            HANDLE_LS = lookup.unreflect(ls).asType(MethodType.methodType(void.class, Object.class, DataOutputStream.class));
+            Constructor<?> ctor = ch.getDeclaredConstructor(Socket.class, int.class);
+            NEW_HANDLER = lookup.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class, Socket.class, int.class));
+            Field cwd = ch.getDeclaredField("cwd");
+            cwd.setAccessible(true);
+            SET_CWD = lookup.unreflectSetter(cwd).asType(MethodType.methodType(void.class, Object.class, Path.class));
+            Method digest = Class.forName("Integrity").getDeclaredMethod("newDigest", String.class);
+            digest.setAccessible(true);
+            NEW_DIGEST = lookup.unreflect(digest);
+            Class<?> pl = Class.forName("PathLocks");
+            Constructor<?> plCtor = pl.getDeclaredConstructor(Path.class, int.class);
+            plCtor.setAccessible(true);
+            NEW_LOCKS = lookup.unreflectConstructor(plCtor).asType(MethodType.methodType(Object.class, Path.class, int.class));
+            Method read = pl.getDeclaredMethod("read", Path.class), write = pl.getDeclaredMethod("write", Path.class);
+            read.setAccessible(true);
+            write.setAccessible(true);
+            MethodType hold = MethodType.methodType(AutoCloseable.class, Object.class, Path.class);
+            LOCK_READ = lookup.unreflect(read).asType(hold);
+            LOCK_WRITE = lookup.unreflect(write).asType(hold);
+            Class<?> ni = Class.forName("NameIndex");
+            Constructor<?> niCtor = ni.getDeclaredConstructor(Path.class, boolean.class);
+            niCtor.setAccessible(true);
+            NEW_INDEX = lookup.unreflectConstructor(niCtor).asType(MethodType.methodType(Object.class, Path.class, boolean.class));
+            Method add = ni.getDeclaredMethod("add", String.class, boolean.class, long.class, long.class);
+            add.setAccessible(true);
+            INDEX_ADD = lookup.unreflect(add).asType(MethodType.methodType(void.class, Object.class, String.class, boolean.class, long.class, long.class));
+            Method find = ni.getDeclaredMethod("find", Path.class, String.class, long.class, long.class, int.class);
+            find.setAccessible(true);
+            INDEX_FIND = lookup.unreflect(find).asType(MethodType.methodType(java.util.List.class, Object.class, Path.class, String.class,
+                    long.class, long.class, int.class));
+        } catch (ReflectiveOperationException e) { throw new ExceptionInInitializerError(e); }
+    }
+
+    static String toHex(byte[] bytes) {
+        try { return (String) TO_HEX.invokeExact(bytes); }
+        catch (Throwable t) { throw rethrow(t); }
+    }
+
+    // Empreinte d'un algorithme d'intégrité du serveur (md5, sha256, crc32c, xxh64)
+    static MessageDigest newDigest(String algo) throws IOException {
+        try { return (MessageDigest) NEW_DIGEST.invokeExact(algo); }
+        catch (IOException e) { throw e; }
+        catch (Throwable t) { throw rethrow(t); }
+    }
+
+    // Verrous par chemin du serveur (PathLocks) sous ROOT ; read / write rendent le verrou tenu (close() le rend)
+    static Object newPathLocks(int stripes) {
+        try { return (Object) NEW_LOCKS.invokeExact(ROOT, stripes); }
+        catch (Throwable t) { throw rethrow(t); }
+    }
+
+    static AutoCloseable lock(Object locks, Path p, boolean write) {
+        try { return write ? (AutoCloseable) LOCK_WRITE.invokeExact(locks, p) : (AutoCloseable) LOCK_READ.invokeExact(locks, p); }
+        catch (Throwable t) { throw rethrow(t); }
+    }
+
+    // Index des noms du serveur (NameIndex) sous ROOT, rempli sans disque par add(chemin relatif, ...)
+    static Object newNameIndex() {
+        try { return (Object) NEW_INDEX.invokeExact(ROOT, true); }
+        catch (Throwable t) { throw rethrow(t); }
+    }
+
+    static void indexAdd(Object index, String rel, boolean dir, long size, long modified) {
+        try { INDEX_ADD.invokeExact(index, rel, dir, size, modified); }
+        catch (Throwable t) { throw rethrow(t); }
+    }
+
+    // FIND sous 'dir' : motif glob, bornes de taille (Long.MAX_VALUE = sans borne haute), nb max de résultats
+    static java.util.List<?> indexFind(Object index, Path dir, String glob, long min, long max, int limit) {
+        try { return (java.util.List<?>) INDEX_FIND.invokeExact(index, dir, glob, min, max, limit); }
+        catch (Throwable t) { throw rethrow(t); }
+    }
+
+    // Session sans client (socket non connectée) : suffit pour les commandes qui n'écrivent que dans 'out'
+    static Object newHandler(Path cwd) {
+        try {
+            Object h = (Object) NEW_HANDLER.invokeExact(new Socket(), 0);
+            SET_CWD.invokeExact(h, cwd);
+            return h;
+        } catch (Throwable t) { throw rethrow(t); }
+    }
+
+    static void handleLs(Object handler, DataOutputStream out) throws IOException {
+        try { HANDLE_LS.invokeExact(handler, out); }
+        catch (IOException e) { throw e; }
+        catch (Throwable t) { throw rethrow(t); }
+    }
+
+    // Serveur complet dans ce processus (moteur choisi par -Dserveur.engine), répond sur 127.0.0.1:port
+    static void start(int port) throws Exception {
+        System.setIn(new ByteArrayInputStream(("\n" + port + "\n").getBytes(StandardCharsets.UTF_8)));
+        Method main = Class.forName("Serveur").getMethod("main", String[].class);
+        Thread t = new Thread(() -> {
+            try { main.invoke(null, (Object) new String[0]); }
+            catch (ReflectiveOperationException e) { e.printStackTrace(); }
+        }, "serveur");
+        t.setDaemon(true);
+        t.start();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            try (Socket s = new Socket("127.0.0.1", port)) { s.getOutputStream().write(new byte[] { 0, 4, 'E', 'X', 'I', 'T' }); return; }
+            catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) throw new IOException("serveur injoignable sur le port " + port, e);
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    static void deleteRecursive(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override public FileVisitResult visitFile(Path f, BasicFileAttributes a) throws IOException { Files.delete(f); return FileVisitResult.CONTINUE; }
+            @Override public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException { Files.delete(d); return FileVisitResult.CONTINUE; }
+        });
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) return (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,32 @@
+// ToHexBench.java — ClientHandler.toHex sur un MD5 (16 octets) et un SHA-256 (32 octets)
+// Appelé à chaque UPLOAD / DOWNLOAD / CHUNK, et pour chaque entrée de l'index des MD5 ; actuellement
+// un String.format par octet.
+
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ToHexBench {
+    @Param({ "16", "32" })
+    int length;
+
+    byte[] digest;
+
+    @Setup public void setup() {
+        digest = new byte[length];
+        new Random(42).nextBytes(digest);
+    }
+
+    @Benchmark public String toHex() {
+        return Server.toHex(digest);
+    }
+}
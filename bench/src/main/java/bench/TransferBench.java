@@ -0,0 +1,81 @@
+// TransferBench.java — UPLOAD / DOWNLOAD de bout en bout sur la boucle locale, serveur dans le même processus
+// Un client minimal parle le protocole directement (pas de Client.java : ni console, ni hachage côté client) ;
+// le MD5 envoyé est pré-calculé. Moteur du serveur : paramètre 'engine' (blocking ou nio), port -Dbench.port.
+
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBench {
+    @Param({ "1048576", "67108864" })
+    int size;
+
+    @Param({ "blocking", "nio" })
+    String engine;
+
+    byte[] content, sink = new byte[64 * 1024];
+    String md5;
+    Socket socket;
+    DataInputStream in;
+    DataOutputStream out;
+
+    @Setup public void setup() throws Exception {
+        System.setProperty("serveur.engine", engine);          // lu au chargement de Serveur (un fork par combinaison)
+        int port = Integer.getInteger("bench.port", 5049);
+        Server.start(port);
+        content = new byte[size];
+        new Random(42).nextBytes(content);
+        md5 = Server.toHex(MessageDigest.getInstance("MD5").digest(content));
+        socket = new Socket("127.0.0.1", port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+        in.readUTF();                                           // accueil
+        in.readUTF();                                           // CWD
+        upload();                                               // le fichier de DOWNLOAD existe dès la 1re itération
+    }
+
+    @TearDown public void tearDown() throws IOException {
+        out.writeUTF("EXIT");
+        out.flush();
+        socket.close();
+    }
+
+    @Benchmark public String upload() throws IOException {
+        out.writeUTF("UPLOAD");
+        out.writeUTF("bench.bin");
+        out.writeLong(size);
+        out.writeUTF(md5);
+        out.write(content);
+        out.flush();
+        String reply = in.readUTF();
+        if (!reply.startsWith("UPLOAD_OK")) throw new IOException(reply);
+        return reply;
+    }
+
+    @Benchmark public String download() throws IOException {
+        out.writeUTF("DOWNLOAD");
+        out.writeUTF("bench.bin");
+        out.flush();
+        long n = in.readLong();
+        if (n < 0) throw new IOException(in.readUTF());
+        while (n > 0) {
+            int r = in.read(sink, 0, (int) Math.min(sink.length, n));
+            if (r < 0) throw new EOFException();
+            n -= r;
+        }
+        return in.readUTF();
+    }
+}
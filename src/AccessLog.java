@@ -0,0 +1,175 @@
+// AccessLog.java — journal des commandes asynchrone (remplace le printf synchrone de Serveur.log)
+// Les sessions publient un événement (socket, texte, heure) dans un anneau de cases pré-allouées, sans verrou :
+// une case est réservée par compareAndSet sur la séquence d'écriture puis publiée par l'écriture volatile de son
+// numéro. Un seul thread écrivain vide l'anneau par lots, met en forme ([ip:port - date@heure] : commande) et
+// écrit sur la console ou dans un fichier qui tourne quand il dépasse sa taille maximale.
+// Anneau plein : on attend que l'écrivain libère de la place (block) ou l'événement est compté et perdu (drop).
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class AccessLog {
+    private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyy-MM-dd@HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    // Une case de l'anneau : réutilisée à chaque tour (pas d'allocation par événement)
+    private static final class Slot {
+        volatile long seq = -1;                     // = n° de l'événement quand la case est publiée
+        long time;
+        Socket source;                              // null → ligne brute (connexion / déconnexion)
+        String text;
+    }
+
+    private final Slot[] ring;
+    private final int mask;
+    private final boolean dropWhenFull;
+    private final AtomicLong claimed = new AtomicLong();    // prochaine séquence à réserver (producteurs)
+    private volatile long consumed;                         // prochaine séquence à écrire (écrivain seul)
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Path file;                        // null → console
+    private final long maxBytes;
+    private final int keep;
+    private Writer out;
+    private long written;
+    private volatile boolean closing;
+    private final Thread writer;
+
+    // Réglages : -Dserveur.accessLog=console|<fichier>, accessLogMaxMb, accessLogKeep, accessLogBuffer, accessLogPolicy
+    static AccessLog fromProperties() {
+        String target = System.getProperty("serveur.accessLog", "console");
+        return new AccessLog("console".equals(target) ? null : Paths.get(target),
+                Long.getLong("serveur.accessLogMaxMb", 64) * 1024 * 1024,
+                Integer.getInteger("serveur.accessLogKeep", 5),
+                Integer.getInteger("serveur.accessLogBuffer", 8192),
+                "drop".equals(System.getProperty("serveur.accessLogPolicy", "block")));
+    }
+
+    AccessLog(Path file, long maxBytes, int keep, int capacity, boolean dropWhenFull) {
+        int n = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;   // puissance de 2 ≥ capacity
+        this.ring = new Slot[n];
+        for (int i = 0; i < n; i++) ring[i] = new Slot();
+        this.mask = n - 1;
+        this.dropWhenFull = dropWhenFull;
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.keep = keep;
+        try { this.out = open(); }
+        catch (IOException e) {
+            System.err.println("Journal " + file + " inaccessible (" + e.getMessage() + ") → console");
+            this.out = console();
+        }
+        this.writer = new Thread(this::drainLoop, "access-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // ---------- Côté sessions : publication sans verrou ----------
+
+    void publish(Socket source, String text) {
+        long seq;
+        while (true) {
+            seq = claimed.get();
+            if (seq - consumed >= ring.length) {               // plein
+                if (dropWhenFull || closing) { dropped.incrementAndGet(); return; }
+                LockSupport.parkNanos(50_000);                 // block : l'écrivain va libérer des cases
+                continue;
+            }
+            if (claimed.compareAndSet(seq, seq + 1)) break;
+        }
+        Slot s = ring[(int) seq & mask];
+        s.time = System.currentTimeMillis();
+        s.source = source;
+        s.text = text;
+        s.seq = seq;                                           // publication (écriture volatile)
+    }
+
+    // ---------- Côté écrivain : un seul thread, écritures par lots ----------
+
+    private void drainLoop() {
+        StringBuilder line = new StringBuilder(160);
+        long lastSecond = -1;
+        String stamp = "";
+        while (true) {
+            long next = consumed;
+            Slot s = ring[(int) next & mask];
+            if (s.seq != next) {                               // rien de publié : on vide le lot et on attend
+                try { flushBatch(); } catch (IOException e) { reportFailure(e); }
+                if (closing && claimed.get() == next) return;
+                LockSupport.parkNanos(1_000_000);
+                continue;
+            }
+            long second = s.time / 1000;                       // l'horodatage ne change qu'une fois par seconde
+            if (second != lastSecond) { stamp = TS.format(Instant.ofEpochMilli(s.time)); lastSecond = second; }
+            line.setLength(0);
+            if (s.source != null) {
+                InetSocketAddress rsa = (InetSocketAddress) s.source.getRemoteSocketAddress();
+                String ip = rsa != null ? rsa.getAddress().getHostAddress() : "?";
+                int port = rsa != null ? rsa.getPort() : 0;
+                line.append('[').append(ip).append(':').append(port).append(" - ").append(stamp).append("] : ");
+            }
+            line.append(s.text).append(System.lineSeparator());
+            s.source = null;
+            s.text = null;
+            consumed = next + 1;                               // libère la case
+            try { write(line); } catch (IOException e) { reportFailure(e); }
+        }
+    }
+
+    private void write(CharSequence line) throws IOException {
+        long d = dropped.getAndSet(0);
+        if (d > 0) {
+            String warn = "(journal plein : " + d + " événement(s) perdu(s))" + System.lineSeparator();
+            out.append(warn);
+            written += warn.length();
+        }
+        out.append(line);
+        written += line.length();
+        if (file != null && written >= maxBytes) rotate();
+    }
+
+    private void flushBatch() throws IOException { out.flush(); }
+
+    // access.log → access.log.1 → ... → access.log.<keep> (le plus ancien est supprimé)
+    private void rotate() throws IOException {
+        out.close();
+        for (int i = keep - 1; i >= 1; i--) {
+            Path from = file.resolveSibling(file.getFileName() + "." + i);
+            if (Files.exists(from)) Files.move(from, file.resolveSibling(file.getFileName() + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (keep > 0) Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        else Files.deleteIfExists(file);
+        out = open();
+    }
+
+    private Writer open() throws IOException {
+        if (file == null) return console();
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        written = Files.exists(file) ? Files.size(file) : 0;
+        return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    private static Writer console() {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out)), 16 * 1024);
+    }
+
+    private void reportFailure(IOException e) {
+        System.err.println("Erreur d'écriture du journal: " + e.getMessage());
+    }
+
+    // Arrêt du serveur : écrit ce qui reste dans l'anneau puis ferme le fichier
+    void close() {
+        closing = true;
+        LockSupport.unpark(writer);
+        try { writer.join(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        try { out.flush(); } catch (IOException ignored) {}
+    }
+}
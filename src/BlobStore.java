@@ -0,0 +1,130 @@
+// BlobStore.java — stockage dédupliqué (option -Dserveur.storage=cas)
+// Chaque contenu n'est stocké qu'une fois dans storage/.blobs/<2 hex>/<sha-256>, et les fichiers visibles
+// par les clients sont des liens physiques (hard links) vers ces blobs. Lecture (LS, DOWNLOAD, zéro-copie)
+// inchangée ; le nombre de références d'un blob est son nombre de liens (unix:nlink) moins un.
+// Le serveur ne modifie jamais un fichier en place (partiel puis renommage), donc un blob ne change jamais.
+// Un verrou par blob (réparti sur STRIPES moniteurs selon le SHA-256) : les mises en place et suppressions de
+// contenus différents ne s'attendent pas, et aucun hachage n'est fait sous verrou.
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class BlobStore {
+    static final String DIR_NAME = ".blobs";        // dossier interne, caché au client
+
+    private static final int STRIPES = 256;
+
+    private final Path dir;
+    // fileKey (périphérique + inode) → blob : retrouve le blob d'un fichier visible sans le re-hacher
+    private final Map<Object, Path> byKey = new ConcurrentHashMap<>();
+    private final Object[] stripes = new Object[STRIPES];
+
+    public BlobStore(Path root) throws IOException {
+        this.dir = root.resolve(DIR_NAME);
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Object();
+        Files.createDirectories(dir);
+        if (!dir.getFileSystem().supportedFileAttributeViews().contains("unix"))
+            throw new IOException("stockage cas : système de fichiers sans liens physiques comptés (unix:nlink)");
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(dir)) {
+            for (Path shard : shards) {
+                if (!Files.isDirectory(shard)) continue;
+                try (DirectoryStream<Path> ds = Files.newDirectoryStream(shard)) {
+                    for (Path blob : ds) byKey.put(fileKey(blob), blob);
+                }
+            }
+        }
+    }
+
+    int size() { return byKey.size(); }
+
+    private Path blobPath(String sha256) {
+        return dir.resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    private Object stripe(String sha256) {
+        return stripes[sha256.hashCode() & (STRIPES - 1)];
+    }
+
+    // Contenu déjà stocké (UPLOAD_HASH) : crée 'target' comme nouveau lien vers le blob, sinon false
+    public boolean linkExisting(String sha256, long size, Path target) throws IOException {
+        if (!sha256.matches("[0-9a-f]{64}")) return false;
+        Path blob = blobPath(sha256);
+        Object old;
+        synchronized (stripe(sha256)) {
+            if (!Files.exists(blob) || Files.size(blob) != size) return false;
+            old = replaceWithLink(blob, target);
+        }
+        release(old);
+        return true;
+    }
+
+    // Fichier vérifié (partiel d'UPLOAD) : devient le blob s'il est nouveau, sinon est jeté ; puis target → lien
+    // sha256 : calculé par l'appelant pendant la réception, ou avant de prendre ses verrous (hash)
+    public void adopt(Path part, Path target, String sha256) throws IOException {
+        Path blob = blobPath(sha256);
+        Object old;
+        synchronized (stripe(sha256)) {
+            if (Files.exists(blob)) {
+                Files.delete(part);                  // contenu déjà connu : on garde le blob existant
+            } else {
+                Files.createDirectories(blob.getParent());
+                Files.move(part, blob, StandardCopyOption.ATOMIC_MOVE);
+                byKey.put(fileKey(blob), blob);
+            }
+            old = replaceWithLink(blob, target);
+        }
+        release(old);
+    }
+
+    // Après suppression d'un fichier visible : libère son blob s'il n'est plus référencé
+    public void release(Object key) throws IOException {
+        Path blob = key == null ? null : byKey.get(key);
+        if (blob == null) return;
+        synchronized (stripe(blob.getFileName().toString())) {
+            if (links(blob) <= 1) {
+                Files.deleteIfExists(blob);
+                byKey.remove(key);
+            }
+        }
+    }
+
+    // Lien temporaire puis renommage atomique : 'target' n'est jamais absent ni partiellement écrit ;
+    // renvoie la clé de l'ancien contenu de target s'il a perdu un lien (à libérer hors du verrou de ce blob)
+    private Object replaceWithLink(Path blob, Path target) throws IOException {
+        Object old = Files.isRegularFile(target) ? fileKey(target) : null;
+        Path tmp = target.resolveSibling("." + target.getFileName() + ".link.part");
+        Files.deleteIfExists(tmp);
+        Files.createLink(tmp, blob);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return old != null && !old.equals(fileKey(blob)) ? old : null;
+    }
+
+    static Object fileKey(Path p) throws IOException {
+        return Files.readAttributes(p, BasicFileAttributes.class).fileKey();
+    }
+
+    private static int links(Path p) throws IOException {
+        return (Integer) Files.getAttribute(p, "unix:nlink");
+    }
+
+    static MessageDigest newSha256() {
+        try { return MessageDigest.getInstance("SHA-256"); }
+        catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+    }
+
+    static String hash(Path f) throws IOException {
+        MessageDigest md = newSha256();
+        byte[] buf = new byte[256 * 1024];
+        try (InputStream in = Files.newInputStream(f)) {
+            int r;
+            while ((r = in.read(buf)) != -1) md.update(buf, 0, r);
+        }
+        return ClientHandler.toHex(md.digest());
+    }
+}
@@ -0,0 +1,119 @@
+// BlockCodec.java — compression des corps de fichiers pendant le transfert (négociée par session avec COMPRESS)
+// Le corps est découpé en blocs de 64 Ko compressés indépendamment (Deflater) :
+//   bloc = [taille brute (int), taille compressée (int, 0 = bloc envoyé tel quel), octets]
+// Un bloc qui ne gagne rien part tel quel : un fichier peu compressible ne coûte presque rien de plus.
+// Le MD5 est toujours calculé sur le contenu décompressé (mêmes valeurs qu'un transfert brut).
+// Utilisé des deux côtés (ClientHandler et Client) ; une instance par session, non partagée entre threads.
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class BlockCodec implements Closeable {
+    static final String NAME = "deflate";
+    static final int BLOCK = 64 * 1024;
+    // Niveau 1 : le but est de soulager le lien, pas de gagner les derniers % au prix du CPU
+    private static final int LEVEL = Integer.getInteger("compress.level", Deflater.BEST_SPEED);
+
+    // Formats déjà compressés : on ne perd pas de temps à essayer
+    private static final Set<String> COMPRESSED = new HashSet<>(Arrays.asList(
+            "png", "jpg", "jpeg", "gif", "webp", "pdf", "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "lz4",
+            "mp3", "mp4", "mkv", "avi", "mov", "jar", "docx", "xlsx", "pptx", "odt"));
+
+    private final Deflater deflater = new Deflater(LEVEL, true);
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] raw = new byte[BLOCK];
+    private final byte[] enc = new byte[BLOCK];
+    long rawBytes, wireBytes;                       // pour les logs (taux de compression)
+
+    // Décision par fichier, sur le nom : un fichier déjà compressé part en brut
+    static boolean worthCompressing(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 || !COMPRESSED.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    // Envoie 'len' octets lus dans src sous forme de blocs ; md (facultatif) reçoit les octets bruts
+    void encode(InputStream src, long len, DataOutputStream out, MessageDigest md) throws IOException {
+        long remaining = len;
+        while (remaining > 0) {
+            int n = (int) Math.min(BLOCK, remaining);
+            readFully(src, raw, n);
+            if (md != null) md.update(raw, 0, n);
+            deflater.reset();
+            deflater.setInput(raw, 0, n);
+            deflater.finish();
+            int c = deflater.deflate(enc, 0, n - 1); // il faut gagner au moins 1 octet, sinon bloc brut
+            out.writeInt(n);
+            if (deflater.finished()) {
+                out.writeInt(c);
+                out.write(enc, 0, c);
+            } else {
+                out.writeInt(0);
+                out.write(raw, 0, n);
+                c = n;
+            }
+            rawBytes += n;
+            wireBytes += c + 8;
+            remaining -= n;
+        }
+    }
+
+    // Reçoit des blocs jusqu'à avoir 'len' octets bruts, écrits dans dst (null → ignorés) ; md (facultatif) reçoit les octets bruts
+    void decode(DataInputStream in, long len, OutputStream dst, MessageDigest md) throws IOException {
+        long remaining = len;
+        while (remaining > 0) {
+            int n = in.readInt(), c = in.readInt();
+            if (n <= 0 || n > BLOCK || n > remaining || c < 0 || c > BLOCK) throw new IOException("Bloc compressé invalide");
+            if (c == 0) {
+                in.readFully(raw, 0, n);
+            } else {
+                in.readFully(enc, 0, c);
+                inflater.reset();
+                inflater.setInput(enc, 0, c);
+                try {
+                    int got = 0;
+                    while (got < n && !inflater.finished()) {
+                        int k = inflater.inflate(raw, got, n - got);
+                        if (k == 0 && inflater.needsInput()) break;
+                        got += k;
+                    }
+                    if (got != n) throw new IOException("Bloc compressé tronqué");
+                } catch (DataFormatException e) {
+                    throw new IOException("Bloc compressé corrompu: " + e.getMessage());
+                }
+            }
+            if (dst != null) dst.write(raw, 0, n);
+            if (md != null) md.update(raw, 0, n);
+            rawBytes += n;
+            wireBytes += (c == 0 ? n : c) + 8;
+            remaining -= n;
+        }
+    }
+
+    // "(compression x %)" = octets sur le réseau / octets bruts depuis le dernier appel (pour les logs)
+    String ratio() {
+        String r = rawBytes == 0 ? "" : String.format(Locale.ROOT, "(compression %.0f %%)", 100.0 * wireBytes / rawBytes);
+        rawBytes = wireBytes = 0;
+        return r;
+    }
+
+    private static void readFully(InputStream in, byte[] b, int n) throws IOException {
+        int off = 0;
+        while (off < n) {
+            int r = in.read(b, off, n - off);
+            if (r == -1) throw new EOFException("Fichier tronqué pendant l'envoi");
+            off += r;
+        }
+    }
+
+    @Override public void close() {
+        deflater.end();
+        inflater.end();
+    }
+}
@@ -0,0 +1,155 @@
+// ChecksumIndex.java — index des empreintes des fichiers de storage/ (clé : chemin, validé par taille + date de modif)
+// Permet d'envoyer un fichier sans le relire pour le hacher (DOWNLOAD zéro-copie) : l'empreinte est calculée une fois
+// (ou fournie par l'UPLOAD qui l'a déjà calculée), puis réutilisée tant que la taille et le mtime n'ont pas changé.
+// Un index par algorithme d'intégrité (Integrity) : storage/.checksums pour md5, storage/.checksums.<algo> sinon,
+// sauvegardés pour survivre aux redémarrages.
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ChecksumIndex {
+    static final String FILE_NAME = ".checksums";   // fichier interne, caché au client
+    private static final int MAGIC = 0x4D443549;    // "MD5I"
+    private static final int VERSION = 1;
+
+    // Une entrée n'est valable que pour la version (taille, mtime) du fichier au moment du calcul
+    static final class Entry {
+        final long size;
+        final long mtime;
+        final String digest;
+        Entry(long size, long mtime, String digest) { this.size = size; this.mtime = mtime; this.digest = digest; }
+    }
+
+    private final Path root;
+    private final Path file;
+    private final String algo;
+    private final ConcurrentHashMap<Path, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    public ChecksumIndex(Path root, String algo) {
+        this.root = root;
+        this.algo = algo;
+        this.file = root.resolve(Integrity.DEFAULT.equals(algo) ? FILE_NAME : FILE_NAME + "." + algo);
+        load();
+    }
+
+    Path file() { return file; }
+
+    // Empreinte du fichier : depuis l'index si à jour, sinon recalculée (une lecture) puis mémorisée
+    public String digest(Path f) throws IOException {
+        BasicFileAttributes a = Files.readAttributes(f, BasicFileAttributes.class);
+        long size = a.size(), mtime = a.lastModifiedTime().toMillis();
+        Entry e = entries.get(f);
+        if (e != null && e.size == size && e.mtime == mtime) return e.digest;
+
+        String digest = hash(f, algo);
+        entries.put(f, new Entry(size, mtime, digest));
+        dirty = true;
+        return digest;
+    }
+
+    // Empreinte depuis l'index seulement, pour la version 'a' du fichier ; null si absente ou périmée (aucune lecture)
+    public String cached(Path f, BasicFileAttributes a) {
+        Entry e = entries.get(f);
+        return e != null && e.size == a.size() && e.mtime == a.lastModifiedTime().toMillis() ? e.digest : null;
+    }
+
+    // Enregistre une empreinte déjà connue (UPLOAD vérifié) pour la version actuelle du fichier
+    public void put(Path f, String digest) throws IOException {
+        put(f, Files.readAttributes(f, BasicFileAttributes.class), digest);
+    }
+
+    // ... ou pour la version 'a', lue quand le fichier haché a été ouvert
+    public void put(Path f, BasicFileAttributes a, String digest) {
+        entries.put(f, new Entry(a.size(), a.lastModifiedTime().toMillis(), digest.toLowerCase()));
+        dirty = true;
+    }
+
+    // Oublie un fichier (écrasement : une seule entrée) ; tree : tout ce qui est dessous aussi (DELETE, parcours
+    // de l'index, seulement pour une suppression)
+    public void invalidate(Path p, boolean tree) {
+        if (entries.remove(p) != null) dirty = true;
+        if (!tree) return;
+        for (Iterator<Path> it = entries.keySet().iterator(); it.hasNext(); ) {
+            if (it.next().startsWith(p)) { it.remove(); dirty = true; }
+        }
+    }
+
+    // ---------- Persistance : [magic, version, n] puis n × [chemin relatif UTF, taille, mtime, empreinte brute] ----------
+
+    private void load() {
+        if (!Files.exists(file)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return;   // format inconnu : on repart de zéro
+            int n = in.readInt();
+            byte[] raw = new byte[Integrity.length(algo)];
+            for (int i = 0; i < n; i++) {
+                Path p = root.resolve(in.readUTF()).normalize();
+                long size = in.readLong(), mtime = in.readLong();
+                in.readFully(raw);
+                if (p.startsWith(root)) entries.put(p, new Entry(size, mtime, ClientHandler.toHex(raw)));
+            }
+        } catch (IOException e) {
+            System.err.println("Index des empreintes " + algo + " illisible, ignoré: " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    // Réécrit l'index (fichier temporaire + renommage atomique) s'il a changé depuis la dernière sauvegarde
+    public synchronized void save() {
+        if (!dirty) return;
+        dirty = false;
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                Map<Path, Entry> snapshot = new java.util.HashMap<>(entries);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<Path, Entry> me : snapshot.entrySet()) {
+                    out.writeUTF(root.relativize(me.getKey()).toString().replace('\\', '/'));
+                    out.writeLong(me.getValue().size);
+                    out.writeLong(me.getValue().mtime);
+                    out.write(fromHex(me.getValue().digest));
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            System.err.println("Sauvegarde de l'index des empreintes " + algo + " impossible: " + e.getMessage());
+        }
+    }
+
+    // Calcul complet de l'empreinte avec un grand tampon direct (pas de copie vers le tas)
+    static String hash(Path f, String algo) throws IOException {
+        try (FileChannel fc = FileChannel.open(f, StandardOpenOption.READ)) {
+            return hash(fc, algo);
+        }
+    }
+
+    // ... d'un fichier déjà ouvert (lectures positionnelles : la position du canal n'est pas touchée)
+    static String hash(FileChannel fc, String algo) throws IOException {
+        MessageDigest md = Integrity.newDigest(algo);
+        ByteBuffer buf = ByteBuffer.allocateDirect(256 * 1024);
+        long pos = 0;
+        for (int r; (r = fc.read(buf, pos)) != -1; pos += r) {
+            buf.flip();
+            md.update(buf);
+            buf.clear();
+        }
+        return ClientHandler.toHex(md.digest());
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] b = new byte[hex.length() / 2];
+        for (int i = 0; i < b.length; i++) b[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        return b;
+    }
+}
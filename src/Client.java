@@ -1,255 +1,921 @@
-// Client.java — client interactif avec :
-// - Arguments OU prompts pour IP/port (avec validation du bon format dentree)
-// - Commandes: ls, cd, mkdir, delete, upload, download, exit
-// - Vérification d'intégrité MD5 à l'upload et au download (nous ne savons pas si c'Est demandé ou non mais on l'a fait)
-
-import java.io.*;
-import java.net.Socket;
-import java.util.Locale;
-import java.util.regex.*;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
-public class Client {
-
-    public static void main(String[] args) {
-        String serverIp = null;
-        Integer serverPort = null;
-
-        // 1) MODE ARGUMENTS si 2 args fournis et valides ; sinon on bascule en MODE PROMPTS (entrées utilisateurs0)
-        if (args.length >= 2) {
-            String ipArg = args[0].trim();
-            Integer pArg = tryParseInt(args[1].trim());
-            if ((isValidIPv4(ipArg) || "localhost".equalsIgnoreCase(ipArg)) && pArg != null && isValidPort(pArg)) {
-                serverIp = ipArg; //on garde les arguments fournis
-                serverPort = pArg;
-            } else {
-                System.out.println("Arguments invalides (IP/port). Passage en mode interactif.");
-            }
-        }
-
-        // 2) MODE PROMPTS 
-        if (serverIp == null || serverPort == null) {
-            try {
-                BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-                serverIp   = askIp(br);     // ENTER = 127.0.0.1
-                serverPort = askPort(br);   // ENTER = 5000
-            } catch (IOException e) {
-                System.err.println("Erreur lecture console: " + e.getMessage());
-                return;
-            }
-        }
-
-        // 3) Connexion & boucle interactive, sil y a un echec, IOException est affiche et sortie
-        try (Socket socket = new Socket(serverIp, serverPort);
-             DataInputStream  in  = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
-             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
-             BufferedReader stdin  = new BufferedReader(new InputStreamReader(System.in))) {
-
-            System.out.printf("Connecté au serveur [%s:%d]%n", serverIp, serverPort);
-
-            // Accueil (tolère les serveurs qui n'envoient qu'une ligne)
-            String hello = in.readUTF();
-            System.out.println(hello);
-            String cwdMsg;
-            try { cwdMsg = in.readUTF(); } catch (EOFException e) { cwdMsg = "(CWD non envoyé par le serveur)"; }
-            System.out.println(cwdMsg);
-
-            // Dossier de téléchargements dédié pour gerer les downloads de chaque client
-            int clientId = extractClientId(hello);
-            File downloadsRoot = new File("downloads" + File.separator + "client-" + clientId);
-            downloadsRoot.mkdirs();
-            System.out.println("Téléchargements → " + downloadsRoot.getPath());
-            System.out.println("Commandes: ls | cd <dir> | mkdir <dir> | delete <f|dir> | upload <pathLocal> | download <fichier> | exit");
-
-            //boucle itérative
-            while (true) {
-                System.out.print("> ");
-                String line = stdin.readLine();
-                if (line == null) break;
-                line = line.trim();
-                if (line.isEmpty()) continue;
-
-                String[] parts = line.split("\\s+", 2);
-                String cmd = parts[0].toLowerCase(Locale.ROOT);
-                String arg = (parts.length > 1 ? parts[1].trim() : "");
-
-                // les differentes commandes possibles
-                switch (cmd) {
-                    case "exit": {
-                        out.writeUTF("EXIT"); out.flush();
-                        try { System.out.println(in.readUTF()); } catch (EOFException ignored) {}
-                        return;
-                    }
-                    case "ls": {
-                        out.writeUTF("LS"); out.flush();
-                        int n = in.readInt();
-                        if (n == 0) System.out.println("(vide)");
-                        for (int i = 0; i < n; i++) System.out.println(in.readUTF());
-                        break;
-                    }
-                    case "cd": {
-                        if (arg.isEmpty()) { System.out.println("Usage: cd <dir|..>"); break; }
-                        out.writeUTF("CD"); out.writeUTF(arg); out.flush();
-                        System.out.println(in.readUTF()); // message (succès/erreur)
-                        System.out.println(in.readUTF()); // CWD
-                        break;
-                    }
-                    case "mkdir": {
-                        if (arg.isEmpty()) { System.out.println("Usage: mkdir <dir>"); break; }
-                        out.writeUTF("MKDIR"); out.writeUTF(arg); out.flush();
-                        System.out.println(in.readUTF());
-                        break;
-                    }
-                    case "delete": {
-                        if (arg.isEmpty()) { System.out.println("Usage: delete <fichier|dossier>"); break; }
-                        out.writeUTF("DELETE"); out.writeUTF(arg); out.flush();
-                        System.out.println(in.readUTF());
-                        break;
-                    }
-
-                    // ===== UPLOAD (avec MD5) =====
-                    case "upload": { //ici on met une en-tête avec le nom, la taille, et le md5 puis octets
-                        if (arg.isEmpty()) { System.out.println("Usage: upload <chemin_local_fichier>"); break; }
-                        String path = unquote(arg);
-                        File f = new File(path);
-                        if (!f.exists() || !f.isFile()) { System.out.println("Fichier local introuvable: " + path); break; }
-
-                        String md5;
-                        try { md5 = computeFileMd5(f); }
-                        catch (Exception e) { System.out.println("Erreur MD5: " + e.getMessage()); break; }
-
-                        out.writeUTF("UPLOAD");
-                        out.writeUTF(f.getName());
-                        out.writeLong(f.length());
-                        out.writeUTF(md5);
-                        out.flush();
-
-                        try (InputStream fis = new BufferedInputStream(new FileInputStream(f))) {
-                            copyExactly(fis, out, f.length());
-                        }
-                        out.flush();
-
-                        System.out.println(in.readUTF()); // UPLOAD_OK / UPLOAD_ERR .. etc. 
-                        break;
-                    }
-
-                    // ===== DOWNLOAD (avec MD5) =====
-                    case "download": { //pareil que upload 
-                        if (arg.isEmpty()) { System.out.println("Usage: download <nom_fichier_serveur>"); break; }
-                        out.writeUTF("DOWNLOAD"); out.writeUTF(arg); out.flush();
-
-                        long size = in.readLong();
-                        if (size < 0) { System.out.println(in.readUTF()); break; }
-
-                        File outFile = new File(downloadsRoot, arg);
-                        File parent = outFile.getParentFile(); if (parent != null) parent.mkdirs();
-
-                        MessageDigest md = getMd5();
-                        try (OutputStream fos = new BufferedOutputStream(new FileOutputStream(outFile))) {
-                            byte[] buf = new byte[8192];
-                            long remaining = size;
-                            while (remaining > 0) {
-                                int r = in.read(buf, 0, (int)Math.min(buf.length, remaining));
-                                if (r == -1) throw new EOFException("Flux terminé avant d'avoir reçu tous les octets");
-                                fos.write(buf, 0, r);
-                                md.update(buf, 0, r);
-                                remaining -= r;
-                            }
-                        }
-                        //On print les deux md5 pour montrer si c'Est correct ou non 
-                        String serverMd5 = in.readUTF();
-                        String clientMd5 = toHex(md.digest());
-                        String status = clientMd5.equalsIgnoreCase(serverMd5) ? "OK" : "MD5 MISMATCH";
-                        System.out.println("Download " + status + " : " + arg + " (" + size + " octets)");
-                        System.out.println("  server md5 = " + serverMd5);
-                        System.out.println("  client md5 = " + clientMd5);
-                        System.out.println("→ sauvegardé dans " + outFile.getPath());
-                        break;
-                    }
-
-                    default:
-                        System.out.println("Commande inconnue. Essayez: ls, cd, mkdir, delete, upload, download, exit");
-                }
-            }
-        } catch (Exception e) {
-            //si la connexion echoue ou autre I/O, on affiche et on sort
-            System.err.println("Erreur client: " + e.getMessage());
-        }
-    }
-
-    // ===== Validation IP/Port & prompts ===== pareil que dans le serveur
-    private static boolean isValidIPv4(String ip) {
-        if (ip == null) return false;
-        if ("localhost".equalsIgnoreCase(ip)) return true;
-        String ipv4 = "^((25[0-5]|2[0-4]\\d|1?\\d?\\d)\\.){3}(25[0-5]|2[0-4]\\d|1?\\d?\\d)$";
-        return ip.matches(ipv4);
-    }
-    private static boolean isValidPort(int p) { return p >= 5000 && p <= 5050; }
-    private static String askIp(BufferedReader br) throws IOException {
-        while (true) {
-            System.out.print("Adresse IP du serveur (ENTER=127.0.0.1) : ");
-            String ip = br.readLine();
-            if (ip == null || ip.trim().isEmpty()) return "127.0.0.1";
-            ip = ip.trim();
-            if (isValidIPv4(ip) || "localhost".equalsIgnoreCase(ip)) return ip;
-            System.out.println("IP invalide. Exemple: 127.0.0.1 (ou 'localhost').");
-        }
-    }
-    private static int askPort(BufferedReader br) throws IOException {
-        while (true) {
-            System.out.print("Port du serveur (5000–5050) (ENTER=5000) : ");
-            String line = br.readLine();
-            if (line == null || line.trim().isEmpty()) return 5000;
-            Integer p = tryParseInt(line.trim());
-            if (p != null && isValidPort(p)) return p;
-            System.out.println("Port invalide. Choisis un entier entre 5000 et 5050.");
-        }
-    }
-    private static Integer tryParseInt(String s) {
-        try { return Integer.parseInt(s); } catch (Exception e) { return null; }
-    }
-
-    // ===== Utilitaires divers =====
-    private static void copyExactly(InputStream in, OutputStream out, long size) throws IOException {
-        byte[] buf = new byte[8192];
-        long remaining = size;
-        while (remaining > 0) {
-            int read = in.read(buf, 0, (int)Math.min(buf.length, remaining));
-            if (read == -1) throw new EOFException("Flux terminé avant d'avoir reçu tous les octets");
-            out.write(buf, 0, read);
-            remaining -= read;
-        }
-    }
-    private static String unquote(String s) {
-        if (s == null) return null;
-        s = s.trim();
-        if ((s.startsWith("\"") && s.endsWith("\"")) ||
-            (s.startsWith("'")  && s.endsWith("'"))  ||
-            (s.startsWith("“")  && s.endsWith("”"))) {
-            s = s.substring(1, s.length() - 1);
-        }
-        return s;
-    }
-    private static int extractClientId(String hello) {
-        Matcher m = Pattern.compile("client#(\\d+)").matcher(hello);
-        if (m.find()) return Integer.parseInt(m.group(1));
-        return (int)(System.currentTimeMillis() % 100000);
-    }
-    private static MessageDigest getMd5() throws NoSuchAlgorithmException { return MessageDigest.getInstance("MD5"); }
-    private static String computeFileMd5(File f) throws IOException, NoSuchAlgorithmException {
-        MessageDigest md = getMd5();
-        try (InputStream is = new BufferedInputStream(new FileInputStream(f))) {
-            byte[] buf = new byte[8192];
-            int r;
-            while ((r = is.read(buf)) != -1) md.update(buf, 0, r);
-        }
-        return toHex(md.digest());
-    }
-    private static String toHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder(bytes.length * 2);
-        for (byte b : bytes) sb.append(String.format("%02x", b));
-        return sb.toString();
-    }
-}
-
+// Client.java — client interactif avec :
+// - Arguments OU prompts pour IP/port (avec validation du bon format dentree)
+// - Commandes: ls (ls -l paginé), cd, mkdir, delete, upload, download, pupload, pdownload, mupload, mdownload, mdelete, stats, exit
+// - Vérification d'intégrité MD5 à l'upload et au download (nous ne savons pas si c'Est demandé ou non mais on l'a fait)
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class Client {
+
+    // Transferts parallèles (pupload / pdownload) : nb de connexions et taille des morceaux, réglables avec -D
+    private static final int  STREAMS    = Integer.getInteger("client.streams", 4);
+    // (un morceau d'upload est lu en entier en mémoire, par connexion : borné entre 64 Ko et 256 Mo)
+    private static final long CHUNK_SIZE = Math.max(64 * 1024, Math.min(256L * 1024 * 1024, Long.getLong("client.chunkSize", 8L * 1024 * 1024)));
+    // Compression des transferts (liens lents) : proposée au serveur à la connexion si -Dclient.compress=true
+    private static final boolean COMPRESS = Boolean.getBoolean("client.compress");
+    // Intégrité : algorithmes proposés au serveur par ordre de préférence (-Dclient.integrity=xxh64,crc32c,sha256,md5) ;
+    // sans la propriété, MD5 sans négociation
+    private static final String INTEGRITY = System.getProperty("client.integrity", "");
+    static volatile String integrity = Integrity.DEFAULT;   // algorithme retenu par le serveur
+    private static final int MUPLOAD_MAX = 100_000;          // entrées max d'un manifeste MUPLOAD (limite du serveur)
+    private static boolean cas;                              // le serveur annonce le stockage dédupliqué (UPLOAD_HASH utile)
+    // ls -l : nb d'entrées demandées par page (LS_PAGE)
+    private static final int LS_PAGE = Integer.getInteger("client.lsPage", 1000);
+    // find : nb max de résultats demandés (FIND)
+    private static final int FIND_LIMIT = Integer.getInteger("client.findLimit", 1000);
+
+    public static void main(String[] args) {
+        // Génération de charge (sans console) : java -jar client.jar load <ip> <port>
+        if (args.length >= 1 && "load".equalsIgnoreCase(args[0])) {
+            LoadGenerator.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        String serverIp = null;
+        Integer serverPort = null;
+
+        // 1) MODE ARGUMENTS si 2 args fournis et valides ; sinon on bascule en MODE PROMPTS (entrées utilisateurs0)
+        if (args.length >= 2) {
+            String ipArg = args[0].trim();
+            Integer pArg = tryParseInt(args[1].trim());
+            if ((isValidIPv4(ipArg) || "localhost".equalsIgnoreCase(ipArg)) && pArg != null && isValidPort(pArg)) {
+                serverIp = ipArg; //on garde les arguments fournis
+                serverPort = pArg;
+            } else {
+                System.out.println("Arguments invalides (IP/port). Passage en mode interactif.");
+            }
+        }
+
+        // 2) MODE PROMPTS 
+        if (serverIp == null || serverPort == null) {
+            try {
+                BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+                serverIp   = askIp(br);     // ENTER = 127.0.0.1
+                serverPort = askPort(br);   // ENTER = 5000
+            } catch (IOException e) {
+                System.err.println("Erreur lecture console: " + e.getMessage());
+                return;
+            }
+        }
+
+        // 3) Connexion & boucle interactive, sil y a un echec, IOException est affiche et sortie
+        try (Socket socket = new Socket(serverIp, serverPort);
+             DataInputStream  in  = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+             BufferedReader stdin  = new BufferedReader(new InputStreamReader(System.in))) {
+
+            System.out.printf("Connecté au serveur [%s:%d]%n", serverIp, serverPort);
+
+            // Accueil (tolère les serveurs qui n'envoient qu'une ligne)
+            String hello = in.readUTF();
+            System.out.println(hello);
+            cas = hello.endsWith(" [cas]");
+            String cwdMsg;
+            try { cwdMsg = in.readUTF(); } catch (EOFException e) { cwdMsg = "(CWD non envoyé par le serveur)"; }
+            System.out.println(cwdMsg);
+            String remoteCwd = cwdMsg.startsWith("CWD: ") ? cwdMsg.substring(5) : "/"; // pour les connexions parallèles
+
+            // Dossier de téléchargements dédié pour gerer les downloads de chaque client
+            int clientId = extractClientId(hello);
+            File downloadsRoot = new File("downloads" + File.separator + "client-" + clientId);
+            downloadsRoot.mkdirs();
+            System.out.println("Téléchargements → " + downloadsRoot.getPath());
+            System.out.println("Commandes: ls [-l] [motif] | find <motif> [min-max] | cd <dir> | mkdir <dir> | delete <f|dir> | upload <pathLocal> | download <fichier>"
+                    + " | dupload <pathLocal> | pupload <pathLocal> | pdownload <fichier> | mupload <dossierLocal> | mdownload <dossier> | mdelete <motif> | stats | exit");
+
+            // Mode batch (entrée redirigée, ex. client < commandes.txt) : requêtes numérotées envoyées sans attendre
+            Pipeline pipe = new Pipeline(in, out, downloadsRoot, remoteCwd);
+            if (COMPRESS) pipe.codec = negotiateCompression(in, out);
+            if (!INTEGRITY.isEmpty()) {
+                negotiateIntegrity(in, out);
+                System.out.println("Intégrité des transferts : " + integrity);
+            }
+            if (System.console() == null && Boolean.parseBoolean(System.getProperty("client.pipeline", "true"))) pipe.enable();
+
+            //boucle itérative
+            while (true) {
+                if (!pipe.framed) System.out.print("> ");
+                String line = stdin.readLine();
+                if (line == null) { pipe.drain(); break; }
+                line = line.trim();
+                if (line.isEmpty()) continue;
+
+                String[] parts = line.split("\\s+", 2);
+                String cmd = parts[0].toLowerCase(Locale.ROOT);
+                String arg = (parts.length > 1 ? parts[1].trim() : "");
+
+                // Mode pipeline : les commandes courtes partent tout de suite, le thread lecteur affichera la réponse
+                if (pipe.framed) {
+                    if (pipe.submit(cmd, arg, line)) {
+                        if (!stdin.ready()) out.flush();   // plus de commande en attente : on envoie le lot
+                        continue;
+                    }
+                    pipe.drain();                          // barrière : les réponses en vol sont toutes affichées
+                    System.out.println("> " + line);
+                }
+
+                // les differentes commandes possibles
+                switch (cmd) {
+                    case "exit": {
+                        pipe.begin(); out.writeUTF("EXIT"); out.flush();
+                        try { pipe.expect(); System.out.println(in.readUTF()); } catch (EOFException ignored) {}
+                        return;
+                    }
+                    case "ls": {
+                        if (!arg.isEmpty()) { listPages(in, out, pipe, arg); break; }   // ls -l [motif] | ls <motif>
+                        pipe.begin(); out.writeUTF("LS"); out.flush();
+                        pipe.expect();
+                        printLs(in);
+                        break;
+                    }
+                    case "find": {                         // find <motif> [min-max] : index des noms du serveur, sous-dossiers compris
+                        if (arg.isEmpty()) { System.out.println("Usage: find <motif> [taille_min-taille_max]  (ex. find *.log 1M-)"); break; }
+                        find(in, out, pipe, arg);
+                        break;
+                    }
+                    case "stats": {                        // métriques du serveur (une ligne par commande)
+                        pipe.begin(); out.writeUTF("STATS"); out.flush();
+                        pipe.expect();
+                        printLs(in);
+                        break;
+                    }
+                    case "cd": {
+                        if (arg.isEmpty()) { System.out.println("Usage: cd <dir|..>"); break; }
+                        pipe.begin(); out.writeUTF("CD"); out.writeUTF(arg); out.flush();
+                        pipe.expect();
+                        pipe.readCd();                     // message (succès/erreur) + CWD
+                        break;
+                    }
+                    case "mkdir": {
+                        if (arg.isEmpty()) { System.out.println("Usage: mkdir <dir>"); break; }
+                        pipe.begin(); out.writeUTF("MKDIR"); out.writeUTF(arg); out.flush();
+                        pipe.expect();
+                        System.out.println(in.readUTF());
+                        break;
+                    }
+                    case "delete": {
+                        if (arg.isEmpty()) { System.out.println("Usage: delete <fichier|dossier>"); break; }
+                        pipe.begin(); out.writeUTF("DELETE"); out.writeUTF(arg); out.flush();
+                        pipe.expect();
+                        System.out.println(in.readUTF());
+                        break;
+                    }
+
+                    // ===== UPLOAD (avec MD5, reprise automatique) =====
+                    case "upload": { //ici on met une en-tête avec le nom, la taille, et le md5, le serveur répond l'offset déjà reçu, puis octets
+                        if (arg.isEmpty()) { System.out.println("Usage: upload <chemin_local_fichier>"); break; }
+                        String path = unquote(arg);
+                        File f = new File(path);
+                        if (!f.exists() || !f.isFile()) { System.out.println("Fichier local introuvable: " + path); break; }
+
+                        upload(in, out, pipe, f);
+                        break;
+                    }
+
+                    // ===== UPLOAD DIFFÉRENTIEL : seuls les octets qui diffèrent de la copie du serveur sont envoyés =====
+                    case "dupload": {
+                        if (arg.isEmpty()) { System.out.println("Usage: dupload <chemin_local_fichier>"); break; }
+                        String path = unquote(arg);
+                        File f = new File(path);
+                        if (!f.exists() || !f.isFile()) { System.out.println("Fichier local introuvable: " + path); break; }
+                        if (!deltaUpload(in, out, pipe, f)) upload(in, out, pipe, f);   // pas de copie sur le serveur, ou refus
+                        break;
+                    }
+
+                    // ===== DOWNLOAD (avec MD5, reprise automatique) =====
+                    case "download": { //on reçoit dans <fichier>.part puis on renomme si le MD5 du fichier entier est bon
+                        if (arg.isEmpty()) { System.out.println("Usage: download <nom_fichier_serveur>"); break; }
+                        File part = findPartial(downloadsRoot, arg);
+                        long offset = part.length();     // 0 si aucun partiel
+
+                        pipe.begin(); out.writeUTF("DOWNLOAD_RANGE"); out.writeUTF(arg); out.writeLong(offset); out.writeLong(-1L); out.flush();
+                        pipe.expect();
+                        receiveDownload(in, pipe.codec, downloadsRoot, arg, part, offset);
+                        break;
+                    }
+
+                    // ===== UPLOAD PARALLÈLE : morceaux envoyés sur STREAMS connexions, puis validation du fichier entier =====
+                    case "pupload": {
+                        if (arg.isEmpty()) { System.out.println("Usage: pupload <chemin_local_fichier>"); break; }
+                        File f = new File(unquote(arg));
+                        if (!f.isFile()) { System.out.println("Fichier local introuvable: " + f.getPath()); break; }
+                        String md5 = computeFileDigest(f);
+                        long size = f.length();
+
+                        pipe.begin(); out.writeUTF("UPLOAD_PARALLEL"); out.writeUTF(f.getName()); out.writeLong(size); out.writeUTF(md5); out.flush();
+                        pipe.expect();
+                        String ack = in.readUTF();
+                        if (!ack.equals("PARALLEL_OK")) { System.out.println(ack); break; }
+
+                        long t0 = System.nanoTime();
+                        String err;
+                        try (FileChannel src = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                            err = runChunks(serverIp, serverPort, pipe.remoteCwd, size, (c, off, len) -> {
+                                byte[] chunk = new byte[(int) len];
+                                ByteBuffer bb = ByteBuffer.wrap(chunk);
+                                while (bb.hasRemaining()) {
+                                    if (src.read(bb, off + bb.position()) == -1) throw new EOFException("Fichier local tronqué");
+                                }
+                                c.out.writeUTF("UPLOAD_CHUNK"); c.out.writeUTF(f.getName()); c.out.writeLong(size); c.out.writeUTF(md5);
+                                c.out.writeLong(off); c.out.writeLong(len); c.out.writeUTF(toHex(newDigest().digest(chunk)));
+                                c.out.write(chunk);
+                                c.out.flush();
+                                String r = c.in.readUTF();
+                                if (!r.startsWith("CHUNK_OK")) throw new IOException(r);
+                            });
+                        }
+                        if (err != null) { System.out.println("Upload parallèle interrompu: " + err); break; }
+
+                        pipe.begin(); out.writeUTF("UPLOAD_COMMIT"); out.writeUTF(f.getName()); out.writeLong(size); out.writeUTF(md5); out.flush();
+                        pipe.expect();
+                        System.out.println(in.readUTF()); // UPLOAD_OK / UPLOAD_ERR (MD5 du fichier entier)
+                        System.out.println(rate(size, t0));
+                        break;
+                    }
+
+                    // ===== DOWNLOAD PARALLÈLE : plages DOWNLOAD_RANGE sur STREAMS connexions, MD5 par morceau + fichier entier =====
+                    case "pdownload": {
+                        if (arg.isEmpty()) { System.out.println("Usage: pdownload <nom_fichier_serveur>"); break; }
+                        pipe.begin(); out.writeUTF("DOWNLOAD_RANGE"); out.writeUTF(arg); out.writeLong(0L); out.writeLong(0L); out.flush();
+                        pipe.expect();
+                        long size = in.readLong();       // plage vide : sert juste à obtenir taille + MD5 du fichier
+                        if (size < 0) { System.out.println(in.readUTF()); break; }
+                        in.readLong();
+                        if (pipe.codec != null) in.readBoolean();   // drapeau de compression (plage vide)
+                        in.readUTF();
+                        String serverMd5 = in.readUTF();
+
+                        File outFile = new File(downloadsRoot, arg);
+                        File parent = outFile.getParentFile(); if (parent != null) parent.mkdirs();
+                        File tmp = new File(downloadsRoot, arg + ".pdownload");
+                        long t0 = System.nanoTime();
+                        String err;
+                        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+                            raf.setLength(size);
+                            FileChannel dst = raf.getChannel();
+                            err = runChunks(serverIp, serverPort, pipe.remoteCwd, size, (c, off, len) -> {
+                                c.out.writeUTF("DOWNLOAD_RANGE"); c.out.writeUTF(arg); c.out.writeLong(off); c.out.writeLong(len); c.out.flush();
+                                if (c.in.readLong() < 0) throw new IOException(c.in.readUTF());
+                                long n = c.in.readLong();
+                                if (n != len) throw new IOException("Plage incomplète @" + off);
+                                MessageDigest md = newDigest();
+                                byte[] buf = new byte[64 * 1024];
+                                long pos = off, remaining = n;
+                                while (remaining > 0) {
+                                    int r = c.in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                                    if (r == -1) throw new EOFException("Flux terminé avant d'avoir reçu tous les octets");
+                                    ByteBuffer bb = ByteBuffer.wrap(buf, 0, r);
+                                    while (bb.hasRemaining()) pos += dst.write(bb, pos);
+                                    md.update(buf, 0, r);
+                                    remaining -= r;
+                                }
+                                String chunkMd5 = c.in.readUTF();
+                                c.in.readUTF();
+                                if (!chunkMd5.equalsIgnoreCase(toHex(md.digest()))) throw new IOException("MD5 du morceau @" + off + " incorrect");
+                            });
+                        }
+                        if (err != null) { tmp.delete(); System.out.println("Download parallèle interrompu: " + err); break; }
+
+                        String clientMd5 = computeFileDigest(tmp);
+                        boolean ok = clientMd5.equalsIgnoreCase(serverMd5);
+                        if (ok) {
+                            if (outFile.exists()) outFile.delete();
+                            if (!tmp.renameTo(outFile)) throw new IOException("Renommage impossible: " + tmp.getPath());
+                        } else {
+                            tmp.delete();
+                        }
+                        System.out.println("Download " + (ok ? "OK" : integrity.toUpperCase(Locale.ROOT) + " MISMATCH") + " : " + arg + " (" + size + " octets)");
+                        System.out.println("  server " + integrity + " = " + serverMd5);
+                        System.out.println("  client " + integrity + " = " + clientMd5);
+                        System.out.println(rate(size, t0));
+                        if (ok) System.out.println("→ sauvegardé dans " + outFile.getPath());
+                        break;
+                    }
+
+                    // ===== OPÉRATIONS PAR LOT : un seul échange pour tout un dossier (manifeste, corps bout à bout, MD5) =====
+                    case "mupload": {
+                        if (arg.isEmpty()) { System.out.println("Usage: mupload <chemin_local_dossier>"); break; }
+                        File dir = new File(unquote(arg));
+                        if (!dir.isDirectory()) { System.out.println("Dossier local introuvable: " + dir.getPath()); break; }
+                        java.util.List<File> entries = new java.util.ArrayList<>();
+                        listRecursive(dir, entries);
+                        if (entries.size() > MUPLOAD_MAX) {       // le serveur refuserait et fermerait la session
+                            System.out.println("Trop d'entrées pour un mupload : " + entries.size() + " (max " + MUPLOAD_MAX + ")"); break;
+                        }
+
+                        // manifeste : le serveur valide tout avant qu'on envoie le moindre octet
+                        pipe.begin();
+                        out.writeUTF("MUPLOAD"); out.writeUTF(dir.getName()); out.writeInt(entries.size());
+                        long[] sizes = new long[entries.size()];
+                        for (int i = 0; i < sizes.length; i++) {
+                            File e = entries.get(i);
+                            sizes[i] = e.isDirectory() ? -1L : e.length();
+                            out.writeUTF(dir.toPath().relativize(e.toPath()).toString().replace('\\', '/'));
+                            out.writeLong(sizes[i]);
+                        }
+                        out.flush();
+                        pipe.expect();
+                        String ack = in.readUTF();
+                        if (!ack.equals("MUPLOAD_OK")) { System.out.println(ack); break; }
+
+                        // corps : chaque fichier est lu une seule fois, le MD5 est calculé pendant l'envoi
+                        long t0 = System.nanoTime(), total = 0;
+                        String[] md5s = new String[sizes.length];
+                        for (int i = 0; i < sizes.length; i++) {
+                            if (sizes[i] < 0) continue;
+                            MessageDigest md = newDigest();
+                            try (InputStream fis = new BufferedInputStream(new FileInputStream(entries.get(i)))) {
+                                sendBody(out, pipe.codec, entries.get(i).getName(), fis, sizes[i], md);
+                            }
+                            md5s[i] = toHex(md.digest());
+                            total += sizes[i];
+                        }
+                        for (String md5 : md5s) if (md5 != null) out.writeUTF(md5);
+                        out.flush();
+
+                        int k = in.readInt();             // une ligne par fichier refusé + résumé
+                        for (int i = 0; i < k; i++) System.out.println(in.readUTF());
+                        System.out.println(rate(total, t0, false));
+                        break;
+                    }
+                    case "mdownload": {
+                        if (arg.isEmpty()) { System.out.println("Usage: mdownload <dossier_serveur>"); break; }
+                        pipe.begin(); out.writeUTF("MDOWNLOAD"); out.writeUTF(arg); out.flush();
+                        pipe.expect();
+                        String ack = in.readUTF();
+                        if (!ack.equals("MDOWNLOAD_OK")) { System.out.println(ack); break; }
+                        int n = in.readInt();
+                        String[] rels = new String[n];
+                        long[] sizes = new long[n];
+                        for (int i = 0; i < n; i++) { rels[i] = in.readUTF(); sizes[i] = in.readLong(); }
+
+                        File base = new File(downloadsRoot, new File(arg).getName().isEmpty() || arg.equals(".") ? "racine" : new File(arg).getName());
+                        base.mkdirs();
+                        long t0 = System.nanoTime(), total = 0;
+                        String[] md5s = new String[n];
+                        File[] files = new File[n];
+                        for (int i = 0; i < n; i++) {
+                            files[i] = new File(base, rels[i]);
+                            if (!files[i].toPath().normalize().startsWith(base.toPath())) throw new IOException("Chemin refusé: " + rels[i]);
+                            if (sizes[i] < 0) { files[i].mkdirs(); continue; }
+                            File parent = files[i].getParentFile(); if (parent != null) parent.mkdirs();
+                            MessageDigest md = newDigest();
+                            try (OutputStream fos = new BufferedOutputStream(new FileOutputStream(files[i]))) {
+                                receiveBody(in, pipe.codec, sizes[i], fos, md);
+                            }
+                            md5s[i] = toHex(md.digest());
+                            total += sizes[i];
+                        }
+                        int ok = 0, bad = 0;
+                        for (int i = 0; i < n; i++) {
+                            if (sizes[i] < 0) continue;
+                            String serverMd5 = in.readUTF();
+                            if (serverMd5.equalsIgnoreCase(md5s[i])) { ok++; continue; }
+                            bad++;
+                            files[i].delete();
+                            System.out.println(integrity.toUpperCase(Locale.ROOT) + " MISMATCH : " + rels[i] + " (server=" + serverMd5 + " client=" + md5s[i] + ")");
+                        }
+                        System.out.println("Download " + (bad == 0 ? "OK" : "INCOMPLET") + " : " + ok + " fichier(s), " + bad + " erreur(s), " + total + " octets");
+                        System.out.println(rate(total, t0, false));
+                        System.out.println("→ sauvegardé dans " + base.getPath());
+                        break;
+                    }
+                    case "mdelete": {
+                        if (arg.isEmpty()) { System.out.println("Usage: mdelete <motif> (ex. *.log)"); break; }
+                        pipe.begin(); out.writeUTF("MDELETE"); out.writeUTF(unquote(arg)); out.flush();
+                        pipe.expect();
+                        String ack = in.readUTF();
+                        if (!ack.equals("MDELETE_OK")) { System.out.println(ack); break; }
+                        int k = in.readInt();
+                        if (k == 0) System.out.println("Aucune entrée ne correspond à " + arg);
+                        for (int i = 0; i < k; i++) System.out.println(in.readUTF());
+                        break;
+                    }
+
+                    default:
+                        System.out.println("Commande inconnue. Essayez: ls, cd, mkdir, delete, upload, download, pupload, pdownload, mupload, mdownload, mdelete, stats, exit");
+                }
+            }
+        } catch (Exception e) {
+            //si la connexion echoue ou autre I/O, on affiche et on sort
+            System.err.println("Erreur client: " + e.getMessage());
+        }
+    }
+
+    // ===== Upload (complet ou différentiel) =====
+    // UPLOAD complet (avec reprise) : d'abord UPLOAD_HASH si le serveur annonce le stockage dédupliqué (il a
+    // peut-être déjà ce contenu), puis UPLOAD_RESUME
+    private static void upload(DataInputStream in, DataOutputStream out, Pipeline pipe, File f) throws IOException {
+        String md5, sha256 = null;
+        try {
+            if (cas) { String[] d = computeFileDigests(f); md5 = d[0]; sha256 = d[1]; }
+            else md5 = computeFileDigest(f);
+        } catch (Exception e) { System.out.println("Erreur " + integrity + ": " + e.getMessage()); return; }
+
+        if (sha256 != null) {
+            pipe.begin();
+            out.writeUTF("UPLOAD_HASH"); out.writeUTF(f.getName()); out.writeLong(f.length()); out.writeUTF(md5); out.writeUTF(sha256);
+            out.flush();
+            pipe.expect();
+            String known = in.readUTF();
+            if (known.startsWith("UPLOAD_OK")) { System.out.println(known); return; }
+        }
+
+        pipe.begin();
+        out.writeUTF("UPLOAD_RESUME");
+        out.writeUTF(f.getName());
+        out.writeLong(f.length());
+        out.writeUTF(md5);
+        out.flush();
+
+        pipe.expect();
+        long offset = in.readLong();     // octets déjà reçus par le serveur lors d'un essai précédent
+        if (offset < 0) { System.out.println(in.readUTF()); return; }
+        if (offset > 0) System.out.println("Reprise de l'upload à l'octet " + offset + "/" + f.length());
+
+        try (InputStream fis = new BufferedInputStream(new FileInputStream(f))) {
+            skipExactly(fis, offset);
+            sendBody(out, pipe.codec, f.getName(), fis, f.length() - offset, null);
+        }
+        out.flush();
+
+        System.out.println(in.readUTF()); // UPLOAD_OK / UPLOAD_ERR .. etc.
+    }
+
+    // UPLOAD_DELTA (cf. Delta) : signature de la copie du serveur, puis références de blocs + octets modifiés, et
+    // l'empreinte du fichier entier à la fin (le fichier local n'est lu qu'une fois). false → à renvoyer en entier
+    private static boolean deltaUpload(DataInputStream in, DataOutputStream out, Pipeline pipe, File f) throws IOException {
+        pipe.begin(); out.writeUTF("SIGNATURE"); out.writeUTF(f.getName()); out.flush();
+        pipe.expect();
+        long basisSize = in.readLong();
+        if (basisSize < 0) { System.out.println(in.readUTF() + " → envoi complet"); return false; }
+        Delta.Signature sig = Delta.Signature.read(in, basisSize);
+
+        long t0 = System.nanoTime();
+        MessageDigest md = newDigest();
+        pipe.begin();
+        out.writeUTF("UPLOAD_DELTA"); out.writeUTF(f.getName()); out.writeLong(f.length()); out.writeInt(sig.blockSize);
+        Delta.Stats st;
+        try (InputStream fis = new FileInputStream(f)) { st = Delta.encode(fis, f.length(), sig, out, md); }
+        out.writeUTF(toHex(md.digest()));
+        out.flush();
+        pipe.expect();
+        String r = in.readUTF();
+        System.out.println(r);
+        if (!r.startsWith("UPLOAD_OK")) { System.out.println("Envoi différentiel refusé → envoi complet"); return false; }
+        System.out.printf(Locale.ROOT, "Delta : %d octets envoyés sur %d (%.1f %%), %d repris de la copie du serveur,%s%n",
+                st.literal, f.length(), f.length() == 0 ? 0.0 : 100.0 * st.literal / f.length(), st.copied, rate(f.length(), t0, false));
+        return true;
+    }
+
+    // ===== Validation IP/Port & prompts ===== pareil que dans le serveur
+    private static boolean isValidIPv4(String ip) {
+        if (ip == null) return false;
+        if ("localhost".equalsIgnoreCase(ip)) return true;
+        String ipv4 = "^((25[0-5]|2[0-4]\\d|1?\\d?\\d)\\.){3}(25[0-5]|2[0-4]\\d|1?\\d?\\d)$";
+        return ip.matches(ipv4);
+    }
+    private static boolean isValidPort(int p) { return p >= 5000 && p <= 5050; }
+    private static String askIp(BufferedReader br) throws IOException {
+        while (true) {
+            System.out.print("Adresse IP du serveur (ENTER=127.0.0.1) : ");
+            String ip = br.readLine();
+            if (ip == null || ip.trim().isEmpty()) return "127.0.0.1";
+            ip = ip.trim();
+            if (isValidIPv4(ip) || "localhost".equalsIgnoreCase(ip)) return ip;
+            System.out.println("IP invalide. Exemple: 127.0.0.1 (ou 'localhost').");
+        }
+    }
+    private static int askPort(BufferedReader br) throws IOException {
+        while (true) {
+            System.out.print("Port du serveur (5000–5050) (ENTER=5000) : ");
+            String line = br.readLine();
+            if (line == null || line.trim().isEmpty()) return 5000;
+            Integer p = tryParseInt(line.trim());
+            if (p != null && isValidPort(p)) return p;
+            System.out.println("Port invalide. Choisis un entier entre 5000 et 5050.");
+        }
+    }
+    private static Integer tryParseInt(String s) {
+        try { return Integer.parseInt(s); } catch (Exception e) { return null; }
+    }
+
+    // ===== Lecture des réponses (partagée par le mode interactif et le thread lecteur du pipeline) =====
+
+    // LS : nb d'entrées puis une ligne par entrée
+    private static void printLs(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n == 0) System.out.println("(vide)");
+        for (int i = 0; i < n; i++) System.out.println(in.readUTF());
+    }
+
+    // ls -l [motif] : listage détaillé par pages (LS_PAGE), affiché au fil de l'eau, dans l'ordre du serveur
+    private static void listPages(DataInputStream in, DataOutputStream out, Pipeline pipe, String arg) throws IOException {
+        String glob = arg.equals("-l") ? "" : arg.startsWith("-l ") ? arg.substring(3).trim() : arg;
+        java.text.SimpleDateFormat fmt = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm");
+        String cursor = "";
+        long n = 0;
+        do {
+            pipe.begin();
+            out.writeUTF("LS_PAGE"); out.writeUTF(cursor); out.writeInt(LS_PAGE); out.writeUTF(glob);
+            out.flush();
+            pipe.expect();
+            while (in.readBoolean()) {
+                String name = in.readUTF();
+                boolean dir = in.readBoolean();
+                long size = in.readLong(), mtime = in.readLong();
+                System.out.printf("%-8s %12s  %s  %s%n", dir ? "[Folder]" : "[File]", dir ? "-" : Long.toString(size),
+                        fmt.format(new java.util.Date(mtime)), name);
+                n++;
+            }
+            cursor = in.readUTF();
+            if (cursor.startsWith("ERR")) { System.out.println(cursor); return; }
+        } while (!cursor.isEmpty());
+        System.out.println(n == 0 ? "(vide)" : "(" + n + " entrée(s))");
+    }
+
+    // find <motif> [min-max] : une seule requête FIND (dossier courant et dessous), résultats affichés comme ls -l
+    // Bornes de taille en octets, ou avec k/M/G : 10M- (au moins), -4k (au plus), 1k-2M
+    private static void find(DataInputStream in, DataOutputStream out, Pipeline pipe, String arg) throws IOException {
+        String glob = arg;
+        long min = -1, max = -1;
+        int sp = arg.lastIndexOf(' ');
+        String range = sp < 0 ? "" : arg.substring(sp + 1);
+        if (range.matches("(\\d+[kKmMgG]?)?-(\\d+[kKmMgG]?)?") && range.length() > 1) {
+            glob = arg.substring(0, sp).trim();
+            int dash = range.indexOf('-');
+            if (dash > 0) min = parseSize(range.substring(0, dash));
+            if (dash < range.length() - 1) max = parseSize(range.substring(dash + 1));
+        }
+        java.text.SimpleDateFormat fmt = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm");
+        pipe.begin();
+        out.writeUTF("FIND"); out.writeUTF(unquote(glob)); out.writeLong(min); out.writeLong(max); out.writeInt(FIND_LIMIT);
+        out.flush();
+        pipe.expect();
+        while (in.readBoolean()) {
+            String path = in.readUTF();
+            boolean dir = in.readBoolean();
+            long size = in.readLong(), mtime = in.readLong();
+            System.out.printf("%-8s %12s  %s  %s%n", dir ? "[Folder]" : "[File]", dir ? "-" : Long.toString(size),
+                    fmt.format(new java.util.Date(mtime)), path);
+        }
+        System.out.println(in.readUTF());
+    }
+
+    // "64k" → 65536 (suffixes k, M, G en puissances de 1024)
+    private static long parseSize(String s) {
+        char u = Character.toLowerCase(s.charAt(s.length() - 1));
+        int shift = u == 'k' ? 10 : u == 'm' ? 20 : u == 'g' ? 30 : 0;
+        return Long.parseLong(shift == 0 ? s : s.substring(0, s.length() - 1)) << shift;
+    }
+
+    // Réponse de DOWNLOAD_RANGE : les octets vont à la suite du partiel, puis on vérifie le MD5 du fichier entier
+    private static void receiveDownload(DataInputStream in, BlockCodec codec, File downloadsRoot, String arg, File part, long offset)
+            throws IOException, NoSuchAlgorithmException {
+        long size = in.readLong();
+        if (size < 0) { System.out.println(in.readUTF()); return; }
+        long n = in.readLong();
+        if (offset > 0) System.out.println("Reprise du download à l'octet " + offset + "/" + size);
+
+        MessageDigest md = newDigest();
+        try (OutputStream fos = new BufferedOutputStream(new FileOutputStream(part, offset > 0))) {
+            receiveBody(in, codec, n, fos, md);
+        }
+        in.readUTF();                    // MD5 de la plage (le fichier assemblé est vérifié en entier ci-dessous)
+        //On print les deux md5 pour montrer si c'Est correct ou non 
+        String serverMd5 = in.readUTF();
+        String clientMd5 = (offset == 0) ? toHex(md.digest()) : computeFileDigest(part);
+        File outFile = new File(downloadsRoot, arg);
+        boolean ok = clientMd5.equalsIgnoreCase(serverMd5);
+        if (ok) {
+            if (outFile.exists()) outFile.delete();
+            if (!part.renameTo(outFile)) throw new IOException("Renommage impossible: " + part.getPath());
+        } else {
+            part.delete();               // fichier changé sur le serveur ou corrompu : on repartira de zéro
+        }
+        String status = ok ? "OK" : integrity.toUpperCase(Locale.ROOT) + " MISMATCH";
+        System.out.println("Download " + status + " : " + arg + " (" + size + " octets)");
+        System.out.println("  server " + integrity + " = " + serverMd5);
+        System.out.println("  client " + integrity + " = " + clientMd5);
+        System.out.println(ok ? "→ sauvegardé dans " + outFile.getPath() : "→ partiel supprimé, relancez download");
+    }
+
+    // ===== Compression (session COMPRESS) =====
+    // Proposée juste après l'accueil ; un serveur qui refuse (ou le moteur nio) laisse la session en brut
+    private static BlockCodec negotiateCompression(DataInputStream in, DataOutputStream out) throws IOException {
+        out.writeUTF("COMPRESS"); out.writeUTF(BlockCodec.NAME); out.flush();
+        String r = in.readUTF();
+        if (r.startsWith("COMPRESS_OK")) { System.out.println("Compression des transferts : " + BlockCodec.NAME); return new BlockCodec(); }
+        System.out.println("Compression refusée par le serveur (" + r + ") → transferts bruts");
+        return null;
+    }
+
+    // ===== Intégrité (INTEGRITY) =====
+    // Le serveur retient le premier algorithme de la liste qu'il connaît (md5 sinon) ; les connexions
+    // supplémentaires proposent la même liste, donc obtiennent le même
+    static void negotiateIntegrity(DataInputStream in, DataOutputStream out) throws IOException {
+        out.writeUTF("INTEGRITY"); out.writeUTF(INTEGRITY); out.flush();
+        String r = in.readUTF();
+        integrity = r.startsWith("INTEGRITY_OK ") ? r.substring(13).trim() : Integrity.DEFAULT;
+    }
+
+    // Corps de fichier envoyé : le drapeau (session COMPRESS seulement) dit au serveur s'il est compressé
+    private static void sendBody(DataOutputStream out, BlockCodec codec, String name, InputStream src, long len, MessageDigest md)
+            throws IOException {
+        if (codec == null) { copyExactly(src, out, len, md); return; }
+        boolean z = BlockCodec.worthCompressing(name);
+        out.writeBoolean(z);
+        if (z) codec.encode(src, len, out, md); else copyExactly(src, out, len, md);
+    }
+
+    // Corps de fichier reçu : en blocs compressés si le serveur l'annonce, sinon brut
+    private static void receiveBody(DataInputStream in, BlockCodec codec, long len, OutputStream dst, MessageDigest md)
+            throws IOException {
+        if (codec != null && in.readBoolean()) codec.decode(in, len, dst, md);
+        else copyExactly(in, dst, len, md);
+    }
+
+    // ===== Pipeline (mode batch) =====
+    // Après PIPELINE, chaque requête et chaque réponse commencent par un id (int). Les commandes courtes
+    // (ls, cd, mkdir, delete, download) partent sans attendre leur réponse ; un thread lecteur lit les réponses
+    // dans l'ordre, vérifie les id et les affiche. Au plus WINDOW requêtes en vol. Les autres commandes
+    // (upload, pupload, pdownload, exit) attendent d'abord toutes les réponses (drain) puis passent en synchrone.
+    // Sans pipeline (mode interactif ou serveur qui refuse), begin()/expect() ne font rien.
+    private static final class Pipeline {
+        private static final int WINDOW = 256;
+
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final File downloadsRoot;
+        volatile String remoteCwd;                  // mis à jour par chaque réponse de cd
+        BlockCodec codec;                           // non null si le serveur a accepté COMPRESS
+        boolean framed;
+        private int nextId;
+        private final Semaphore window = new Semaphore(WINDOW);
+        private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+        private volatile Exception failure;
+
+        private static final class Pending {
+            final int id; final String line, cmd, arg; final File part; final long offset;
+            Pending(int id, String line, String cmd, String arg, File part, long offset) {
+                this.id = id; this.line = line; this.cmd = cmd; this.arg = arg; this.part = part; this.offset = offset;
+            }
+        }
+
+        Pipeline(DataInputStream in, DataOutputStream out, File downloadsRoot, String remoteCwd) {
+            this.in = in; this.out = out; this.downloadsRoot = downloadsRoot; this.remoteCwd = remoteCwd;
+        }
+
+        void enable() throws IOException {
+            out.writeUTF("PIPELINE"); out.flush();
+            String r = in.readUTF();
+            if (!r.equals("PIPELINE_OK")) { System.out.println("Pipeline refusé par le serveur (" + r + ") → mode séquentiel"); return; }
+            framed = true;
+            Thread t = new Thread(this::readLoop, "pipeline-reader");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        void begin() throws IOException { if (framed) out.writeInt(++nextId); }
+
+        void expect() throws IOException {
+            if (!framed) return;
+            int id = in.readInt();
+            if (id != nextId) throw new IOException("Réponse inattendue: id " + id + " au lieu de " + nextId);
+        }
+
+        // Envoie une commande courte sans attendre ; false si elle doit passer par le chemin synchrone
+        boolean submit(String cmd, String arg, String line) throws IOException, InterruptedException {
+            File part = null;
+            long offset = 0;
+            switch (cmd) {
+                case "ls": if (!arg.isEmpty()) return false; break;   // ls -l : plusieurs allers-retours (LS_PAGE)
+                case "stats": break;
+                case "cd": case "mkdir": case "delete": if (arg.isEmpty()) return false; break;
+                case "download":
+                    if (arg.isEmpty()) return false;
+                    part = findPartial(downloadsRoot, arg);
+                    offset = part.length();
+                    break;
+                default: return false;
+            }
+            if (failure != null) throw new IOException(failure.getMessage(), failure);
+            if (!window.tryAcquire()) {             // fenêtre pleine : on pousse le lot en attente avant de bloquer
+                out.flush();
+                window.acquire();
+            }
+            begin();
+            switch (cmd) {
+                case "ls":       out.writeUTF("LS"); break;
+                case "stats":    out.writeUTF("STATS"); break;
+                case "cd":       out.writeUTF("CD"); out.writeUTF(arg); break;
+                case "mkdir":    out.writeUTF("MKDIR"); out.writeUTF(arg); break;
+                case "delete":   out.writeUTF("DELETE"); out.writeUTF(arg); break;
+                case "download": out.writeUTF("DOWNLOAD_RANGE"); out.writeUTF(arg); out.writeLong(offset); out.writeLong(-1L); break;
+            }
+            pending.add(new Pending(nextId, line, cmd, arg, part, offset));
+            return true;
+        }
+
+        // Attend que toutes les réponses en vol aient été lues
+        void drain() throws IOException, InterruptedException {
+            if (!framed) return;
+            out.flush();
+            window.acquire(WINDOW);
+            window.release(WINDOW);
+            if (failure != null) throw new IOException(failure.getMessage(), failure);
+        }
+
+        void readCd() throws IOException {
+            System.out.println(in.readUTF());      // message (succès/erreur)
+            String cwdLine = in.readUTF();         // CWD
+            System.out.println(cwdLine);
+            if (cwdLine.startsWith("CWD: ")) remoteCwd = cwdLine.substring(5);
+        }
+
+        private void readLoop() {
+            try {
+                while (true) {
+                    Pending p = pending.take();
+                    int id = in.readInt();
+                    if (id != p.id) throw new IOException("Réponse inattendue: id " + id + " au lieu de " + p.id);
+                    System.out.println("> " + p.line);
+                    switch (p.cmd) {
+                        case "ls": case "stats": printLs(in); break;
+                        case "cd":       readCd(); break;
+                        case "download": receiveDownload(in, codec, downloadsRoot, p.arg, p.part, p.offset); break;
+                        default:         System.out.println(in.readUTF());
+                    }
+                    window.release();
+                }
+            } catch (Exception e) {
+                failure = e;
+                window.release(WINDOW);            // débloque drain() / submit() côté principal
+            }
+        }
+    }
+
+    // ===== Transferts parallèles =====
+
+    // Connexion de travail : même accueil qu'une session normale, puis cd dans le dossier de la session principale
+    static final class Conn implements Closeable {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Conn(String ip, int port, String remoteCwd) throws IOException {
+            socket = new Socket(ip, port);
+            socket.setTcpNoDelay(true);
+            in  = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            in.readUTF(); in.readUTF();                   // Hello + CWD
+            if (!INTEGRITY.isEmpty()) negotiateIntegrity(in, out);
+            String rel = remoteCwd.startsWith("/") ? remoteCwd.substring(1) : remoteCwd;
+            if (!rel.isEmpty()) {
+                out.writeUTF("CD"); out.writeUTF(rel); out.flush();
+                String msg = in.readUTF(); in.readUTF();
+                if (msg.startsWith("ERR")) throw new IOException(msg);
+            }
+        }
+
+        @Override public void close() throws IOException {
+            try { out.writeUTF("EXIT"); out.flush(); in.readUTF(); }
+            finally { socket.close(); }
+        }
+    }
+
+    private interface ChunkTask { void run(Conn c, long offset, long length) throws Exception; }
+
+    // Découpe [0, size) en morceaux de CHUNK_SIZE que STREAMS connexions se partagent (le prochain morceau libre
+    // est pris dès qu'une connexion a fini le sien). Retourne null si tout est passé, sinon la première erreur.
+    private static String runChunks(String ip, int port, String remoteCwd, long size, ChunkTask task) throws InterruptedException {
+        int streams = (int) Math.max(1, Math.min(STREAMS, (size + CHUNK_SIZE - 1) / CHUNK_SIZE));
+        AtomicLong next = new AtomicLong();
+        AtomicReference<String> error = new AtomicReference<>();
+        ExecutorService pool = Executors.newFixedThreadPool(streams);
+        for (int i = 0; i < streams; i++) {
+            pool.execute(() -> {
+                try (Conn c = new Conn(ip, port, remoteCwd)) {
+                    long off;
+                    while (error.get() == null && (off = next.getAndAdd(CHUNK_SIZE)) < size) {
+                        task.run(c, off, Math.min(CHUNK_SIZE, size - off));
+                    }
+                } catch (Exception e) {
+                    error.compareAndSet(null, String.valueOf(e.getMessage()));
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        return error.get();
+    }
+
+    private static String rate(long bytes, long t0) {
+        return rate(bytes, t0, true);
+    }
+    private static String rate(long bytes, long t0, boolean parallel) {
+        double sec = Math.max(1e-9, (System.nanoTime() - t0) / 1e9);
+        String r = String.format(Locale.ROOT, "  %.1f Mo en %.2f s (%.1f Mo/s", bytes / 1048576.0, sec, bytes / sec / 1048576.0);
+        return parallel ? r + String.format(Locale.ROOT, ", %d flux de %d Ko)", STREAMS, CHUNK_SIZE / 1024) : r + ")";
+    }
+
+    // ===== Utilitaires divers =====
+    private static void copyExactly(InputStream in, OutputStream out, long size) throws IOException {
+        byte[] buf = new byte[8192];
+        long remaining = size;
+        while (remaining > 0) {
+            int read = in.read(buf, 0, (int)Math.min(buf.length, remaining));
+            if (read == -1) throw new EOFException("Flux terminé avant d'avoir reçu tous les octets");
+            out.write(buf, 0, read);
+            remaining -= read;
+        }
+    }
+    // Copie + MD5 au passage (md null → copie simple)
+    private static void copyExactly(InputStream in, OutputStream out, long size, MessageDigest md) throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        long remaining = size;
+        while (remaining > 0) {
+            int read = in.read(buf, 0, (int)Math.min(buf.length, remaining));
+            if (read == -1) throw new EOFException("Flux terminé avant d'avoir reçu tous les octets");
+            out.write(buf, 0, read);
+            if (md != null) md.update(buf, 0, read);
+            remaining -= read;
+        }
+    }
+    // Contenu d'un dossier local (dossiers compris, pour recréer aussi les dossiers vides), parent avant enfants
+    private static void listRecursive(File dir, java.util.List<File> acc) {
+        File[] children = dir.listFiles();
+        if (children == null) return;
+        java.util.Arrays.sort(children);
+        for (File c : children) {
+            acc.add(c);
+            if (c.isDirectory()) listRecursive(c, acc);
+        }
+    }
+    static void skipExactly(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long k = in.skip(n);
+            if (k <= 0) throw new EOFException("Fichier local plus court que prévu");
+            n -= k;
+        }
+    }
+    // Fichier partiel d'un download interrompu, dans notre dossier seulement : ceux des autres dossiers
+    // downloads/client-<id>/ peuvent appartenir à un client encore en cours
+    private static File findPartial(File downloadsRoot, String name) {
+        File part = new File(downloadsRoot, name + ".part");
+        File parent = part.getParentFile(); if (parent != null) parent.mkdirs();
+        return part;
+    }
+    private static String unquote(String s) {
+        if (s == null) return null;
+        s = s.trim();
+        if ((s.startsWith("\"") && s.endsWith("\"")) ||
+            (s.startsWith("'")  && s.endsWith("'"))  ||
+            (s.startsWith("“")  && s.endsWith("”"))) {
+            s = s.substring(1, s.length() - 1);
+        }
+        return s;
+    }
+    private static int extractClientId(String hello) {
+        Matcher m = Pattern.compile("client#(\\d+)").matcher(hello);
+        if (m.find()) return Integer.parseInt(m.group(1));
+        return (int)(System.currentTimeMillis() % 100000);
+    }
+    // Empreinte de l'algorithme négocié (md5 par défaut)
+    static MessageDigest newDigest() throws IOException { return Integrity.newDigest(integrity); }
+    // Empreinte d'intégrité et SHA-256 (identité du contenu pour UPLOAD_HASH) en une seule lecture
+    private static String[] computeFileDigests(File f) throws IOException, NoSuchAlgorithmException {
+        MessageDigest md = newDigest(), sha = MessageDigest.getInstance("SHA-256");
+        try (InputStream is = new BufferedInputStream(new FileInputStream(f), 64 * 1024)) {
+            byte[] buf = new byte[64 * 1024];
+            int r;
+            while ((r = is.read(buf)) != -1) { md.update(buf, 0, r); sha.update(buf, 0, r); }
+        }
+        return new String[] { toHex(md.digest()), toHex(sha.digest()) };
+    }
+    private static String computeFileDigest(File f) throws IOException, NoSuchAlgorithmException {
+        MessageDigest md = newDigest();
+        try (InputStream is = new BufferedInputStream(new FileInputStream(f))) {
+            byte[] buf = new byte[8192];
+            int r;
+            while ((r = is.read(buf)) != -1) md.update(buf, 0, r);
+        }
+        return toHex(md.digest());
+    }
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
+
@@ -1,263 +1,1316 @@
-// ClientHandler.java — gère 1 client (dans un thread) : commandes + transferts MD5
-import java.net.Socket;
-import java.io.*;
-import java.nio.file.*;
-import java.util.*;
-import java.util.stream.Stream;
-import java.security.MessageDigest;           // Calcul de hash MD5
-import java.security.NoSuchAlgorithmException;
-
-public class ClientHandler extends Thread {
-    // === État spécifique à CE client ===
-    private final Socket socket;             // socket connecté à ce client
-    private final int clientNumber;          // identifiant logique (0,1,2,...) donné par le serveur
-
-    // Racine de stockage du serveur (sandbox). On travaille TOUJOURS sous "storage/"
-    private final Path root = Paths.get("storage").toAbsolutePath().normalize();
-    // Répertoire courant de CE client (modifiable par 'cd')
-    private Path cwd = root;
-
-    public ClientHandler(Socket socket, int clientNumber) {
-        this.socket = socket;
-        this.clientNumber = clientNumber;
-        System.out.println("New connection with client#" + clientNumber + " at " + socket);
-        try { Files.createDirectories(root); } catch (IOException ignored) {} // crée storage/ si absent
-        this.cwd = root;                          // point de départ : la racine
-    }
-
-    @Override public void run() {
-        // Flux binaires "structurés" : UTF pour textes/commandes, octets pour fichiers
-        try (DataInputStream  in  = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
-             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
-
-            // Petit "handshake" : message d'accueil + chemin courant
-            out.writeUTF("Hello from server - you are client#" + clientNumber);
-            out.writeUTF("CWD: " + relPath());
-            out.flush();
-
-            // Boucle principale : on lit une commande, on la traite
-            while (true) {
-                String op;
-                try { op = in.readUTF(); }           // lit la commande (EXIT/LS/CD/...)
-                catch (EOFException e) { break; }    // client a fermé brutalement → on sort
-
-                switch (op) {
-                    case "EXIT": { // fin de session
-                        out.writeUTF("Bye!"); out.flush();
-                        Serveur.log(socket, "exit");
-                        return;                     // termine le thread
-                    }
-                    case "LS":   { handleLs(out); break; } // liste le dossier courant
-                    case "CD":   { String arg = in.readUTF(); handleCd(out, arg); break; } // change de dossier
-                    case "MKDIR":{ String name = in.readUTF(); handleMkdir(out, name); break; } // crée un dossier
-                    case "DELETE":{String name = in.readUTF(); handleDelete(out, name); break; } // supprime fichier/dossier
-
-                    // ====== UPLOAD : le client envoie nom + taille + md5, puis les octets ======
-                    case "UPLOAD": {
-                        String remoteName = in.readUTF();
-                        long   size       = in.readLong();
-                        String clientMd5  = in.readUTF(); // MD5 calculé côté client
-                        handleUpload(in, out, remoteName, size, clientMd5);
-                        break;
-                    }
-
-                    // ====== DOWNLOAD : on envoie taille, octets, puis md5 ======
-                    case "DOWNLOAD": {
-                        String name = in.readUTF();
-                        handleDownload(out, name);
-                        break;
-                    }
-
-                    default: { // commande inconnue
-                        out.writeUTF("ERR Unknown command");
-                        out.flush();
-                    }
-                }
-            }
-        } catch (IOException e) {
-            // Erreur de communication avec ce client (socket cassée, etc.)
-            System.out.println("Error handling client# " + clientNumber + ": " + e);
-        } finally {
-            // Fermeture sécurité
-            try { socket.close(); } catch (IOException ignored) {}
-            System.out.println("Connection with client#" + clientNumber + " closed");
-        }
-    }
-
-    // ---------- COMMANDES de navigation / système de fichiers ----------
-
-    // LS : renvoie d'abord le nombre d'entrées, puis chaque ligne "[$type] nom"
-    private void handleLs(DataOutputStream out) throws IOException {
-        List<String> entries = new ArrayList<>();
-        try (Stream<Path> s = Files.list(cwd)) {
-            // Tri : dossiers en premier, puis ordre alphabétique insensible à la casse
-            s.sorted((a,b)->{
-                boolean da = Files.isDirectory(a), db = Files.isDirectory(b);
-                if (da != db) return da ? -1 : 1;
-                return a.getFileName().toString().compareToIgnoreCase(b.getFileName().toString());
-            }).forEach(p -> entries.add((Files.isDirectory(p) ? "[Folder] " : "[File] ")
-                                        + p.getFileName().toString()));
-        }
-        out.writeInt(entries.size());      // nb d'entrées
-        for (String line : entries) out.writeUTF(line);
-        out.flush();
-        Serveur.log(socket, "ls");
-    }
-
-    // CD : gère 'cd ..' et empêche toute sortie de la racine "storage/"
-    private void handleCd(DataOutputStream out, String arg) throws IOException {
-        if (arg == null || arg.isEmpty()) {
-            out.writeUTF("ERR cd: argument manquant");
-            out.writeUTF("CWD: " + relPath());
-            out.flush();
-            return;
-        }
-        if ("..".equals(arg)) {                    // remonter d'un cran
-            Path parent = cwd.getParent();
-            // si parent est nul ou sort de la racine → on reste à root
-            cwd = (parent != null && parent.startsWith(root)) ? parent.normalize() : root;
-            out.writeUTF("Vous êtes dans le dossier " + relPath() + ".");
-            out.writeUTF("CWD: " + relPath());
-            out.flush();
-            Serveur.log(socket, "cd ..");
-            return;
-        }
-        // cd vers un enfant : normalise et vérifie qu'on reste sous root
-        Path target = cwd.resolve(arg).normalize();
-        if (!target.startsWith(root))            out.writeUTF("ERR cd: accès hors racine interdit");
-        else if (!Files.exists(target))          out.writeUTF("ERR cd: le dossier n'existe pas");
-        else if (!Files.isDirectory(target))     out.writeUTF("ERR cd: ce n'est pas un dossier");
-        else { cwd = target; out.writeUTF("Vous êtes dans le dossier " + relPath() + "."); Serveur.log(socket, "cd " + arg); }
-        out.writeUTF("CWD: " + relPath());
-        out.flush();
-    }
-
-    // MKDIR : crée un dossier (nom simple, pas de séparateurs)
-    private void handleMkdir(DataOutputStream out, String name) throws IOException {
-        if (name == null || name.isEmpty() || name.equals(".") || name.equals("..") ||
-            name.contains("/") || name.contains("\\")) {
-            out.writeUTF("ERR mkdir: nom de dossier invalide");
-            out.flush();
-            return;
-        }
-        Path target = cwd.resolve(name).normalize();
-        if (!target.startsWith(root))        out.writeUTF("ERR mkdir: accès hors racine interdit");
-        else if (Files.exists(target))       out.writeUTF("ERR mkdir: le dossier existe déjà");
-        else { Files.createDirectory(target); out.writeUTF("Le dossier " + name + " a été créé."); Serveur.log(socket, "mkdir " + name); }
-        out.flush();
-    }
-
-    // DELETE : supprime fichier OU dossier (récursif)
-    private void handleDelete(DataOutputStream out, String name) throws IOException {
-        if (name == null || name.isEmpty()) { out.writeUTF("ERR delete: argument manquant"); out.flush(); return; }
-        Path target = cwd.resolve(name).normalize();
-        if (!target.startsWith(root)) { out.writeUTF("ERR delete: accès hors racine interdit"); out.flush(); return; }
-        if (!Files.exists(target))    { out.writeUTF("ERR delete: introuvable");               out.flush(); return; }
-        try {
-            deleteRecursive(target);
-            out.writeUTF("Suppression réussie: " + name);
-            Serveur.log(socket, "delete " + name);
-        } catch (IOException e) {
-            out.writeUTF("ERR delete: " + e.getMessage());
-        }
-        out.flush();
-    }
-
-    // ---------- TRANSFERTS de fichiers avec vérification MD5 ----------
-
-    // UPLOAD : reçoit un fichier du client, calcule le MD5 serveur, compare au MD5 client
-    private void handleUpload(DataInputStream in, DataOutputStream out, String remoteName, long size, String clientMd5) throws IOException {
-        if (remoteName == null || remoteName.isEmpty()) { out.writeUTF("ERR upload: nom de fichier manquant"); out.flush(); return; }
-        if (size < 0) { out.writeUTF("ERR upload: taille négative"); out.flush(); return; }
-
-        // Sécurise le nom (basename) puis construit la cible sous cwd
-        remoteName = Paths.get(remoteName).getFileName().toString();
-        Path target = cwd.resolve(remoteName).normalize();
-        if (!target.startsWith(root)) { out.writeUTF("ERR upload: accès hors racine interdit"); out.flush(); return; }
-
-        // Prépare le calcul MD5 pendant l'écriture sur disque
-        MessageDigest md = getMd5();
-        try (OutputStream fos = new BufferedOutputStream(Files.newOutputStream(
-                target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))) {
-            byte[] buf = new byte[8192];
-            long remaining = size;
-            while (remaining > 0) {
-                int r = in.read(buf, 0, (int)Math.min(buf.length, remaining)); // lit jusqu'à 'remaining'
-                if (r == -1) throw new EOFException("Flux terminé avant d'avoir reçu tous les octets");
-                fos.write(buf, 0, r);        // écrit sur disque
-                md.update(buf, 0, r);        // met à jour le MD5 serveur
-                remaining -= r;
-            }
-        }
-        String serverMd5 = toHex(md.digest());   // MD5 final côté serveur
-
-        // Compare avec le MD5 fourni par le client et répond
-        if (serverMd5.equalsIgnoreCase(clientMd5)) {
-            out.writeUTF("UPLOAD_OK " + remoteName + " size=" + size + " md5=" + serverMd5);
-        } else {
-            out.writeUTF("UPLOAD_ERR md5_mismatch client=" + clientMd5 + " server=" + serverMd5);
-        }
-        out.flush();
-        Serveur.log(socket, "upload " + remoteName + " size=" + size + " md5=" + serverMd5);
-    }
-
-    // DOWNLOAD : envoie la taille, les octets du fichier, puis le MD5 calculé côté serveur
-    private void handleDownload(DataOutputStream out, String name) throws IOException {
-        if (name == null || name.isEmpty()) { out.writeLong(-1L); out.writeUTF("ERR download: argument manquant"); out.flush(); return; }
-        Path src = cwd.resolve(name).normalize();
-        // Vérifie l'existence et interdit les dossiers
-        if (!src.startsWith(root) || !Files.exists(src) || Files.isDirectory(src)) {
-            out.writeLong(-1L); out.writeUTF("ERR download: fichier introuvable"); out.flush(); return;
-        }
-
-        long size = Files.size(src);
-        out.writeLong(size);                         // (1) annonce la taille à recevoir côté client
-
-        MessageDigest md = getMd5();                 // on calcule le MD5 pendant l'envoi
-        try (InputStream fis = new BufferedInputStream(Files.newInputStream(src))) {
-            byte[] buf = new byte[8192];
-            int r;
-            while ((r = fis.read(buf)) != -1) {
-                out.write(buf, 0, r);               // (2) envoie les octets
-                md.update(buf, 0, r);               // met à jour le MD5
-            }
-        }
-        String serverMd5 = toHex(md.digest());
-        out.writeUTF(serverMd5);                    // (3) envoie le MD5 officiel
-        out.flush();
-
-        Serveur.log(socket, "download " + name + " size=" + size + " md5=" + serverMd5);
-    }
-
-    // ---------- Utilitaires ----------
-
-    // Affiche un chemin "propre" relatif à la racine ("/", "/docs", ...)
-    private String relPath() {
-        Path rel = root.relativize(cwd);
-        String s = rel.toString().replace('\\','/');
-        return s.isEmpty() ? "/" : "/" + s;
-    }
-
-    // Suppression récursive (fichier ou dossier)
-    private static void deleteRecursive(Path p) throws IOException {
-        if (Files.isDirectory(p)) {
-            try (DirectoryStream<Path> ds = Files.newDirectoryStream(p)) {
-                for (Path child : ds) deleteRecursive(child);
-            }
-        }
-        Files.deleteIfExists(p);
-    }
-
-    // Obtenir un MessageDigest MD5 (emballé en IOException pour simplifier l'appelant)
-    private static MessageDigest getMd5() throws IOException {
-        try { return MessageDigest.getInstance("MD5"); }
-        catch (NoSuchAlgorithmException e) { throw new IOException("MD5 non supporté", e); }
-    }
-
-    // Conversion d'un tableau d'octets en hexadécimal (minuscule)
-    private static String toHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder(bytes.length * 2);
-        for (byte b : bytes) sb.append(String.format("%02x", b));
-        return sb.toString();
-    }
-}
+// ClientHandler.java — gère 1 client (tâche exécutée par Serveur) : commandes + transferts MD5
+import java.net.Socket;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;           // Calcul des empreintes (Integrity)
+
+public class ClientHandler implements Runnable {
+    // === État spécifique à CE client ===
+    private final Socket socket;             // socket connecté à ce client
+    private final int clientNumber;          // identifiant logique (0,1,2,...) donné par le serveur
+
+    // Racine de stockage du serveur (sandbox). On travaille TOUJOURS sous "storage/" (ou -Dserveur.root=<dossier>)
+    static final Path ROOT = Paths.get(System.getProperty("serveur.root", "storage")).toAbsolutePath().normalize();
+    final Path root = ROOT;
+    // Répertoire courant de CE client (modifiable par 'cd')
+    Path cwd = root;
+
+    // === État partagé par toutes les sessions ===
+    // DOWNLOAD zéro-copie (FileChannel.transferTo → sendfile) : désactivable avec -Dserveur.zeroCopy=false
+    static final boolean ZERO_COPY = Boolean.parseBoolean(System.getProperty("serveur.zeroCopy", "true"));
+    // Empreintes déjà calculées (le zéro-copie ne passe plus les octets par la JVM, donc ne peut plus les hacher) :
+    // un index par algorithme d'intégrité, persisté dans storage/.checksums*, alimenté par UPLOAD, invalidé par
+    // DELETE / écrasement
+    private static final Map<String, ChecksumIndex> indexes = new ConcurrentHashMap<>();
+    // Compression des transferts proposée par le client (COMPRESS) : refusable avec -Dserveur.compress=false
+    static final boolean COMPRESS = Boolean.parseBoolean(System.getProperty("serveur.compress", "true"));
+    // Stockage dédupliqué (-Dserveur.storage=cas) : contenus dans storage/.blobs, fichiers = liens physiques (null sinon)
+    static final BlobStore blobs = "cas".equals(System.getProperty("serveur.storage", "plain")) ? openBlobStore() : null;
+    // Listages et attributs partagés par toutes les sessions (LS, CD, MKDIR, DELETE, DOWNLOAD) ; invalidés à chaque
+    // modification faite par le serveur (à côté de checksums.put / invalidate) et par surveillance de storage/
+    static final MetadataCache meta = MetadataCache.fromProperties(ROOT);
+    // Contenu des petits fichiers les plus téléchargés, hors du tas (DOWNLOAD sans ouvrir le fichier)
+    static final ContentCache contents = ContentCache.fromProperties();
+    // Verrous lecture/écriture par chemin (cf. PathLocks) : 'locks' pour les fichiers et dossiers de storage/,
+    // 'uploads' pour les fichiers partiels (un seul envoi à la fois par partiel). Ordre : uploads puis locks.
+    static final int LOCK_STRIPES = Integer.getInteger("serveur.lockStripes", 1024);
+    static final PathLocks locks = new PathLocks(ROOT, LOCK_STRIPES), uploads = new PathLocks(ROOT, LOCK_STRIPES);
+    // Noms, tailles et dates de tout storage/ en mémoire (FIND), construit au démarrage, tenu à jour par changed()
+    static final NameIndex names = NameIndex.fromProperties(ROOT);
+    // Journal des modifications de storage/, rejoué en arrière-plan vers les serveurs suiveurs (serveur.replicas)
+    static final ReplicationLog replication = ReplicationLog.fromProperties(ROOT);
+
+    public ClientHandler(Socket socket, int clientNumber) {
+        this.socket = socket;
+        this.clientNumber = clientNumber;
+        Serveur.log("New connection with client#" + clientNumber + " at " + socket);
+        try { Files.createDirectories(root); } catch (IOException ignored) {} // crée storage/ si absent
+        this.cwd = root;                          // point de départ : la racine
+    }
+
+    // Mode pipeline (après la commande PIPELINE) : chaque requête et chaque réponse commence par un int "id"
+    private boolean pipelined;
+    private PipelineFlush sink;                  // sous le DataOutputStream : flush différé en mode pipeline
+    // Après COMPRESS : chaque corps de fichier est précédé d'un booléen (true = blocs compressés, cf. BlockCodec)
+    private BlockCodec codec;
+    // Après INTEGRITY : algorithme des empreintes échangées dans cette session (cf. Integrity)
+    String integrity = Integrity.DEFAULT;
+    // Débit des corps de fichiers de cette session (serveur.sessionRateKBs), en plus du débit global (cf. RateLimiter)
+    final RateLimiter limiter = new RateLimiter(RateLimiter.SESSION_RATE);
+    // Métriques : octets lus/écrits par la session, nom de la commande en cours
+    private Metrics.CountingInputStream cin;
+    private Metrics.CountingOutputStream cout;
+    private String metricOp;
+    // Fichiers de morceaux ouverts par UPLOAD_PARALLEL et pas encore validés : supprimés en fin de session
+    private final Set<Path> openChunks = new HashSet<>();
+
+    @Override public void run() {
+        // Flux binaires "structurés" : UTF pour textes/commandes, octets pour fichiers
+        // (les compteurs d'octets sont au-dessus des tampons : chaque octet est attribué à la commande qui l'a lu/écrit)
+        Metrics.sessionOpened();
+        try (DataInputStream  in  = new DataInputStream(cin = new Metrics.CountingInputStream(new BufferedInputStream(socket.getInputStream())));
+             DataOutputStream out = new DataOutputStream(cout = new Metrics.CountingOutputStream(
+                     sink = new PipelineFlush(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024), in)))) {
+
+            // Petit "handshake" : message d'accueil (+ " [cas]" si UPLOAD_HASH peut éviter l'envoi) + chemin courant
+            out.writeUTF(greeting(clientNumber));
+            out.writeUTF("CWD: " + relPath());
+            out.flush();
+
+            // Boucle principale : on lit une commande, on la traite
+            while (true) {
+                String op;
+                int id = 0;
+                long in0 = cin.count, out0 = cout.count;
+                try {
+                    if (pipelined) id = in.readInt(); // id de la requête (mode pipeline)
+                    op = in.readUTF();                // lit la commande (EXIT/LS/CD/...)
+                }
+                catch (EOFException e) { break; }    // client a fermé brutalement → on sort
+                if (pipelined) out.writeInt(id);     // la réponse (écrite par handle*) est étiquetée avec le même id
+
+                // Mesures : durée (sans l'attente de la commande), octets échangés, réponse d'erreur ou exception
+                long t0 = System.nanoTime();
+                metricOp = op;
+                cout.error = false;
+                boolean more = false, failed = true;
+                try {
+                    more = dispatch(op, in, out);
+                    failed = false;
+                } finally {
+                    Metrics.record(metricOp, System.nanoTime() - t0, cin.count - in0, cout.count - out0, failed || cout.error);
+                }
+                if (!more) return;
+            }
+        } catch (IOException e) {
+            // Erreur de communication avec ce client (socket cassée, etc.)
+            Serveur.log("Error handling client# " + clientNumber + ": " + e);
+        } finally {
+            // Fermeture sécurité
+            if (codec != null) codec.close();
+            closeListings();
+            dropChunks();
+            Metrics.sessionClosed();
+            try { socket.close(); } catch (IOException ignored) {}
+            Serveur.log("Connection with client#" + clientNumber + " closed");
+        }
+    }
+
+    // Traite une commande ; false → fin de session (EXIT)
+    private boolean dispatch(String op, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (op) {
+            case "EXIT": { // fin de session
+                out.writeUTF("Bye!"); out.flush();
+                Serveur.log(socket, "exit");
+                return false;               // termine la session
+            }
+            // ====== PIPELINE : le client enverra ses requêtes numérotées sans attendre les réponses ======
+            case "PIPELINE": {
+                out.writeUTF("PIPELINE_OK"); out.flush();
+                pipelined = true;
+                Serveur.log(socket, "pipeline");
+                break;
+            }
+            // ====== COMPRESS : le client propose un algo ; ensuite chaque corps de fichier dit s'il est compressé ======
+            case "COMPRESS": {
+                String algo = in.readUTF();
+                if (COMPRESS && BlockCodec.NAME.equals(algo)) {
+                    if (codec == null) codec = new BlockCodec();
+                    out.writeUTF("COMPRESS_OK " + BlockCodec.NAME);
+                } else {
+                    out.writeUTF("COMPRESS_NONE");
+                }
+                out.flush();
+                Serveur.log(socket, "compress " + algo + (codec != null ? " ok" : " refusé"));
+                break;
+            }
+            case "INTEGRITY": { handleIntegrity(out, in.readUTF()); break; }
+            case "LS":   { handleLs(out); break; } // liste le dossier courant
+            case "LS_PAGE": {                      // listage paginé : curseur ("" = début) + taille de page + motif
+                String cursor = in.readUTF(); int pageSize = in.readInt(); String glob = in.readUTF();
+                handleLsPage(out, cursor, pageSize, glob);
+                break;
+            }
+            case "STATS":{ handleStats(out); break; } // métriques du serveur (même format que LS)
+            case "FIND": {                         // recherche dans l'index des noms : motif + tailles min/max + limite
+                String glob = in.readUTF(); long min = in.readLong(), max = in.readLong(); int limit = in.readInt();
+                handleFind(out, glob, min, max, limit);
+                break;
+            }
+            case "CD":   { String arg = in.readUTF(); handleCd(out, arg); break; } // change de dossier
+            case "MKDIR":{ String name = in.readUTF(); handleMkdir(out, name); break; } // crée un dossier
+            case "DELETE":{String name = in.readUTF(); handleDelete(out, name); break; } // supprime fichier/dossier
+
+            // ====== UPLOAD : le client envoie nom + taille + md5, puis les octets ======
+            case "UPLOAD": {
+                String remoteName = in.readUTF();
+                long   size       = in.readLong();
+                String clientMd5  = in.readUTF(); // MD5 calculé côté client
+                handleUpload(in, out, remoteName, size, clientMd5, false);
+                break;
+            }
+
+            // ====== UPLOAD_RESUME : même en-tête, on répond l'offset déjà reçu puis le client envoie la suite ======
+            case "UPLOAD_RESUME": {
+                String remoteName = in.readUTF();
+                long   size       = in.readLong();
+                String clientMd5  = in.readUTF();
+                handleUpload(in, out, remoteName, size, clientMd5, true);
+                break;
+            }
+
+            // ====== UPLOAD_HASH : nom + taille + md5 + sha-256 ; si le serveur a déjà ce contenu, pas de corps ======
+            case "UPLOAD_HASH": {
+                String name = in.readUTF(); long size = in.readLong(); String md5 = in.readUTF(); String sha = in.readUTF();
+                handleUploadHash(out, name, size, md5, sha);
+                break;
+            }
+            // Envoi différentiel (cf. Delta) : signature de la copie du serveur, puis seulement ce qui a changé
+            case "SIGNATURE": { String name = in.readUTF(); handleSignature(out, name); break; }
+            case "UPLOAD_DELTA": {
+                String name = in.readUTF(); long size = in.readLong(); int bs = in.readInt();
+                handleUploadDelta(in, out, name, size, bs);
+                break;
+            }
+
+            // ====== DOWNLOAD : on envoie taille, octets, puis md5 ======
+            case "DOWNLOAD": {
+                String name = in.readUTF();
+                handleDownload(out, name);
+                break;
+            }
+
+            // ====== DOWNLOAD_RANGE : nom + offset + longueur (-1 = jusqu'à la fin) ======
+            case "DOWNLOAD_RANGE": {
+                String name   = in.readUTF();
+                long   offset = in.readLong();
+                long   length = in.readLong();
+                handleDownloadRange(out, name, offset, length);
+                break;
+            }
+
+            // ====== Opérations par lot (dossiers entiers / motifs) ======
+            case "MDOWNLOAD": { String name = in.readUTF(); handleMdownload(out, name); break; }
+            case "MUPLOAD":   {
+                String name = in.readUTF(); int n = in.readInt();
+                if (n < 0 || n > MUPLOAD_MAX) {                   // manifeste ni alloué ni lu : session terminée
+                    out.writeUTF("ERR mupload: manifeste de " + n + " entrées (max " + MUPLOAD_MAX + ")"); out.flush();
+                    return false;
+                }
+                handleMupload(in, out, name, n);
+                break;
+            }
+            case "MDELETE":   { String glob = in.readUTF(); handleMdelete(out, glob); break; }
+
+            // ====== Upload parallèle : ouverture, morceaux (sur d'autres connexions), validation ======
+            case "UPLOAD_PARALLEL": {
+                String name = in.readUTF(); long size = in.readLong(); String md5 = in.readUTF();
+                handleUploadParallel(out, name, size, md5);
+                break;
+            }
+            case "UPLOAD_CHUNK": {
+                String name = in.readUTF(); long size = in.readLong(); String md5 = in.readUTF();
+                long offset = in.readLong(); long length = in.readLong(); String chunkMd5 = in.readUTF();
+                handleUploadChunk(in, out, name, size, md5, offset, length, chunkMd5);
+                break;
+            }
+            case "UPLOAD_COMMIT": {
+                String name = in.readUTF(); long size = in.readLong(); String md5 = in.readUTF();
+                handleUploadCommit(out, name, size, md5);
+                break;
+            }
+
+            default: { // commande inconnue
+                metricOp = "UNKNOWN";       // pas un libellé de métrique par texte reçu
+                out.writeUTF("ERR Unknown command");
+                out.flush();
+            }
+        }
+        return true;
+    }
+
+    // Les handle* font flush() après chaque réponse. En mode pipeline, si le client a déjà envoyé la requête
+    // suivante, on garde la réponse dans le tampon : plusieurs réponses partent alors en une seule écriture.
+    private final class PipelineFlush extends FilterOutputStream {
+        private final InputStream in;
+        PipelineFlush(OutputStream out, InputStream in) { super(out); this.in = in; }
+
+        @Override public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); }
+
+        @Override public void flush() throws IOException {
+            if (!pipelined || in.available() == 0) out.flush();
+        }
+
+        void flushNow() throws IOException { out.flush(); }
+    }
+
+    // Coupe la session de l'extérieur (arrêt du serveur) : la lecture bloquante échoue et run() se termine
+    public void close() {
+        try { socket.close(); } catch (IOException ignored) {}
+    }
+
+    // ---------- COMMANDES de navigation / système de fichiers ----------
+
+    // LS : renvoie d'abord le nombre d'entrées, puis chaque ligne "[$type] nom"
+    // (dossiers en premier, puis ordre alphabétique insensible à la casse ; listage trié partagé via le cache)
+    void handleLs(DataOutputStream out) throws IOException {
+        MetadataCache.Listing l = meta.list(cwd);
+        out.writeInt(l.size());                        // nb d'entrées
+        for (String d : l.dirs)  out.writeUTF("[Folder] " + d);
+        for (String f : l.files) out.writeUTF("[File] " + f);
+        out.flush();
+        Serveur.log(socket, "ls");
+    }
+
+    // Listages ouverts par LS_PAGE : curseur → flux du dossier, repris là où la page précédente s'est arrêtée
+    private static final int LS_PAGE_MAX = 10_000;         // entrées max par page
+    private static final int MAX_LISTINGS = 4;             // listages ouverts par session (le plus ancien est fermé)
+    private final Map<String, Listing> listings = new LinkedHashMap<>();
+    private int listingSeq;
+
+    private static final class Listing {
+        final DirectoryStream<Path> stream;
+        final Iterator<Path> it;
+        final PathMatcher filter;                  // null → toutes les entrées
+        Listing(DirectoryStream<Path> stream, PathMatcher filter) { this.stream = stream; this.it = stream.iterator(); this.filter = filter; }
+    }
+
+    // LS_PAGE : entrées dans l'ordre du système de fichiers (pas de tri, donc ni liste complète ni attente),
+    // envoyées au fil de la lecture : [true][nom][dossier?][taille][mtime ms] ... puis [false][curseur suivant]
+    // Curseur suivant "" = fin du listage ; "ERR ..." = erreur. Les attributs sont lus une seule fois par entrée.
+    void handleLsPage(DataOutputStream out, String cursor, int pageSize, String glob) throws IOException {
+        Listing l;
+        if (cursor.isEmpty()) {
+            PathMatcher filter = null;
+            if (!glob.isEmpty()) {
+                try { filter = FileSystems.getDefault().getPathMatcher("glob:" + glob); }
+                catch (IllegalArgumentException e) { out.writeBoolean(false); out.writeUTF("ERR ls: motif invalide"); out.flush(); return; }
+            }
+            if (listings.size() >= MAX_LISTINGS) {
+                Iterator<Listing> oldest = listings.values().iterator();
+                try { oldest.next().stream.close(); } catch (IOException ignored) {}
+                oldest.remove();
+            }
+            cursor = "c" + (++listingSeq);
+            l = new Listing(Files.newDirectoryStream(cwd), filter);
+            listings.put(cursor, l);
+        } else if ((l = listings.get(cursor)) == null) {
+            out.writeBoolean(false); out.writeUTF("ERR ls: curseur inconnu ou expiré"); out.flush(); return;
+        }
+
+        int max = Math.max(1, Math.min(pageSize, LS_PAGE_MAX)), sent = 0;
+        boolean done;
+        try {
+            while (sent < max && l.it.hasNext()) {
+                Path p = l.it.next();
+                if (isInternal(p) || (l.filter != null && !l.filter.matches(p.getFileName()))) continue;
+                BasicFileAttributes a;
+                try { a = Files.readAttributes(p, BasicFileAttributes.class); }
+                catch (IOException e) { continue; }        // supprimé depuis la lecture du dossier
+                out.writeBoolean(true);
+                out.writeUTF(p.getFileName().toString());
+                out.writeBoolean(a.isDirectory());
+                out.writeLong(a.isDirectory() ? 0 : a.size());
+                out.writeLong(a.lastModifiedTime().toMillis());
+                sent++;
+            }
+            done = !l.it.hasNext();
+        } catch (DirectoryIteratorException e) {
+            closeListing(cursor);
+            throw e.getCause();
+        }
+        if (done) closeListing(cursor);
+        out.writeBoolean(false);
+        out.writeUTF(done ? "" : cursor);
+        out.flush();
+        Serveur.log(socket, "ls page " + cursor + " n=" + sent + (glob.isEmpty() ? "" : " motif=" + glob));
+    }
+
+    private void closeListing(String cursor) {
+        Listing l = listings.remove(cursor);
+        if (l != null) try { l.stream.close(); } catch (IOException ignored) {}
+    }
+
+    // Fin de session : ferme les listages LS_PAGE restés ouverts
+    void closeListings() {
+        for (String c : new ArrayList<>(listings.keySet())) closeListing(c);
+    }
+
+    // FIND : entrées du dossier courant et de ses sous-dossiers dont le nom correspond au motif (et, pour les fichiers,
+    // la taille aux bornes ; -1 = pas de borne), lues dans l'index des noms sans toucher au disque :
+    // [true][chemin /a/b][dossier?][taille][mtime ms] ... puis [false][bilan] ; bilan "ERR ..." = erreur
+    static final int FIND_MAX = 10_000;                   // résultats max par requête
+    void handleFind(DataOutputStream out, String glob, long minSize, long maxSize, int limit) throws IOException {
+        if (!names.enabled()) { out.writeBoolean(false); out.writeUTF("ERR find: index des noms désactivé"); out.flush(); return; }
+        long t0 = System.nanoTime();
+        int max = Math.max(1, Math.min(limit, FIND_MAX));
+        List<NameIndex.Entry> found;
+        try { found = names.find(cwd, glob, Math.max(0, minSize), maxSize < 0 ? Long.MAX_VALUE : maxSize, max); }
+        catch (IllegalArgumentException e) { out.writeBoolean(false); out.writeUTF("ERR find: motif invalide"); out.flush(); return; }
+        for (NameIndex.Entry e : found) {
+            out.writeBoolean(true);
+            out.writeUTF("/" + e.path);
+            out.writeBoolean(e.directory);
+            out.writeLong(e.size);
+            out.writeLong(e.modified);
+        }
+        out.writeBoolean(false);
+        out.writeUTF(String.format(Locale.ROOT, "%d résultat(s)%s en %.2f ms%s", found.size(), found.size() == max ? " (limite atteinte)" : "",
+                (System.nanoTime() - t0) / 1e6, names.ready() ? "" : " (index en construction : " + names.size() + " entrées)"));
+        out.flush();
+        Serveur.log(socket, "find " + glob + " n=" + found.size());
+    }
+
+    // CD : gère 'cd ..' et empêche toute sortie de la racine "storage/"
+    void handleCd(DataOutputStream out, String arg) throws IOException {
+        if (arg == null || arg.isEmpty()) {
+            out.writeUTF("ERR cd: argument manquant");
+            out.writeUTF("CWD: " + relPath());
+            out.flush();
+            return;
+        }
+        if ("..".equals(arg)) {                    // remonter d'un cran
+            Path parent = cwd.getParent();
+            // si parent est nul ou sort de la racine → on reste à root
+            cwd = (parent != null && parent.startsWith(root)) ? parent.normalize() : root;
+            out.writeUTF("Vous êtes dans le dossier " + relPath() + ".");
+            out.writeUTF("CWD: " + relPath());
+            out.flush();
+            Serveur.log(socket, "cd ..");
+            return;
+        }
+        // cd vers un enfant : normalise et vérifie qu'on reste sous root
+        Path target = cwd.resolve(arg).normalize();
+        MetadataCache.Attrs a = inRoot(target) ? meta.attrs(target) : null;
+        if (a == null)                           out.writeUTF("ERR cd: accès hors racine interdit");
+        else if (!a.exists)                      out.writeUTF("ERR cd: le dossier n'existe pas");
+        else if (!a.directory)                   out.writeUTF("ERR cd: ce n'est pas un dossier");
+        else { cwd = target; out.writeUTF("Vous êtes dans le dossier " + relPath() + "."); Serveur.log(socket, "cd " + arg); }
+        out.writeUTF("CWD: " + relPath());
+        out.flush();
+    }
+
+    // MKDIR : crée un dossier (nom simple, pas de séparateurs)
+    void handleMkdir(DataOutputStream out, String name) throws IOException {
+        if (name == null || name.isEmpty() || name.equals(".") || name.equals("..") ||
+            name.contains("/") || name.contains("\\")) {
+            out.writeUTF("ERR mkdir: nom de dossier invalide");
+            out.flush();
+            return;
+        }
+        Path target = cwd.resolve(name).normalize();
+        if (!inRoot(target))                 out.writeUTF("ERR mkdir: accès hors racine interdit");
+        else if (meta.attrs(target).exists)  out.writeUTF("ERR mkdir: le dossier existe déjà");
+        else {
+            try (PathLocks.Hold h = locks.write(target)) {
+                Files.createDirectory(target);
+                changed(target, false);
+            } catch (FileAlreadyExistsException e) {
+                changed(target, false); out.writeUTF("ERR mkdir: le dossier existe déjà"); out.flush(); return;
+            } catch (NoSuchFileException e) {
+                out.writeUTF("ERR mkdir: dossier courant supprimé"); out.flush(); return;
+            }
+            out.writeUTF("Le dossier " + name + " a été créé.");
+            Serveur.log(socket, "mkdir " + name);
+        }
+        out.flush();
+    }
+
+    // DELETE : supprime fichier OU dossier (récursif)
+    void handleDelete(DataOutputStream out, String name) throws IOException {
+        if (name == null || name.isEmpty()) { out.writeUTF("ERR delete: argument manquant"); out.flush(); return; }
+        Path target = cwd.resolve(name).normalize();
+        if (!inRoot(target))          { out.writeUTF("ERR delete: accès hors racine interdit"); out.flush(); return; }
+        // La racine contient aussi l'état du serveur (.blobs, .checksums*, .replog*) : jamais supprimée en bloc
+        if (target.equals(root))      { out.writeUTF("ERR delete: la racine ne peut pas être supprimée"); out.flush(); return; }
+        if (!meta.attrs(target).exists) { out.writeUTF("ERR delete: introuvable");             out.flush(); return; }
+        // Verrou d'écriture : attend les DOWNLOAD qui ouvrent un fichier dessous et les mises en place en cours
+        try (PathLocks.Hold h = locks.write(target)) {
+            if (!Files.exists(target, LinkOption.NOFOLLOW_LINKS)) throw new NoSuchFileException(name, null, "introuvable");
+            deleteRecursive(target);
+            forgetChecksums(target, true);
+            removed(target);
+            out.writeUTF("Suppression réussie: " + name);
+            Serveur.log(socket, "delete " + name);
+        } catch (IOException e) {
+            out.writeUTF("ERR delete: " + e.getMessage());
+        }
+        out.flush();
+    }
+
+    // STATS : nb de lignes puis les lignes du rapport (sessions, puis une ligne par commande)
+    void handleStats(DataOutputStream out) throws IOException {
+        List<String> lines = Metrics.report();
+        out.writeInt(lines.size());
+        for (String line : lines) out.writeUTF(line);
+        out.flush();
+        Serveur.log(socket, "stats");
+    }
+
+    // ---------- TRANSFERTS de fichiers avec vérification MD5 ----------
+
+    // UPLOAD : reçoit un fichier du client, calcule le MD5 serveur, compare au MD5 client
+    // Les octets vont dans un fichier partiel caché ".<nom>.<md5>.part" : la cible n'est remplacée (renommage
+    // atomique) qu'une fois le MD5 vérifié, et un transfert coupé laisse le partiel pour UPLOAD_RESUME.
+    // resume=true (UPLOAD_RESUME) : on répond d'abord l'offset déjà reçu (-1 + ERR si refus), le client envoie la suite.
+    private void handleUpload(DataInputStream in, DataOutputStream out, String remoteName, long size, String clientMd5, boolean resume) throws IOException {
+        String err = null;
+        if (remoteName == null || remoteName.isEmpty()) err = "ERR upload: nom de fichier manquant";
+        else if (size < 0) err = "ERR upload: taille négative";
+        Path target = null;
+        if (err == null) {
+            // Sécurise le nom (basename) puis construit la cible sous cwd
+            remoteName = Paths.get(remoteName).getFileName().toString();
+            target = cwd.resolve(remoteName).normalize();
+            if (!inRoot(target)) err = "ERR upload: accès hors racine interdit";
+        }
+        if (err != null) {
+            if (resume) out.writeLong(-1L);
+            out.writeUTF(err); out.flush(); return;
+        }
+
+        // Un seul envoi à la fois par partiel : un 2e UPLOAD du même contenu attend la fin du premier
+        // (sinon l'un renommerait le partiel pendant que l'autre y écrit encore)
+        Path part = partFile(target, clientMd5);
+        try (PathLocks.Hold h = uploads.write(part)) {
+            receiveUpload(in, out, remoteName, target, part, size, clientMd5, resume);
+        }
+    }
+
+    private void receiveUpload(DataInputStream in, DataOutputStream out, String remoteName, Path target, Path part,
+                               long size, String clientMd5, boolean resume) throws IOException {
+        // Reprise : on garde ce qui a déjà été reçu pour CE contenu (le MD5 fait partie du nom du partiel)
+        long offset = 0;
+        if (resume && Files.exists(part)) {
+            offset = Files.size(part);
+            if (offset > size) { Files.delete(part); offset = 0; }
+        }
+        if (resume) { out.writeLong(offset); sink.flushNow(); }   // le client attend l'offset avant d'envoyer
+
+        // MD5 de ce qui est déjà sur disque, puis on continue pendant l'écriture
+        // (stockage cas : le SHA-256 qui nomme le blob est calculé dans la même passe)
+        MessageDigest md = digest();
+        MessageDigest sha = blobs != null ? BlobStore.newSha256() : null;
+        if (offset > 0) updateFromFile(md, part, offset);
+        if (offset > 0 && sha != null) updateFromFile(sha, part, offset);
+        OutputStream disk;
+        try {
+            disk = new PartWriter(part, offset);          // grand tampon direct, écritures positionnelles
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            disk = null;                         // dossier supprimé par une autre session : corps lu puis ignoré
+        }
+        if (disk != null && sha != null) disk = new DigestOutputStream(disk, sha);
+        try (OutputStream fos = disk) {
+            receiveBody(in, size - offset, fos, md);   // écrit sur disque + met à jour le MD5 serveur
+        }
+        String serverMd5 = toHex(md.digest());   // MD5 final côté serveur (sur le fichier complet)
+
+        // Compare avec le MD5 fourni par le client et répond
+        if (disk == null) {
+            out.writeUTF("UPLOAD_ERR dossier cible supprimé pendant l'envoi");
+        } else if (serverMd5.equalsIgnoreCase(clientMd5)) {
+            if (install(part, target, integrity, serverMd5, sha != null ? toHex(sha.digest()) : null))
+                out.writeUTF("UPLOAD_OK " + remoteName + " size=" + size + " " + integrity + "=" + serverMd5);
+            else
+                out.writeUTF("UPLOAD_ERR dossier cible supprimé pendant l'envoi");
+        } else {
+            Files.deleteIfExists(part);          // contenu corrompu : ni cible modifiée, ni reprise possible
+            out.writeUTF("UPLOAD_ERR " + integrity + "_mismatch client=" + clientMd5 + " server=" + serverMd5);
+        }
+        out.flush();
+        Serveur.log(socket, (offset > 0 ? "upload (reprise @" + offset + ") " : "upload ") + remoteName + " size=" + size + " " + integrity + "=" + serverMd5 + compressionNote());
+    }
+
+    // Message d'accueil ; " [cas]" : stockage dédupliqué, le client propose le SHA-256 avant d'envoyer un corps
+    static String greeting(int clientNumber) {
+        return "Hello from server - you are client#" + clientNumber + (blobs != null ? " [cas]" : "");
+    }
+
+    // UPLOAD_HASH : en stockage cas, si un blob a déjà ce SHA-256 (et cette taille), le fichier est créé comme
+    // lien vers lui sans recevoir le corps → "UPLOAD_OK ..." ; sinon "UPLOAD_NEED" et le client fait un UPLOAD normal
+    void handleUploadHash(DataOutputStream out, String name, long size, String md5, String sha256) throws IOException {
+        Path target = uploadTarget(name);
+        if (blobs == null || target == null || size < 0) { out.writeUTF("UPLOAD_NEED"); out.flush(); return; }
+        try (PathLocks.Hold h = locks.write(target)) {
+            if (Files.isDirectory(target) || !blobs.linkExisting(sha256.toLowerCase(), size, target)) {
+                out.writeUTF("UPLOAD_NEED"); out.flush(); return;
+            }
+            forgetChecksums(target, false);          // empreinte recalculée au besoin (on ne se fie pas à celle du client)
+            changed(target, false);
+        }
+        out.writeUTF("UPLOAD_OK " + target.getFileName() + " size=" + size + " sha256=" + sha256 + " (dédupliqué, corps non envoyé)");
+        out.flush();
+        Serveur.log(socket, "upload " + target.getFileName() + " size=" + size + " dédupliqué sha256=" + sha256);
+    }
+
+    // SIGNATURE nom → [taille][signature par blocs] de la copie du serveur (cf. Delta), ou -1 + ERR si elle n'existe
+    // pas : le client n'enverra ensuite (UPLOAD_DELTA) que ce qui en diffère
+    void handleSignature(DataOutputStream out, String name) throws IOException {
+        Path target = uploadTarget(name);
+        FileChannel fc = null;
+        if (target != null) try (PathLocks.Hold h = locks.read(target)) {
+            MetadataCache.Attrs a = meta.attrs(target);
+            if (a.exists && !a.directory) fc = FileChannel.open(target, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            // supprimé entre le cache des attributs et l'ouverture
+        }
+        if (fc == null) { out.writeLong(-1L); out.writeUTF("ERR signature: fichier introuvable"); out.flush(); return; }
+        long t0 = System.nanoTime();
+        Delta.Signature sig;
+        try (FileChannel basis = fc) {
+            sig = Delta.Signature.of(new BufferedInputStream(Channels.newInputStream(basis), 1024 * 1024), basis.size());
+        }
+        sig.write(out);
+        out.flush();
+        Serveur.log(socket, "signature " + target.getFileName() + " size=" + sig.size + " blocs=" + sig.blocks() + "x" + sig.blockSize + " " + throughput(sig.size, t0));
+    }
+
+    // UPLOAD_DELTA nom taille bloc + instructions (cf. Delta) + empreinte du fichier entier → même réponse que UPLOAD.
+    // Base : la copie actuelle du serveur, ouverte sous verrou de lecture ; le résultat est reconstruit dans un partiel
+    // et mis en place seulement si son empreinte est bonne (sinon UPLOAD_ERR, et le client renvoie tout par UPLOAD).
+    private void handleUploadDelta(DataInputStream in, DataOutputStream out, String name, long size, int bs) throws IOException {
+        Path target = uploadTarget(name);
+        String err = target == null ? "UPLOAD_ERR delta: nom de fichier invalide"
+                   : size < 0 || bs < 1 ? "UPLOAD_ERR delta: taille invalide" : null;
+        Path part = target == null ? null : deltaFile(target);
+        try (PathLocks.Hold hp = part != null ? uploads.write(part) : null) {
+            FileChannel basis = null;
+            if (err == null) {
+                try (PathLocks.Hold h = locks.read(target)) {
+                    if (Files.isRegularFile(target)) basis = FileChannel.open(target, StandardOpenOption.READ);
+                } catch (NoSuchFileException e) {
+                    // supprimé entre-temps
+                }
+                if (basis == null) err = "UPLOAD_ERR delta: copie du serveur introuvable";
+            }
+            long t0 = System.nanoTime();
+            MessageDigest md = digest();
+            MessageDigest sha = blobs != null ? BlobStore.newSha256() : null;
+            Delta.Stats st;
+            boolean done = false;
+            try (FileChannel base = basis) {
+                OutputStream disk = null;
+                if (err == null) {
+                    try { disk = new PartWriter(part, 0); }
+                    catch (NoSuchFileException | FileNotFoundException e) { err = "UPLOAD_ERR dossier cible supprimé pendant l'envoi"; }
+                }
+                if (disk != null && sha != null) disk = new DigestOutputStream(disk, sha);
+                try (OutputStream fos = disk) {
+                    st = Delta.apply(throttled(in), disk != null ? base : null, bs, size, fos, md);   // null → instructions ignorées
+                }
+                done = true;
+            } finally {
+                if (!done && err == null) Files.deleteIfExists(part);   // flux coupé : rien à reprendre
+            }
+            String clientDigest = in.readUTF(), serverDigest = toHex(md.digest());
+            long total = st.copied + st.literal;
+            if (err == null && total != size) err = "UPLOAD_ERR delta: " + total + " octets reconstruits au lieu de " + size;
+            if (err == null && !serverDigest.equalsIgnoreCase(clientDigest))
+                err = "UPLOAD_ERR " + integrity + "_mismatch client=" + clientDigest + " server=" + serverDigest;
+            if (err == null && !install(part, target, integrity, serverDigest, sha != null ? toHex(sha.digest()) : null)) err = "UPLOAD_ERR dossier cible supprimé pendant l'envoi";
+            if (err != null) {
+                if (part != null) Files.deleteIfExists(part);
+                out.writeUTF(err);
+            } else {
+                out.writeUTF("UPLOAD_OK " + target.getFileName() + " size=" + size + " " + integrity + "=" + serverDigest
+                        + " (delta : " + st.literal + " octets reçus, " + st.copied + " repris de la copie du serveur)");
+            }
+            out.flush();
+            Serveur.log(socket, "upload delta " + name + " size=" + size + " reçu=" + st.literal + " copié=" + st.copied + " "
+                    + (err != null ? err : integrity + "=" + serverDigest) + " " + throughput(size, t0));
+        }
+    }
+
+    // Met en place un fichier reçu et vérifié : renommage atomique, ou blob partagé + lien en stockage cas
+    // Verrou d'écriture de la cible : les DOWNLOAD en cours ont déjà leur descripteur, les suivants voient le nouveau
+    // contenu avec sa nouvelle empreinte. false → partiel disparu (son dossier a été supprimé entre-temps).
+    // Stockage cas : SHA-256 calculé pendant la réception, sinon ici avant de prendre le verrou (UPLOAD_COMMIT).
+    static boolean install(Path part, Path target, String algo, String digest, String sha256) throws IOException {
+        try {
+            if (blobs != null && sha256 == null) sha256 = BlobStore.hash(part);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        try (PathLocks.Hold h = locks.write(target)) {
+            if (blobs != null) blobs.adopt(part, target, sha256);
+            else Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            forgetChecksums(target, false);
+            checksums(algo).put(target, digest);     // le prochain DOWNLOAD n'aura pas à re-hacher
+            changed(target, false);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static BlobStore openBlobStore() {
+        try { return new BlobStore(ROOT); }
+        catch (IOException e) { System.err.println("Stockage cas indisponible (" + e.getMessage() + ") → stockage normal"); return null; }
+    }
+
+    // DOWNLOAD : envoie la taille, les octets du fichier, puis le MD5 calculé côté serveur
+    // Sous verrou de lecture du chemin : attributs, empreinte et ouverture du fichier concordent (aucun UPLOAD ni
+    // DELETE du même chemin ne s'intercale). L'envoi se fait ensuite verrou rendu, depuis le descripteur ouvert :
+    // une mise en place remplace le fichier par renommage, sans jamais réécrire celui qu'on est en train de lire.
+    private void handleDownload(DataOutputStream out, String name) throws IOException {
+        if (name == null || name.isEmpty()) { out.writeLong(-1L); out.writeUTF("ERR download: argument manquant"); out.flush(); return; }
+        Path src = cwd.resolve(name).normalize();
+        long t0 = System.nanoTime();
+        SocketChannel ch = socket.getChannel();
+        boolean zeroCopy = ZERO_COPY && ch != null && (codec == null || !BlockCodec.worthCompressing(name));
+        ContentCache.Body hot = null;
+        FileChannel fc = null;
+        String serverMd5 = null;
+        if (inRoot(src)) try (PathLocks.Hold h = locks.read(src)) {
+            // Vérifie l'existence et interdit les dossiers (la taille envoyée, elle, est toujours relue sur le disque)
+            MetadataCache.Attrs a = meta.attrs(src);
+            if (a.exists && !a.directory) {
+                // Fichier chaud (session sans compression) : servi depuis la mémoire, en une seule écriture
+                hot = (codec == null && ch != null) ? contents.get(src, a, integrity) : null;
+                if (hot == null) {
+                    fc = FileChannel.open(src, StandardOpenOption.READ);
+                    // Zéro-copie : MD5 pris dans l'index (les octets ne passent pas par la JVM)
+                    if (zeroCopy) serverMd5 = checksums(integrity).digest(src);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // supprimé entre le cache des attributs et l'ouverture
+        } catch (IOException | RuntimeException e) {
+            if (fc != null) fc.close();
+            throw e;
+        }
+        if (hot != null) {
+            sendCached(ch, hot.frames(false, 0, hot.size, integrity));
+            Serveur.log(socket, "download " + name + " size=" + hot.size + " " + integrity + "=" + hot.digest(integrity) + " (cache)");
+            return;
+        }
+        if (fc == null) {
+            out.writeLong(-1L); out.writeUTF("ERR download: fichier introuvable"); out.flush(); return;
+        }
+        long size;
+        try (FileChannel file = fc) {
+            size = file.size();
+            out.writeLong(size);                     // (1) annonce la taille à recevoir côté client
+            if (compressBody(out, name)) {
+                // Compressé : les octets passent forcément par la JVM, on hache au passage
+                MessageDigest md = digest();
+                codec.encode(Channels.newInputStream(file), size, throttled(out), md);   // (2) blocs
+                serverMd5 = toHex(md.digest());
+            } else if (zeroCopy) {
+                // Corps envoyé par le noyau directement du fichier vers la socket
+                sink.flushNow();                     // l'en-tête doit partir AVANT le corps (même en mode pipeline)
+                long pos = 0;
+                while (pos < size) {                 // (2) octets, par tranches si le débit est limité
+                    long k = RateLimiter.slice(limiter, size - pos);
+                    throttle(k);
+                    for (long end = pos + k; pos < end; ) pos += file.transferTo(pos, end - pos, ch);
+                }
+                cout.sent(size);
+            } else {
+                MessageDigest md = digest();         // on calcule l'empreinte pendant l'envoi
+                try (InputStream fis = new BufferedInputStream(Channels.newInputStream(file))) {
+                    byte[] buf = new byte[8192];
+                    int r;
+                    while ((r = fis.read(buf)) != -1) {
+                        throttle(r);
+                        out.write(buf, 0, r);       // (2) envoie les octets
+                        md.update(buf, 0, r);       // met à jour le MD5
+                    }
+                }
+                serverMd5 = toHex(md.digest());
+            }
+        }
+        out.writeUTF(serverMd5);                    // (3) envoie le MD5 officiel
+        out.flush();
+
+        Serveur.log(socket, "download " + name + " size=" + size + " " + integrity + "=" + serverMd5 + " " + throughput(size, t0) + compressionNote());
+    }
+
+    // INTEGRITY <algorithmes par ordre de préférence, séparés par des virgules> → "INTEGRITY_OK <algo>" :
+    // toutes les empreintes de la session (UPLOAD, DOWNLOAD, morceaux, lots) utilisent ensuite cet algorithme
+    void handleIntegrity(DataOutputStream out, String offered) throws IOException {
+        integrity = Integrity.choose(offered);
+        out.writeUTF("INTEGRITY_OK " + integrity);
+        out.flush();
+        Serveur.log(socket, "integrity " + offered + " → " + integrity);
+    }
+
+    // Réponse complète d'un DOWNLOAD en cache, envoyée par une seule écriture groupée (gathering write)
+    private void sendCached(SocketChannel ch, ByteBuffer[] frames) throws IOException {
+        sink.flushNow();                             // ce qui précède (id du pipeline) part avant
+        long total = 0;
+        for (ByteBuffer f : frames) total += f.remaining();
+        throttle(total);
+        for (long n = 0; n < total; ) n += ch.write(frames);
+        cout.sent(total);
+    }
+
+    // DOWNLOAD_RANGE : envoie [taille totale, nb d'octets n] puis n octets à partir de 'offset'
+    // (length < 0 → jusqu'à la fin), puis le MD5 de la plage et le MD5 du fichier entier (vérif après assemblage)
+    // Même verrouillage que DOWNLOAD : empreinte du fichier et descripteur obtenus sous verrou de lecture.
+    private void handleDownloadRange(DataOutputStream out, String name, long offset, long length) throws IOException {
+        if (name == null || name.isEmpty()) { out.writeLong(-1L); out.writeUTF("ERR download: argument manquant"); out.flush(); return; }
+        Path src = cwd.resolve(name).normalize();
+        SocketChannel ch = socket.getChannel();
+        ContentCache.Body hot = null;
+        FileChannel fc = null;
+        String fileMd5 = null;
+        if (inRoot(src)) try (PathLocks.Hold h = locks.read(src)) {
+            MetadataCache.Attrs a = meta.attrs(src);
+            if (a.exists && !a.directory) {
+                hot = (codec == null && ch != null) ? contents.get(src, a, integrity) : null;
+                if (hot == null) {
+                    fc = FileChannel.open(src, StandardOpenOption.READ);
+                    fileMd5 = checksums(integrity).digest(src);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // supprimé entre le cache des attributs et l'ouverture
+        } catch (IOException | RuntimeException e) {
+            if (fc != null) fc.close();
+            throw e;
+        }
+        if (hot == null && fc == null) {
+            out.writeLong(-1L); out.writeUTF("ERR download: fichier introuvable"); out.flush(); return;
+        }
+        try (FileChannel file = fc) {
+            long total = hot != null ? hot.size : file.size();
+            if (offset < 0 || offset > total) {
+                out.writeLong(-1L); out.writeUTF("ERR download: position hors du fichier (taille " + total + ")"); out.flush(); return;
+            }
+            long t0 = System.nanoTime();
+            long n = (length < 0) ? total - offset : Math.min(length, total - offset);
+            if (hot != null) {                       // fichier chaud : servi depuis la mémoire, en une seule écriture
+                sendCached(ch, hot.frames(true, offset, n, integrity));
+                Serveur.log(socket, "download " + name + " offset=" + offset + " n=" + n + " size=" + total + " " + integrity + "=" + hot.digest(integrity) + " (cache)");
+                return;
+            }
+
+            out.writeLong(total);
+            out.writeLong(n);
+            MessageDigest md = digest();
+            if (compressBody(out, name)) {
+                codec.encode(Channels.newInputStream(file.position(offset)), n, throttled(out), md);
+            } else {
+                ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+                long pos = offset, end = offset + n;
+                while (pos < end) {
+                    buf.clear();
+                    buf.limit((int) Math.min(buf.capacity(), end - pos));
+                    int r = file.read(buf, pos);
+                    if (r == -1) throw new EOFException("Fichier tronqué pendant l'envoi");
+                    throttle(r);
+                    out.write(buf.array(), 0, r);
+                    md.update(buf.array(), 0, r);
+                    pos += r;
+                }
+            }
+            out.writeUTF(toHex(md.digest()));       // MD5 de la plage
+            out.writeUTF(fileMd5);                  // MD5 du fichier entier
+            out.flush();
+            Serveur.log(socket, "download " + name + " offset=" + offset + " n=" + n + " size=" + total + " " + integrity + "=" + fileMd5 + " " + throughput(n, t0) + compressionNote());
+        }
+    }
+
+    // ---------- Opérations par lot : tout un dossier en un seul échange ----------
+    // Format commun : statut UTF, n, manifeste n × [chemin relatif, taille (-1 = dossier)], puis les corps
+    // des fichiers bout à bout, puis un MD5 par fichier (dans l'ordre du manifeste).
+
+    // MDOWNLOAD dossier : envoie récursivement le contenu du dossier (MD5 pris dans l'index, corps en zéro-copie)
+    private void handleMdownload(DataOutputStream out, String name) throws IOException {
+        Path dir = (name == null || name.isEmpty()) ? cwd : cwd.resolve(name).normalize();
+        if (!dir.startsWith(root) || isInternal(dir) || !Files.isDirectory(dir)) {
+            out.writeUTF("ERR mdownload: dossier introuvable"); out.flush(); return;
+        }
+        // Dossier en lecture pendant tout le lot : pas de DELETE dessous en cours de route (un fichier remplacé
+        // entre le manifeste et son envoi est signalé au client par son MD5)
+        try (PathLocks.Hold h = locks.read(dir)) {
+            sendTree(out, name, dir);
+        }
+    }
+
+    private void sendTree(DataOutputStream out, String name, Path dir) throws IOException {
+        long t0 = System.nanoTime();
+        List<Path> entries;
+        try (Stream<Path> s = Files.walk(dir)) {
+            entries = s.filter(p -> !p.equals(dir) && !isInternal(p)).collect(java.util.stream.Collectors.toList());
+        }
+        int n = entries.size();
+        long[] sizes = new long[n];
+        String[] md5s = new String[n];
+        for (int i = 0; i < n; i++) {
+            Path p = entries.get(i);
+            sizes[i] = Files.isDirectory(p) ? -1L : Files.size(p);
+            if (sizes[i] >= 0) md5s[i] = checksums(integrity).digest(p);
+        }
+
+        out.writeUTF("MDOWNLOAD_OK");
+        out.writeInt(n);
+        for (int i = 0; i < n; i++) {
+            out.writeUTF(dir.relativize(entries.get(i)).toString().replace('\\', '/'));
+            out.writeLong(sizes[i]);
+        }
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            if (sizes[i] < 0) continue;
+            Path f = entries.get(i);
+            if (compressBody(out, f.getFileName().toString())) {
+                try (InputStream fis = Files.newInputStream(f)) { codec.encode(fis, sizes[i], throttled(out), null); }
+            } else {
+                sendExactly(out, f, sizes[i]);
+            }
+            total += sizes[i];
+        }
+        for (int i = 0; i < n; i++) if (sizes[i] >= 0) out.writeUTF(md5s[i]);
+        out.flush();
+        Serveur.log(socket, "mdownload " + (name == null || name.isEmpty() ? "." : name) + " n=" + n + " bytes=" + total + " " + throughput(total, t0) + compressionNote());
+    }
+
+    // MUPLOAD dossier n + manifeste → "MUPLOAD_OK" (ou ERR, et le client n'envoie rien de plus),
+    // puis corps + MD5 ; chaque fichier passe par un partiel et n'est mis en place que si son MD5 est bon.
+    // Réponse finale : nb de lignes puis une ligne de statut par fichier.
+    static final int MUPLOAD_MAX = 100_000;               // entrées max d'un manifeste (vérifié avant d'allouer)
+
+    private void handleMupload(DataInputStream in, DataOutputStream out, String name, int n) throws IOException {
+        String[] rels = new String[n];
+        long[] sizes = new long[rels.length];
+        for (int i = 0; i < rels.length; i++) { rels[i] = in.readUTF(); sizes[i] = in.readLong(); }
+
+        Path dir = (name == null || name.isEmpty()) ? cwd : cwd.resolve(Paths.get(name).getFileName().toString()).normalize();
+        if (!inRoot(dir) || (Files.exists(dir) && !Files.isDirectory(dir))) {
+            out.writeUTF("ERR mupload: dossier cible invalide"); out.flush(); return;
+        }
+        Files.createDirectories(dir);
+        Path[] targets = new Path[rels.length];
+        for (int i = 0; i < rels.length; i++) {
+            Path t = dir.resolve(rels[i]).normalize();
+            targets[i] = (t.startsWith(dir) && !t.equals(dir) && inRoot(t)) ? t : null;   // null → ignoré (octets consommés)
+        }
+        out.writeUTF("MUPLOAD_OK");
+        sink.flushNow();                                      // le client attend ce feu vert pour envoyer les corps
+
+        long t0 = System.nanoTime(), total = 0;
+        Path[] parts = new Path[rels.length];
+        String[] md5s = new String[rels.length], shas = new String[rels.length];
+        for (int i = 0; i < rels.length; i++) {
+            if (sizes[i] < 0) { if (targets[i] != null) Files.createDirectories(targets[i]); continue; }
+            OutputStream fos = null;
+            MessageDigest sha = blobs != null && targets[i] != null ? BlobStore.newSha256() : null;
+            if (targets[i] != null) {
+                Files.createDirectories(targets[i].getParent());
+                parts[i] = sessionPartFile(targets[i], clientNumber);
+            }
+            MessageDigest md = digest();
+            try (PathLocks.Hold h = parts[i] != null ? uploads.write(parts[i]) : null) {
+                if (parts[i] != null) {
+                    fos = new PartWriter(parts[i], 0);
+                    if (sha != null) fos = new DigestOutputStream(fos, sha);   // stockage cas : SHA-256 dans la même passe
+                }
+                try {
+                    receiveBody(in, sizes[i], fos, md);
+                } finally {
+                    if (fos != null) fos.close();
+                }
+            }
+            md5s[i] = toHex(md.digest());
+            if (sha != null) shas[i] = toHex(sha.digest());
+            total += sizes[i];
+        }
+
+        List<String> status = new ArrayList<>();
+        int ok = 0;
+        for (int i = 0; i < rels.length; i++) {
+            if (sizes[i] < 0) continue;
+            String clientMd5 = in.readUTF();
+            if (targets[i] == null) { status.add("ERR " + rels[i] + ": accès hors dossier interdit"); continue; }
+            try (PathLocks.Hold h = uploads.write(parts[i])) {
+                if (md5s[i].equalsIgnoreCase(clientMd5)) {
+                    if (install(parts[i], targets[i], integrity, md5s[i], shas[i])) ok++;
+                    else status.add("UPLOAD_ERR " + rels[i] + " dossier cible supprimé pendant l'envoi");
+                } else {
+                    Files.deleteIfExists(parts[i]);
+                    status.add("UPLOAD_ERR " + rels[i] + " " + integrity + "_mismatch client=" + clientMd5 + " server=" + md5s[i]);
+                }
+            }
+        }
+        changed(dir, true);                             // dossiers créés en route (les fichiers : install)
+        status.add("MUPLOAD " + ok + " fichier(s) OK, " + (status.size()) + " erreur(s), " + total + " octets");
+        out.writeInt(status.size());
+        for (String line : status) out.writeUTF(line);
+        out.flush();
+        Serveur.log(socket, "mupload " + dir.getFileName() + " n=" + rels.length + " bytes=" + total + " " + throughput(total, t0) + compressionNote());
+    }
+
+    // MDELETE motif : supprime les entrées du dossier courant dont le nom correspond au glob (*.log, data-??.csv ...)
+    void handleMdelete(DataOutputStream out, String glob) throws IOException {
+        PathMatcher m;
+        try { m = FileSystems.getDefault().getPathMatcher("glob:" + glob); }
+        catch (IllegalArgumentException e) { out.writeUTF("ERR mdelete: motif invalide"); out.flush(); return; }
+
+        List<Path> matches = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(cwd)) {
+            for (Path p : ds) if (!isInternal(p) && m.matches(p.getFileName())) matches.add(p);
+        }
+        Collections.sort(matches);
+        List<String> status = new ArrayList<>();
+        for (Path p : matches) {
+            try (PathLocks.Hold h = locks.write(p)) {
+                deleteRecursive(p);
+                forgetChecksums(p, true);
+                removed(p);
+                status.add("Suppression réussie: " + p.getFileName());
+            } catch (IOException e) {
+                status.add("ERR delete: " + p.getFileName() + ": " + e.getMessage());
+            }
+        }
+        out.writeUTF("MDELETE_OK");
+        out.writeInt(status.size());
+        for (String line : status) out.writeUTF(line);
+        out.flush();
+        Serveur.log(socket, "mdelete " + glob + " n=" + matches.size());
+    }
+
+    // ---------- Corps de fichiers, bruts ou compressés (session COMPRESS) ----------
+
+    // Reçoit 'len' octets de contenu : brut, ou en blocs si le client l'annonce ; dst null → octets ignorés
+    private void receiveBody(DataInputStream in, long len, OutputStream dst, MessageDigest md) throws IOException {
+        if (codec != null && in.readBoolean()) { codec.decode(throttled(in), len, dst, md); return; }
+        byte[] buf = new byte[64 * 1024];
+        long remaining = len;
+        while (remaining > 0) {
+            int r = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (r == -1) throw new EOFException("Flux terminé avant d'avoir reçu tous les octets");
+            throttle(r);                               // ralentit la lecture → le client est freiné par TCP
+            if (dst != null) dst.write(buf, 0, r);
+            md.update(buf, 0, r);
+            remaining -= r;
+        }
+    }
+
+    // Octets de corps de fichier sur le réseau : attend le débit permis (session, puis global). Les commandes de
+    // contrôle ne passent jamais par ici et ne sont donc jamais ralenties par un gros transfert.
+    private void throttle(long n) throws IOException { RateLimiter.acquire(limiter, n); }
+
+    // Corps compressés (BlockCodec) : c'est le volume réellement transmis qui est compté
+    private DataOutputStream throttled(DataOutputStream out) {
+        OutputStream t = RateLimiter.throttle(out, limiter);
+        return t == out ? out : new DataOutputStream(t);
+    }
+
+    private DataInputStream throttled(DataInputStream in) {
+        InputStream t = RateLimiter.throttle(in, limiter);
+        return t == in ? in : new DataInputStream(t);
+    }
+
+    // Session COMPRESS : annonce si ce corps part compressé (décision par fichier, sur l'extension)
+    private boolean compressBody(DataOutputStream out, String name) throws IOException {
+        if (codec == null) return false;
+        boolean z = BlockCodec.worthCompressing(name);
+        out.writeBoolean(z);
+        return z;
+    }
+
+    private String compressionNote() {
+        String r = codec == null ? "" : codec.ratio();
+        return r.isEmpty() ? "" : " " + r;
+    }
+
+    // Envoie exactement 'size' octets du fichier (zéro-copie si possible) ; erreur si le fichier a raccourci
+    private void sendExactly(DataOutputStream out, Path f, long size) throws IOException {
+        SocketChannel ch = socket.getChannel();
+        try (FileChannel fc = FileChannel.open(f, StandardOpenOption.READ)) {
+            if (ZERO_COPY && ch != null) {
+                sink.flushNow();
+                long pos = 0;
+                while (pos < size) {
+                    long k = fc.transferTo(pos, RateLimiter.slice(limiter, size - pos), ch);
+                    throttle(k);
+                    if (k <= 0 && pos >= fc.size()) throw new EOFException("Fichier modifié pendant l'envoi: " + f.getFileName());
+                    pos += k;
+                }
+                cout.sent(size);
+                return;
+            }
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+            long pos = 0;
+            while (pos < size) {
+                buf.clear();
+                buf.limit((int) Math.min(buf.capacity(), size - pos));
+                int r = fc.read(buf, pos);
+                if (r == -1) throw new EOFException("Fichier modifié pendant l'envoi: " + f.getFileName());
+                throttle(r);
+                out.write(buf.array(), 0, r);
+                pos += r;
+            }
+        }
+    }
+
+    // ---------- UPLOAD parallèle : UPLOAD_PARALLEL → N × UPLOAD_CHUNK (connexions supplémentaires) → UPLOAD_COMMIT ----------
+    // Les morceaux sont écrits à leur position dans un fichier caché ".<nom>.<md5>.chunks.part" pré-alloué,
+    // qui ne remplace la cible qu'au COMMIT, une fois le MD5 du fichier entier vérifié.
+
+    // Cible d'un upload (basename sous cwd) ou null si hors racine
+    private Path uploadTarget(String remoteName) {
+        if (remoteName == null || remoteName.isEmpty()) return null;
+        Path target = cwd.resolve(Paths.get(remoteName).getFileName().toString()).normalize();
+        return inRoot(target) ? target : null;
+    }
+
+    static Path deltaFile(Path target) {
+        return target.resolveSibling("." + target.getFileName() + ".delta.part");
+    }
+
+    static Path chunkFile(Path target, String md5) {
+        String tag = Integrity.isHex(md5) ? "." + md5.toLowerCase() : "";
+        return target.resolveSibling("." + target.getFileName() + tag + ".chunks.part");
+    }
+
+    // UPLOAD_PARALLEL : pré-alloue le fichier de morceaux, répond PARALLEL_OK (ou ERR ...)
+    private void handleUploadParallel(DataOutputStream out, String name, long size, String md5) throws IOException {
+        Path target = uploadTarget(name);
+        if (target == null || size < 0) { out.writeUTF("ERR upload: nom ou taille invalide"); out.flush(); return; }
+        Path file = chunkFile(target, md5);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(size);
+        }
+        openChunks.add(file);
+        out.writeUTF("PARALLEL_OK");
+        out.flush();
+        Serveur.log(socket, "upload parallèle " + target.getFileName() + " size=" + size);
+    }
+
+    // UPLOAD_CHUNK : 'length' octets à écrire à 'offset' ; répond CHUNK_OK ou CHUNK_ERR (octets consommés dans tous les cas)
+    private void handleUploadChunk(DataInputStream in, DataOutputStream out, String name, long size, String md5,
+                                   long offset, long length, String chunkMd5) throws IOException {
+        Path target = uploadTarget(name);
+        Path file = (target == null) ? null : chunkFile(target, md5);
+        long allocated = -1;                           // taille fixée par UPLOAD_PARALLEL (pas celle annoncée ici)
+        if (file != null) try { allocated = Files.size(file); } catch (NoSuchFileException e) { /* pas ouvert */ }
+        boolean valid = allocated >= 0 && offset >= 0 && length >= 0 && offset <= allocated - length;   // sans débordement
+
+        MessageDigest md = digest();
+        byte[] buf = new byte[64 * 1024];
+        try (FileChannel fc = valid ? FileChannel.open(file, StandardOpenOption.WRITE) : null) {
+            long pos = offset, remaining = length;
+            while (remaining > 0) {
+                int r = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (r == -1) throw new EOFException("Flux terminé avant d'avoir reçu tous les octets");
+                throttle(r);
+                if (fc != null) {
+                    ByteBuffer bb = ByteBuffer.wrap(buf, 0, r);
+                    while (bb.hasRemaining()) pos += fc.write(bb, pos);   // écriture positionnelle
+                    md.update(buf, 0, r);
+                }
+                remaining -= r;
+            }
+        }
+        if (!valid) out.writeUTF("CHUNK_ERR upload parallèle non ouvert ou plage invalide");
+        else if (!toHex(md.digest()).equalsIgnoreCase(chunkMd5)) out.writeUTF("CHUNK_ERR " + integrity + "_mismatch offset=" + offset);
+        else out.writeUTF("CHUNK_OK " + offset);
+        out.flush();
+    }
+
+    // UPLOAD_COMMIT : vérifie le MD5 du fichier assemblé puis le renomme en place (même réponse que UPLOAD)
+    private void handleUploadCommit(DataOutputStream out, String name, long size, String md5) throws IOException {
+        Path target = uploadTarget(name);
+        Path file = (target == null) ? null : chunkFile(target, md5);
+        if (file == null || !Files.exists(file)) { out.writeUTF("UPLOAD_ERR upload parallèle non ouvert"); out.flush(); return; }
+        String serverMd5 = Files.size(file) == size ? ChecksumIndex.hash(file, integrity) : "taille_incorrecte";
+        boolean installed = serverMd5.equalsIgnoreCase(md5) && install(file, target, integrity, serverMd5, null);
+        if (!installed) Files.deleteIfExists(file);   // échec : le client recommence par UPLOAD_PARALLEL
+        openChunks.remove(file);
+        if (installed) {
+            out.writeUTF("UPLOAD_OK " + target.getFileName() + " size=" + size + " " + integrity + "=" + serverMd5);
+        } else if (serverMd5.equalsIgnoreCase(md5)) {
+            out.writeUTF("UPLOAD_ERR dossier cible supprimé pendant l'envoi");
+        } else {
+            out.writeUTF("UPLOAD_ERR " + integrity + "_mismatch client=" + md5 + " server=" + serverMd5);
+        }
+        out.flush();
+        Serveur.log(socket, "upload " + target.getFileName() + " (parallèle) size=" + size + " " + integrity + "=" + serverMd5);
+    }
+
+    // Fin de session sans UPLOAD_COMMIT : les morceaux reçus ne seront jamais assemblés
+    private void dropChunks() {
+        for (Path f : openChunks) {
+            try { Files.deleteIfExists(f); } catch (IOException ignored) {}
+        }
+        openChunks.clear();
+    }
+
+    // ---------- Utilitaires ----------
+
+    // Affiche un chemin "propre" relatif à la racine ("/", "/docs", ...)
+    String relPath() {
+        Path rel = root.relativize(cwd);
+        String s = rel.toString().replace('\\','/');
+        return s.isEmpty() ? "/" : "/" + s;
+    }
+
+    // Un chemin de storage/ vient d'être modifié par le serveur : caches des métadonnées et des contenus, index des noms à jour
+    // (tree : dossier supprimé ou rempli d'un coup, tout ce qui est dessous aussi) ; journal de réplication (le chemin
+    // lui-même : les fichiers d'un dossier rempli d'un coup sont journalisés un par un par install)
+    static void changed(Path p, boolean tree) {
+        if (tree) meta.invalidateTree(p); else meta.invalidate(p);
+        contents.invalidate(p, tree);
+        names.changed(p, tree);
+        replication.updated(p, false);
+    }
+
+    // Un fichier ou dossier de storage/ vient d'être supprimé (DELETE, MDELETE)
+    static void removed(Path p) {
+        meta.invalidateTree(p);
+        contents.invalidate(p, true);
+        names.changed(p, true);
+        replication.deleted(p);
+    }
+
+    // Fichier existant (pas un dossier), d'après le cache des métadonnées
+    static boolean isFile(Path p) throws IOException {
+        MetadataCache.Attrs a = meta.attrs(p);
+        return a.exists && !a.directory;
+    }
+
+    // Chemin sous storage/ ET accessible au client (les fichiers internes du serveur sont exclus)
+    boolean inRoot(Path p) {
+        return p.startsWith(root) && !isInternal(p);
+    }
+
+    // Fichiers internes du serveur : index MD5 (racine de storage/), blobs du stockage cas et uploads partiels ".<nom>....part"
+    static boolean isInternal(Path p) {
+        Path parent = p.getParent();
+        String n = p.getFileName().toString();
+        if (n.startsWith(".") && n.endsWith(".part")) return true;
+        if (p.startsWith(ROOT.resolve(BlobStore.DIR_NAME))) return true;
+        return parent != null && parent.equals(ROOT) && (n.startsWith(ChecksumIndex.FILE_NAME) || n.startsWith(ReplicationLog.FILE_NAME));
+    }
+
+    // Fichier partiel d'un upload, propre au contenu annoncé (un autre contenu ne reprendra jamais ces octets)
+    static Path partFile(Path target, String md5) {
+        String tag = Integrity.isHex(md5) ? "." + md5.toLowerCase() : "";
+        return target.resolveSibling("." + target.getFileName() + tag + ".part");
+    }
+
+    // Partiel d'un fichier de MUPLOAD, propre à la session : deux MUPLOAD du même chemin n'écrivent jamais dans le
+    // même fichier (réservé par 'uploads' pendant la réception puis pendant la mise en place, un fichier à la fois)
+    static Path sessionPartFile(Path target, int session) {
+        return target.resolveSibling("." + target.getFileName() + ".s" + session + ".part");
+    }
+
+    // Supprime les partiels cachés ".<nom>....part" (uploads, morceaux, deltas) non modifiés depuis 'maxAgeMs' :
+    // transferts abandonnés qu'aucun client ne reprendra. Un partiel réservé par une session en cours est laissé.
+    static int sweepPartials(long maxAgeMs) {
+        long limit = System.currentTimeMillis() - maxAgeMs;
+        Path blobDir = ROOT.resolve(BlobStore.DIR_NAME);
+        int[] removed = { 0 };
+        try {
+            Files.walkFileTree(ROOT, new SimpleFileVisitor<Path>() {
+                @Override public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes a) {
+                    return d.equals(blobDir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+                @Override public FileVisitResult visitFile(Path f, BasicFileAttributes a) {
+                    String n = f.getFileName().toString();
+                    if (!a.isRegularFile() || !n.startsWith(".") || !n.endsWith(".part") || a.lastModifiedTime().toMillis() > limit)
+                        return FileVisitResult.CONTINUE;
+                    try (PathLocks.Hold h = uploads.tryWrite(f)) {
+                        if (h != null && Files.deleteIfExists(f)) removed[0]++;
+                    } catch (IOException e) {
+                        // supprimé entre-temps, ou droits : on passe
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override public FileVisitResult visitFileFailed(Path f, IOException e) { return FileVisitResult.CONTINUE; }
+            });
+        } catch (IOException e) {
+            System.err.println("Nettoyage des partiels interrompu: " + e.getMessage());
+        }
+        return removed[0];
+    }
+
+    // Ajoute au digest les 'len' premiers octets d'un fichier (reprise d'un upload partiel)
+    static void updateFromFile(MessageDigest md, Path f, long len) throws IOException {
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(f))) {
+            byte[] buf = new byte[64 * 1024];
+            long remaining = len;
+            while (remaining > 0) {
+                int r = is.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (r == -1) throw new EOFException("Fichier partiel plus court que prévu");
+                md.update(buf, 0, r);
+                remaining -= r;
+            }
+        }
+    }
+
+    // Débit d'un transfert pour le log ("12.3 Mo/s"), t0 = System.nanoTime() au début
+    static String throughput(long bytes, long t0) {
+        double sec = Math.max(1e-9, (System.nanoTime() - t0) / 1e9);
+        return String.format(Locale.ROOT, "(%.1f Mo/s)", bytes / sec / (1024 * 1024));
+    }
+
+    // Suppression récursive (fichier ou dossier)
+    static void deleteRecursive(Path p) throws IOException {
+        if (Files.isDirectory(p)) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(p)) {
+                for (Path child : ds) deleteRecursive(child);
+            }
+        }
+        Object key = (blobs != null && Files.isRegularFile(p)) ? BlobStore.fileKey(p) : null;
+        Files.deleteIfExists(p);
+        if (key != null) blobs.release(key);         // stockage cas : dernier lien supprimé → blob libéré
+    }
+
+    // Empreinte de l'algorithme négocié par la session (md5 par défaut)
+    MessageDigest digest() throws IOException {
+        return Integrity.newDigest(integrity);
+    }
+
+    // Index des empreintes d'un algorithme (chargé au premier usage)
+    static ChecksumIndex checksums(String algo) {
+        return indexes.computeIfAbsent(algo, k -> new ChecksumIndex(ROOT, k));
+    }
+
+    // Fichier modifié / supprimé : ses empreintes ne valent plus, quel que soit l'algorithme (tree : dossier supprimé)
+    static void forgetChecksums(Path p, boolean tree) {
+        for (ChecksumIndex ix : indexes.values()) ix.invalidate(p, tree);
+    }
+
+    static void saveChecksums() {
+        for (ChecksumIndex ix : indexes.values()) ix.save();
+    }
+
+    // Conversion d'un tableau d'octets en hexadécimal (minuscule)
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
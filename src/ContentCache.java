@@ -0,0 +1,221 @@
+// ContentCache.java — cache du contenu des petits fichiers très demandés (DOWNLOAD), hors du tas Java
+// Chaque fichier admis est gardé dans un ByteBuffer direct (pas de pression sur le GC) avec son empreinte (une par
+// algorithme d'intégrité demandé) ; un hit est servi sans ouvrir le fichier, en une seule écriture groupée
+// [taille][corps][empreinte] sur la socket.
+// Budget en octets, éviction LRU. Admission selon la fréquence (principe de TinyLFU) : les demandes sont comptées
+// dans un petit sketch count-min vieillissant ; un fichier n'entre qu'à partir de sa 2e demande, et seulement s'il
+// est plus demandé que les entrées qu'il ferait sortir (un parcours ponctuel de gros fichiers ne vide pas le cache).
+// Validité : taille + date de modification comparées aux attributs courants (MetadataCache) ; invalidation
+// explicite par UPLOAD / DELETE (ClientHandler.changed).
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ContentCache {
+    private static final int ADMIT_MIN = 2;            // demandes avant la première admission
+
+    // Un fichier en cache ; frames() rend des vues indépendantes du corps (une par envoi)
+    static final class Body {
+        final long size, modified;
+        private final ByteBuffer content;              // direct, lecture seule
+        private final Map<String, String> digests = new ConcurrentHashMap<>(4);   // algorithme → empreinte
+
+        Body(ByteBuffer content, long modified) {
+            this.content = content.asReadOnlyBuffer();
+            this.size = content.remaining();
+            this.modified = modified;
+        }
+
+        // Empreinte du contenu entier, calculée en mémoire à la première demande de cet algorithme
+        String digest(String algo) throws IOException {
+            String d = digests.get(algo);
+            if (d == null) digests.put(algo, d = hash(content.duplicate(), algo));
+            return d;
+        }
+
+        // Réponse complète, prête pour une écriture groupée :
+        // DOWNLOAD [taille][corps][empreinte] ; DOWNLOAD_RANGE [total][n][plage][empreinte plage][empreinte fichier]
+        ByteBuffer[] frames(boolean range, long offset, long n, String algo) throws IOException {
+            ByteBuffer body = content.duplicate();
+            body.position((int) offset).limit((int) (offset + n));
+            ByteArrayOutputStream head = new ByteArrayOutputStream(16), tail = new ByteArrayOutputStream(70);
+            DataOutputStream h = new DataOutputStream(head), t = new DataOutputStream(tail);
+            String digest = digest(algo);
+            h.writeLong(size);
+            if (range) {
+                h.writeLong(n);
+                t.writeUTF(offset != 0 || n != size ? hash(body.duplicate(), algo) : digest);
+            }
+            t.writeUTF(digest);
+            return new ByteBuffer[] { ByteBuffer.wrap(head.toByteArray()), body, ByteBuffer.wrap(tail.toByteArray()) };
+        }
+    }
+
+    private final long budget, maxFile;                // octets ; budget 0 → cache désactivé
+    private final LinkedHashMap<Path, Body> lru = new LinkedHashMap<>(256, 0.75f, true);
+    private long used, epoch;                          // protégés par 'lru'
+    private final FrequencySketch sketch = new FrequencySketch(4096);
+
+    final LongAdder hits = new LongAdder(), misses = new LongAdder(), admitted = new LongAdder(), rejected = new LongAdder();
+
+    // Réglages : -Dserveur.contentCacheMb (défaut 64, 0 = désactivé), -Dserveur.contentCacheMaxKb (défaut 1024)
+    static ContentCache fromProperties() {
+        return new ContentCache(Long.getLong("serveur.contentCacheMb", 64) * 1024 * 1024,
+                Long.getLong("serveur.contentCacheMaxKb", 1024) * 1024);
+    }
+
+    ContentCache(long budget, long maxFile) {
+        this.budget = budget;
+        this.maxFile = Math.min(maxFile, budget);
+    }
+
+    // Contenu de 'f' (attributs courants 'a') : depuis le cache, ou chargé s'il vient d'être admis (avec l'empreinte
+    // 'algo' de la session qui le demande) ; null → envoi normal
+    Body get(Path f, MetadataCache.Attrs a, String algo) throws IOException {
+        if (budget <= 0 || a.size > maxFile) return null;
+        long e;
+        synchronized (lru) {
+            int freq = sketch.increment(f);
+            Body b = lru.get(f);
+            if (b != null && b.size == a.size && b.modified == a.modified) { hits.increment(); return b; }
+            if (b != null) { lru.remove(f); used -= b.size; }           // périmé (modifié hors du serveur)
+            misses.increment();
+            if (freq < ADMIT_MIN || !admissible(f, a.size, freq)) { rejected.increment(); return null; }
+            e = epoch;
+        }
+        Body b = load(f, a);
+        if (b == null) return null;
+        b.digest(algo);
+        synchronized (lru) {
+            if (epoch != e || !makeRoom(f, b.size, sketch.frequency(f))) { rejected.increment(); return b; }   // servi, pas gardé
+            lru.put(f, b);
+            used += b.size;
+            admitted.increment();
+        }
+        return b;
+    }
+
+    // UPLOAD / DELETE d'un fichier (tree : tout ce qui est sous un dossier supprimé)
+    void invalidate(Path p, boolean tree) {
+        if (budget <= 0) return;
+        synchronized (lru) {
+            epoch++;
+            if (!tree) { Body b = lru.remove(p); if (b != null) used -= b.size; return; }
+            Iterator<Map.Entry<Path, Body>> it = lru.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Path, Body> en = it.next();
+                if (en.getKey().startsWith(p)) { used -= en.getValue().size; it.remove(); }
+            }
+        }
+    }
+
+    int size() { synchronized (lru) { return lru.size(); } }
+    long used() { synchronized (lru) { return used; } }
+    long budget() { return budget; }
+
+    // ---------- Admission / éviction (sous le verrou) ----------
+
+    // Place libre, ou entrées LRU à évincer toutes moins demandées que le candidat
+    private boolean admissible(Path f, long size, int freq) {
+        long free = budget - used;
+        for (Iterator<Map.Entry<Path, Body>> it = lru.entrySet().iterator(); free < size && it.hasNext(); ) {
+            Map.Entry<Path, Body> victim = it.next();
+            if (victim.getKey().equals(f)) continue;
+            if (sketch.frequency(victim.getKey()) >= freq) return false;
+            free += victim.getValue().size;
+        }
+        return free >= size;
+    }
+
+    private boolean makeRoom(Path f, long size, int freq) {
+        if (!admissible(f, size, freq)) return false;
+        List<Path> out = new ArrayList<>();
+        long free = budget - used;
+        for (Map.Entry<Path, Body> victim : lru.entrySet()) {
+            if (free >= size) break;
+            out.add(victim.getKey());
+            free += victim.getValue().size;
+        }
+        for (Path p : out) used -= lru.remove(p).size;
+        return true;
+    }
+
+    // ---------- Chargement : une lecture dans un buffer direct ----------
+
+    private static Body load(Path f, MetadataCache.Attrs a) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect((int) a.size);
+        try (FileChannel fc = FileChannel.open(f, StandardOpenOption.READ)) {
+            while (buf.hasRemaining()) if (fc.read(buf) < 0) return null;    // tronqué entre-temps
+            if (fc.size() != a.size) return null;                             // modifié entre-temps
+        }
+        buf.flip();
+        return new Body(buf, a.modified);
+    }
+
+    private static String hash(ByteBuffer b, String algo) throws IOException {
+        MessageDigest md = Integrity.newDigest(algo);
+        md.update(b);
+        return ClientHandler.toHex(md.digest());
+    }
+
+    // ---------- Fréquences : count-min sketch à 4 lignes, divisé par 2 périodiquement (vieillissement) ----------
+
+    static final class FrequencySketch {
+        private final int[][] rows;
+        private final int mask, resetAt;
+        private int additions;
+
+        FrequencySketch(int width) {
+            int w = Integer.highestOneBit(Math.max(16, width - 1)) << 1;
+            rows = new int[4][w];
+            mask = w - 1;
+            resetAt = 10 * w;
+        }
+
+        int increment(Object key) {
+            int h = spread(key.hashCode()), min = Integer.MAX_VALUE;
+            for (int i = 0; i < rows.length; i++) {
+                int[] row = rows[i];
+                int j = index(h, i);
+                if (row[j] < Integer.MAX_VALUE) row[j]++;
+                min = Math.min(min, row[j]);
+            }
+            if (++additions >= resetAt) halve();
+            return min;
+        }
+
+        int frequency(Object key) {
+            int h = spread(key.hashCode()), min = Integer.MAX_VALUE;
+            for (int i = 0; i < rows.length; i++) min = Math.min(min, rows[i][index(h, i)]);
+            return min;
+        }
+
+        private int index(int h, int row) {
+            int x = h * (0x9E3779B9 + 2 * row + 1);        // une fonction de hachage par ligne
+            return (x ^ (x >>> 16)) & mask;
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 16; h *= 0x85EBCA6B; h ^= h >>> 13;
+            return h;
+        }
+
+        private void halve() {
+            for (int[] row : rows) for (int j = 0; j < row.length; j++) row[j] >>>= 1;
+            additions /= 2;
+        }
+    }
+}
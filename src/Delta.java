@@ -0,0 +1,309 @@
+// Delta.java — envoi différentiel (à la rsync) d'un fichier dont le serveur a déjà une ancienne version
+// 1. SIGNATURE : le serveur découpe sa copie en blocs de taille fixe et envoie pour chacun une empreinte faible
+//    (somme glissante, recalculée en O(1) quand la fenêtre avance d'un octet) et une empreinte forte (xxh64) ;
+// 2. UPLOAD_DELTA : le client fait glisser une fenêtre sur son fichier ; quand l'empreinte faible puis la forte
+//    d'une position correspondent à un bloc du serveur, il envoie une référence à ce bloc, sinon les octets eux-mêmes ;
+// 3. le serveur reconstruit le fichier (blocs copiés de sa copie + octets reçus) dans un partiel, vérifie l'empreinte
+//    du fichier entier (algorithme de la session) et ne le met en place que si elle est bonne.
+// Instructions : [0] fin | [1][int bloc][int nb] nb blocs consécutifs | [2][int n] n octets littéraux.
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+public final class Delta {
+    private Delta() {}
+
+    static final int END = 0, COPY = 1, LITERAL = 2;
+    static final int MIN_BLOCK = 2 * 1024, MAX_BLOCK = 128 * 1024;
+    private static final int MAX_LITERAL = 256 * 1024;        // littéraux envoyés par morceaux de cette taille au plus
+
+    // Taille de bloc ~ racine de la taille (comme rsync) : 2 Go → 46 Ko, ~46 000 blocs, signature de ~550 Ko
+    static int blockSize(long size) {
+        long s = (long) Math.sqrt((double) size);
+        s = (s + 7) & ~7L;
+        return (int) Math.max(MIN_BLOCK, Math.min(MAX_BLOCK, s));
+    }
+
+    // ---------- Empreintes ----------
+
+    // Somme faible de rsync : a = Σ x, b = Σ (len - i)·x, chacune sur 16 bits ; empreinte = a | b << 16
+    static int weak(byte[] buf, int off, int len) {
+        int a = 0, b = 0;
+        for (int i = 0; i < len; i++) {
+            int x = buf[off + i] & 0xFF;
+            a += x;
+            b += (len - i) * x;
+        }
+        return (a & 0xFFFF) | (b & 0xFFFF) << 16;
+    }
+
+    static long strong(MessageDigest md, byte[] buf, int off, int len) {
+        md.update(buf, off, len);
+        return ByteBuffer.wrap(md.digest()).getLong();
+    }
+
+    static MessageDigest newStrong() throws IOException { return Integrity.newDigest("xxh64"); }
+
+    // ---------- Signature de la copie du serveur ----------
+
+    static final class Signature {
+        final long size;
+        final int blockSize;
+        final int[] weak;
+        final long[] strong;
+
+        Signature(long size, int blockSize, int[] weak, long[] strong) {
+            this.size = size; this.blockSize = blockSize; this.weak = weak; this.strong = strong;
+        }
+
+        int blocks() { return weak.length; }
+
+        // Taille du dernier bloc (plus court si la taille n'est pas un multiple de blockSize)
+        int lastLength() {
+            long r = size - (long) (blocks() - 1) * blockSize;
+            return blocks() == 0 ? 0 : (int) r;
+        }
+
+        // Lit 'size' octets de 'in' (fichier du serveur) et calcule l'empreinte de chaque bloc
+        static Signature of(InputStream in, long size) throws IOException {
+            int bs = blockSize(size);
+            int n = (int) ((size + bs - 1) / bs);
+            int[] weak = new int[n];
+            long[] strong = new long[n];
+            MessageDigest md = newStrong();
+            byte[] buf = new byte[bs];
+            for (int i = 0; i < n; i++) {
+                int len = (int) Math.min(bs, size - (long) i * bs);
+                readFully(in, buf, len);
+                weak[i] = weak(buf, 0, len);
+                strong[i] = strong(md, buf, 0, len);
+            }
+            return new Signature(size, bs, weak, strong);
+        }
+
+        // [long taille][int taille de bloc][int n] puis n × [int faible][long forte]
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(size);
+            out.writeInt(blockSize);
+            out.writeInt(blocks());
+            for (int i = 0; i < blocks(); i++) { out.writeInt(weak[i]); out.writeLong(strong[i]); }
+        }
+
+        // La taille (déjà lue, >= 0) précède le reste de la signature
+        static Signature read(DataInputStream in, long size) throws IOException {
+            int bs = in.readInt(), n = in.readInt();
+            if (bs < 1 || n < 0 || (long) n * bs < size || (long) (n - 1) * bs >= Math.max(1, size))
+                throw new IOException("Signature delta invalide (bloc " + bs + ", " + n + " blocs, " + size + " octets)");
+            int[] weak = new int[n];
+            long[] strong = new long[n];
+            for (int i = 0; i < n; i++) { weak[i] = in.readInt(); strong[i] = in.readLong(); }
+            return new Signature(size, bs, weak, strong);
+        }
+    }
+
+    // ---------- Côté client : instructions pour passer de la copie du serveur à 'src' ----------
+
+    // Octets envoyés en littéral / reconstitués depuis la copie du serveur
+    static final class Stats { long literal, copied; }
+
+    // Parcourt 'len' octets de 'src', écrit les instructions (terminées par END) et met à jour 'md' (fichier entier)
+    static Stats encode(InputStream src, long len, Signature sig, DataOutputStream out, MessageDigest md) throws IOException {
+        Encoder e = new Encoder(sig, out);
+        e.run(src, len, md);
+        return e.stats;
+    }
+
+    private static final class Encoder {
+        private final Signature sig;
+        private final DataOutputStream out;
+        private final int bs;
+        private final int[] heads, next;                   // table de hachage des empreintes faibles (chaînage)
+        private final MessageDigest strong;
+        private final Stats stats = new Stats();
+        private int runStart = -1, runCount;               // blocs consécutifs en attente (une seule instruction)
+
+        Encoder(Signature sig, DataOutputStream out) throws IOException {
+            this.sig = sig;
+            this.out = out;
+            this.bs = sig.blockSize;
+            int n = sig.blocks();
+            int cap = Integer.highestOneBit(Math.max(16, n * 2 - 1)) << 1;
+            heads = new int[cap];
+            next = new int[n];
+            Arrays.fill(heads, -1);
+            for (int i = n - 1; i >= 0; i--) {             // ordre croissant dans chaque chaîne
+                int h = slot(sig.weak[i]);
+                next[i] = heads[h];
+                heads[h] = i;
+            }
+            strong = newStrong();
+        }
+
+        private int slot(int weak) {
+            int h = weak * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & (heads.length - 1);
+        }
+
+        // Bloc du serveur identique à buf[off, off+len) ; le successeur du dernier bloc copié est essayé d'abord
+        private int match(int weak, byte[] buf, int off, int len) {
+            long s = 0;
+            boolean hashed = false;
+            int expected = runStart >= 0 ? runStart + runCount : -1;
+            if (expected >= 0 && expected < sig.blocks() && sig.weak[expected] == weak && blockLength(expected) == len) {
+                s = strong(strong, buf, off, len);
+                hashed = true;
+                if (sig.strong[expected] == s) return expected;
+            }
+            for (int i = heads[slot(weak)]; i >= 0; i = next[i]) {
+                if (sig.weak[i] != weak || blockLength(i) != len) continue;
+                if (!hashed) { s = strong(strong, buf, off, len); hashed = true; }
+                if (sig.strong[i] == s) return i;
+            }
+            return -1;
+        }
+
+        private int blockLength(int i) { return i == sig.blocks() - 1 ? sig.lastLength() : bs; }
+
+        void run(InputStream src, long len, MessageDigest md) throws IOException {
+            byte[] buf = new byte[Math.max(4 * bs, 1024 * 1024)];
+            int lit = 0, k = 0, end = 0;                   // littéral en attente [lit, k), fenêtre [k, k + bs)
+            long remaining = len;
+            boolean rolling = false;
+            int a = 0, b = 0;
+            while (true) {
+                // Il faut la fenêtre + l'octet suivant (pour glisser), sauf en fin de fichier
+                if (end - k <= bs && remaining > 0) {
+                    if (k - lit >= MAX_LITERAL) { literal(buf, lit, k - lit); lit = k; }
+                    if (lit > 0) {                         // compacte : garde littéral en attente + fenêtre
+                        System.arraycopy(buf, lit, buf, 0, end - lit);
+                        k -= lit; end -= lit; lit = 0;
+                    }
+                    while (end < buf.length && remaining > 0) {
+                        int r = src.read(buf, end, (int) Math.min(buf.length - end, remaining));
+                        if (r < 0) throw new EOFException("Fichier local raccourci pendant l'envoi");
+                        md.update(buf, end, r);
+                        end += r;
+                        remaining -= r;
+                    }
+                }
+                int w = Math.min(bs, end - k);
+                if (w <= 0) break;
+                if (w < bs && w != sig.lastLength()) break;        // fin plus courte qu'un bloc : littéral
+                if (!rolling) {
+                    int h = weak(buf, k, w);
+                    a = h & 0xFFFF; b = h >>> 16;
+                    rolling = true;
+                }
+                int idx = match(a | b << 16, buf, k, w);
+                if (idx >= 0) {
+                    if (k > lit) literal(buf, lit, k - lit);
+                    copy(idx);
+                    stats.copied += w;
+                    k += w; lit = k;
+                    rolling = false;
+                    continue;
+                }
+                if (w < bs) break;                                  // dernier bloc court, différent
+                if (k + bs >= end) {                                // plus d'octet à faire entrer (fin du fichier)
+                    k++;
+                    rolling = false;
+                    continue;
+                }
+                int leaving = buf[k] & 0xFF, entering = buf[k + bs] & 0xFF;   // la fenêtre avance d'un octet
+                a = (a - leaving + entering) & 0xFFFF;
+                b = (b - bs * leaving + a) & 0xFFFF;
+                k++;
+                if (k - lit >= MAX_LITERAL) { literal(buf, lit, k - lit); lit = k; }
+            }
+            if (end > lit) literal(buf, lit, end - lit);
+            flushRun();
+            out.writeByte(END);
+        }
+
+        private void copy(int idx) throws IOException {
+            if (runStart >= 0 && idx == runStart + runCount) { runCount++; return; }
+            flushRun();
+            runStart = idx;
+            runCount = 1;
+        }
+
+        private void flushRun() throws IOException {
+            if (runStart < 0) return;
+            out.writeByte(COPY);
+            out.writeInt(runStart);
+            out.writeInt(runCount);
+            runStart = -1;
+            runCount = 0;
+        }
+
+        private void literal(byte[] buf, int off, int len) throws IOException {
+            flushRun();
+            out.writeByte(LITERAL);
+            out.writeInt(len);
+            out.write(buf, off, len);
+            stats.literal += len;
+        }
+    }
+
+    // ---------- Côté serveur : reconstruction ----------
+
+    // Lit les instructions de 'in' jusqu'à END : blocs copiés de 'basis' (taille de bloc 'bs'), octets littéraux
+    // reçus ; le tout écrit dans 'dst' et ajouté à 'md'. basis/dst null → instructions lues puis ignorées.
+    // IOException si une instruction sort de la copie du serveur ou dépasse 'size' octets.
+    static Stats apply(DataInputStream in, FileChannel basis, int bs, long size, OutputStream dst, MessageDigest md) throws IOException {
+        Stats st = new Stats();
+        long basisSize = basis != null ? basis.size() : 0;
+        byte[] buf = new byte[64 * 1024];
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        while (true) {
+            int op = in.readUnsignedByte();
+            if (op == END) return st;
+            if (op == COPY) {
+                long pos = (long) in.readInt() * bs, n = (long) in.readInt() * bs;
+                if (basis == null) continue;
+                if (pos < 0 || n <= 0 || pos >= basisSize) throw new IOException("Delta: bloc hors de la copie du serveur");
+                n = Math.min(n, basisSize - pos);
+                if (st.copied + st.literal + n > size) throw new IOException("Delta: plus d'octets que la taille annoncée");
+                for (long end = pos + n; pos < end; ) {
+                    bb.clear();
+                    bb.limit((int) Math.min(buf.length, end - pos));
+                    int r = basis.read(bb, pos);
+                    if (r < 0) throw new EOFException("Delta: copie du serveur raccourcie");
+                    if (dst != null) dst.write(buf, 0, r);
+                    md.update(buf, 0, r);
+                    pos += r;
+                }
+                st.copied += n;
+            } else if (op == LITERAL) {
+                int n = in.readInt();
+                if (n < 0 || (basis != null && st.copied + st.literal + n > size)) throw new IOException("Delta: littéral invalide");
+                for (int left = n; left > 0; ) {
+                    int r = in.read(buf, 0, Math.min(buf.length, left));
+                    if (r < 0) throw new EOFException("Flux terminé avant d'avoir reçu tous les octets");
+                    if (dst != null) dst.write(buf, 0, r);
+                    if (basis != null) md.update(buf, 0, r);
+                    left -= r;
+                }
+                st.literal += n;
+            } else {
+                throw new IOException("Delta: instruction inconnue " + op);
+            }
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buf, int len) throws IOException {
+        for (int off = 0; off < len; ) {
+            int r = in.read(buf, off, len - off);
+            if (r < 0) throw new EOFException("Fichier raccourci pendant le calcul de la signature");
+            off += r;
+        }
+    }
+}
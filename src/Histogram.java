@@ -0,0 +1,58 @@
+// Histogram.java — histogramme de latences à précision relative constante (principe de HdrHistogram)
+// Chaque puissance de 2 est découpée en 64 cases égales : l'erreur sur une valeur est < 1,6 %, de la
+// microseconde à plusieurs heures, avec un tableau fixe (~2400 compteurs). Enregistrement sans verrou
+// (AtomicLongArray), lecture des percentiles sur un instantané approximatif (suffisant pour des métriques).
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Histogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB = 1 << SUB_BITS;               // 64 cases par puissance de 2
+    private static final long MAX = (1L << 44) - 1;             // ~4,9 h en nanosecondes, au-delà : écrêté
+
+    private final AtomicLongArray counts = new AtomicLongArray(index(MAX) + 1);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    static int index(long v) {
+        if (v < SUB) return (int) v;
+        int e = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;  // v >>> e est dans [64, 128)
+        return ((e + 1) << SUB_BITS) + (int) (v >>> e) - SUB;
+    }
+
+    // Plus grande valeur qui tombe dans la case i
+    static long highest(int i) {
+        if (i < SUB) return i;
+        int e = (i >>> SUB_BITS) - 1;
+        long low = (long) ((i & (SUB - 1)) + SUB) << e;
+        return low + (1L << e) - 1;
+    }
+
+    public void record(long value) {
+        long v = Math.max(0, Math.min(value, MAX));
+        counts.incrementAndGet(index(v));
+        total.increment();
+        sum.add(v);
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v)) { }
+    }
+
+    public long count() { return total.sum(); }
+    public long sum()   { return sum.sum(); }
+    public long max()   { return max.get(); }
+
+    // Valeur sous laquelle se trouvent q (0..1) des mesures
+    public long percentile(double q) {
+        long n = count();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * n)), seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highest(i), max());
+        }
+        return max();
+    }
+}
@@ -0,0 +1,206 @@
+// Integrity.java — algorithmes d'intégrité des transferts, choisis pour chaque session (commande INTEGRITY)
+// md5 (défaut : les clients qui ne négocient rien), sha256 (résiste à une modification volontaire),
+// crc32c (instructions CRC du processeur, Java 9+) et xxh64 (Java pur, sans dépendance).
+// Tous sont fournis comme des MessageDigest : le code des transferts ne change pas, seul l'objet créé change,
+// et l'empreinte circule en hexadécimal à la place du MD5 (8 à 64 caractères selon l'algorithme).
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Checksum;
+
+public final class Integrity {
+    private Integrity() {}
+
+    static final String DEFAULT = "md5";
+
+    // CRC32C de java.util.zip (Java 9+) : absent sur une JVM 8, l'algorithme n'est alors pas proposé
+    private static final Class<?> CRC32C = crc32cClass();
+    private static final MethodHandle UPDATE_BUFFER = updateBuffer();   // Checksum.update(ByteBuffer), Java 9+
+
+    // Algorithmes connus de cette JVM
+    static final List<String> AVAILABLE;
+    static {
+        List<String> l = new ArrayList<>();
+        l.add("md5");
+        l.add("sha256");
+        if (CRC32C != null) l.add("crc32c");
+        l.add("xxh64");
+        AVAILABLE = Collections.unmodifiableList(l);
+    }
+
+    // Nouveau calcul d'empreinte ; IOException si l'algorithme n'existe pas ici
+    static MessageDigest newDigest(String algo) throws IOException {
+        try {
+            switch (algo) {
+                case "md5":    return MessageDigest.getInstance("MD5");
+                case "sha256": return MessageDigest.getInstance("SHA-256");
+                case "xxh64":  return new XxHash64();
+                case "crc32c":
+                    if (CRC32C != null) return new ChecksumDigest("CRC32C", (Checksum) CRC32C.newInstance());
+                    break;
+                default:
+            }
+        } catch (NoSuchAlgorithmException | ReflectiveOperationException e) {
+            throw new IOException("Algorithme d'intégrité indisponible: " + algo, e);
+        }
+        throw new IOException("Algorithme d'intégrité inconnu: " + algo);
+    }
+
+    // Taille de l'empreinte en octets (index des empreintes sur disque)
+    static int length(String algo) {
+        switch (algo) {
+            case "sha256": return 32;
+            case "xxh64":  return 8;
+            case "crc32c": return 4;
+            default:       return 16;
+        }
+    }
+
+    // Premier algorithme de la liste du client (ordre de préférence, séparée par des virgules) connu ici ; sinon md5
+    static String choose(String offered) {
+        for (String a : offered.split(",")) {
+            String algo = a.trim().toLowerCase(Locale.ROOT);
+            if (AVAILABLE.contains(algo)) return algo;
+        }
+        return DEFAULT;
+    }
+
+    // Empreinte hexadécimale (nom des fichiers partiels) : longueur d'un des algorithmes
+    static boolean isHex(String s) {
+        return s != null && s.matches("[0-9a-fA-F]{8,64}");
+    }
+
+    private static Class<?> crc32cClass() {
+        try { return Class.forName("java.util.zip.CRC32C"); }
+        catch (ClassNotFoundException e) { return null; }
+    }
+
+    private static MethodHandle updateBuffer() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Checksum.class, "update",
+                    MethodType.methodType(void.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // ---------- Checksum (CRC32C) présenté comme un MessageDigest : 4 octets, gros-boutiste ----------
+
+    private static final class ChecksumDigest extends MessageDigest {
+        private final Checksum sum;
+
+        ChecksumDigest(String name, Checksum sum) { super(name); this.sum = sum; }
+
+        @Override protected void engineUpdate(byte input) { sum.update(input); }
+        @Override protected void engineUpdate(byte[] input, int offset, int len) { sum.update(input, offset, len); }
+
+        // Tampons directs (réception nio, cache des contenus) : passés tels quels, sans copie vers le tas
+        @Override protected void engineUpdate(ByteBuffer input) {
+            if (UPDATE_BUFFER == null) { super.engineUpdate(input); return; }
+            try { UPDATE_BUFFER.invokeExact(sum, input); }
+            catch (RuntimeException | Error e) { throw e; }
+            catch (Throwable t) { throw new IllegalStateException(t); }
+        }
+
+        @Override protected int engineGetDigestLength() { return 4; }
+
+        @Override protected byte[] engineDigest() {
+            long v = sum.getValue();
+            sum.reset();
+            return new byte[] { (byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v };
+        }
+
+        @Override protected void engineReset() { sum.reset(); }
+    }
+
+    // ---------- xxHash64 (graine 0), par bandes de 32 octets ; empreinte gros-boutiste comme xxhsum ----------
+
+    static final class XxHash64 extends MessageDigest {
+        private static final long P1 = 0x9E3779B185EBCA87L, P2 = 0xC2B2AE3D27D4EB4FL, P3 = 0x165667B19E3779F9L,
+                                  P4 = 0x85EBCA77C2B2AE63L, P5 = 0x27D4EB2F165667C5L;
+
+        private long v1, v2, v3, v4, total;
+        private final ByteBuffer mem = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);   // bande incomplète
+
+        XxHash64() { super("XXH64"); engineReset(); }
+
+        @Override protected void engineUpdate(byte input) { engineUpdate(new byte[] { input }, 0, 1); }
+
+        @Override protected void engineUpdate(byte[] input, int offset, int len) {
+            consume(ByteBuffer.wrap(input, offset, len).order(ByteOrder.LITTLE_ENDIAN));
+        }
+
+        @Override protected void engineUpdate(ByteBuffer input) {
+            ByteBuffer in = input.slice().order(ByteOrder.LITTLE_ENDIAN);
+            consume(in);
+            input.position(input.limit());
+        }
+
+        private void consume(ByteBuffer in) {
+            total += in.remaining();
+            if (mem.position() > 0) {                  // complète la bande en attente
+                while (mem.hasRemaining() && in.hasRemaining()) mem.put(in.get());
+                if (mem.hasRemaining()) return;
+                stripe(mem, 0);
+                mem.clear();
+            }
+            int p = in.position(), end = in.limit();
+            for (; p + 32 <= end; p += 32) stripe(in, p);
+            in.position(p);
+            mem.put(in);
+        }
+
+        private void stripe(ByteBuffer b, int p) {
+            v1 = round(v1, b.getLong(p));
+            v2 = round(v2, b.getLong(p + 8));
+            v3 = round(v3, b.getLong(p + 16));
+            v4 = round(v4, b.getLong(p + 24));
+        }
+
+        private static long round(long acc, long input) {
+            return Long.rotateLeft(acc + input * P2, 31) * P1;
+        }
+
+        private static long merge(long h, long v) {
+            return (h ^ round(0, v)) * P1 + P4;
+        }
+
+        @Override protected int engineGetDigestLength() { return 8; }
+
+        @Override protected byte[] engineDigest() {
+            long h;
+            if (total >= 32) {
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = merge(merge(merge(merge(h, v1), v2), v3), v4);
+            } else {
+                h = P5;
+            }
+            h += total;
+            int p = 0, end = mem.position();
+            for (; p + 8 <= end; p += 8) h = Long.rotateLeft(h ^ round(0, mem.getLong(p)), 27) * P1 + P4;
+            if (p + 4 <= end) { h = Long.rotateLeft(h ^ (mem.getInt(p) & 0xFFFFFFFFL) * P1, 23) * P2 + P3; p += 4; }
+            for (; p < end; p++) h = Long.rotateLeft(h ^ (mem.get(p) & 0xFFL) * P5, 11) * P1;
+            h ^= h >>> 33; h *= P2;
+            h ^= h >>> 29; h *= P3;
+            h ^= h >>> 32;
+            engineReset();
+            return ByteBuffer.allocate(8).putLong(h).array();
+        }
+
+        @Override protected void engineReset() {
+            v1 = P1 + P2; v2 = P2; v3 = 0; v4 = -P1;
+            total = 0;
+            mem.clear();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+// LoadGenerator.java — mode de génération de charge du client (sans console) : java -jar client.jar load <ip> <port>
+// N sessions simultanées (threads virtuels si la JVM les a, sinon un thread par session) enchaînent en boucle
+// fermée des commandes tirées au hasard selon un mélange (ls, cd, upload, download) et des tailles de fichiers
+// pondérées, avec un temps de réflexion aléatoire entre deux commandes. Chaque session travaille dans son dossier
+// load/s<n>/ sur le serveur. À la fin : débit et latences p50/p99/p999 par commande (Histogram, comme STATS).
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LoadGenerator {
+    // Réglages : -Dload.sessions, load.duration (s), load.mix, load.sizes, load.thinkMs, load.files
+    private static final int    SESSIONS = Integer.getInteger("load.sessions", 100);
+    private static final int    DURATION = Integer.getInteger("load.duration", 30);
+    private static final String MIX      = System.getProperty("load.mix", "ls=40,cd=20,upload=20,download=20");
+    private static final String SIZES    = System.getProperty("load.sizes", "4k=70,256k=25,4m=5");
+    private static final int    THINK_MS = Integer.getInteger("load.thinkMs", 0);   // moyenne (loi exponentielle), 0 = aucun
+    private static final int    FILES    = Integer.getInteger("load.files", 4);     // fichiers distincts par session
+
+    private static final String[] OPS = { "LS", "CD", "UPLOAD", "DOWNLOAD" };
+
+    // Statistiques d'une commande côté client (latence vue par le client : envoi → fin de la réponse)
+    private static final class OpStats {
+        final Histogram latency = new Histogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+    }
+
+    private final String ip;
+    private final int port;
+    private final int[] opWeights;                 // poids cumulés, indexés comme OPS
+    private final long[] sizes;
+    private final int[] sizeWeights;               // poids cumulés
+    private final byte[] content;                  // contenu des uploads : préfixe de ce tableau
+    private String[] digests;                      // empreinte de chaque taille (algorithme négocié, calculée une fois)
+    private final OpStats[] stats = new OpStats[OPS.length];
+    private final LongAdder connectErrors = new LongAdder();
+    private final AtomicLong interval = new AtomicLong();   // commandes depuis le dernier point d'avancement
+    private volatile boolean stopping;
+
+    LoadGenerator(String ip, int port) throws Exception {
+        this.ip = ip;
+        this.port = port;
+        this.opWeights = new int[OPS.length];
+        for (String[] kv : pairs(MIX)) {
+            int i = indexOf(kv[0].toUpperCase(Locale.ROOT));
+            if (i < 0) throw new IllegalArgumentException("load.mix : commande inconnue " + kv[0] + " (ls, cd, upload, download)");
+            opWeights[i] += Integer.parseInt(kv[1]);
+        }
+        cumulate(opWeights);
+        List<String[]> sz = pairs(SIZES);
+        sizes = new long[sz.size()];
+        sizeWeights = new int[sz.size()];
+        long max = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = parseSize(sz.get(i)[0]);
+            sizeWeights[i] = Integer.parseInt(sz.get(i)[1]);
+            max = Math.max(max, sizes[i]);
+        }
+        cumulate(sizeWeights);
+        if (opWeights[OPS.length - 1] <= 0 || sizeWeights[sizes.length - 1] <= 0) throw new IllegalArgumentException("load.mix / load.sizes : poids nuls");
+        if (max > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("load.sizes : 2 Go maximum");
+        content = new byte[(int) max];
+        new Random(42).nextBytes(content);
+        for (int i = 0; i < OPS.length; i++) stats[i] = new OpStats();
+    }
+
+    static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage : java [-Dload.<option>=...] -jar client.jar load <ip> <port>");
+            return;
+        }
+        try {
+            LoadGenerator g = new LoadGenerator(args[0], Integer.parseInt(args[1]));
+            g.run();
+        } catch (Exception e) {
+            System.err.println("Génération de charge impossible: " + e.getMessage());
+        }
+    }
+
+    void run() throws InterruptedException {
+        System.out.printf(Locale.ROOT, "Charge : %d sessions vers %s:%d pendant %d s, mélange %s, tailles %s, réflexion %d ms%n",
+                SESSIONS, ip, port, DURATION, MIX, SIZES, THINK_MS);
+        try (Client.Conn c = new Client.Conn(ip, port, "/")) { mkdir(c, "load"); }     // une fois, avant les sessions
+        catch (IOException e) { System.err.println("Serveur injoignable: " + e.getMessage()); return; }
+        try {                                       // algorithme connu maintenant (négocié par la 1re connexion)
+            digests = new String[sizes.length];
+            for (int i = 0; i < sizes.length; i++) {
+                MessageDigest md = Client.newDigest();
+                md.update(content, 0, (int) sizes[i]);
+                digests[i] = Client.toHex(md.digest());
+            }
+        } catch (IOException e) { System.err.println(e.getMessage()); return; }
+        ExecutorService pool = newExecutor();
+        CountDownLatch ready = new CountDownLatch(SESSIONS);
+        CountDownLatch go = new CountDownLatch(1);
+        for (int i = 0; i < SESSIONS; i++) {
+            int n = i;
+            pool.execute(() -> {
+                try { session(n, ready, go); }
+                catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            });
+        }
+        ready.await();                              // toutes les sessions sont connectées (ou ont échoué)
+        long t0 = System.nanoTime();
+        go.countDown();
+        long end = t0 + DURATION * 1_000_000_000L;
+        for (long now, last = t0; (now = System.nanoTime()) < end; last = now) {      // avancement toutes les 5 s
+            Thread.sleep(Math.min(5000, Math.max(1, (end - now) / 1_000_000)));
+            now = System.nanoTime();
+            System.out.printf(Locale.ROOT, "  t=%3.0f s  %8.1f commandes/s%n", (now - t0) / 1e9, interval.getAndSet(0) / ((now - last) / 1e9));
+        }
+        stopping = true;                            // chaque session finit sa commande en cours puis EXIT
+        long elapsed = System.nanoTime() - t0;
+        pool.shutdown();
+        pool.awaitTermination(60, TimeUnit.SECONDS);
+        report(elapsed);
+    }
+
+    // Une session : connexion, dossier load/s<n>/ (+ sous-dossier pour cd), un fichier par taille, puis la boucle
+    private void session(int n, CountDownLatch ready, CountDownLatch go) throws InterruptedException {
+        Random rnd = new Random(n);
+        Client.Conn c = null;
+        try {
+            c = new Client.Conn(ip, port, "/load");
+            mkdir(c, "s" + n);
+            if (!cd(c, "s" + n)) throw new IOException("cd load/s" + n);
+            mkdir(c, "sub");
+            for (int f = 0; f < FILES; f++) upload(c, "f" + f + ".bin", f % sizes.length);   // pour les premiers download
+        } catch (IOException e) {
+            connectErrors.increment();
+            if (c != null) try { c.socket.close(); } catch (IOException ignored) {}
+            ready.countDown();
+            return;
+        }
+        ready.countDown();
+        go.await();
+        boolean inSub = false;
+        try (Client.Conn conn = c) {
+            while (!stopping) {
+                int op = pick(opWeights, rnd);
+                int size = pick(sizeWeights, rnd);
+                long t = System.nanoTime();
+                boolean ok;
+                long bytes = 0;
+                switch (OPS[op]) {
+                    case "LS":       ok = ls(conn); break;
+                    case "CD":       ok = cd(conn, inSub ? ".." : "sub"); if (ok) inSub = !inSub; break;
+                    case "UPLOAD":   ok = upload(conn, "f" + rnd.nextInt(FILES) + ".bin", size); bytes = sizes[size]; break;
+                    default:         bytes = download(conn, "f" + rnd.nextInt(FILES) + ".bin", inSub); ok = bytes >= 0; break;
+                }
+                OpStats s = stats[op];
+                s.latency.record(System.nanoTime() - t);
+                if (ok) s.bytes.add(bytes); else s.errors.increment();
+                interval.incrementAndGet();
+                if (THINK_MS > 0) Thread.sleep((long) (-Math.log(1 - rnd.nextDouble()) * THINK_MS));
+            }
+        } catch (IOException e) {
+            connectErrors.increment();              // session coupée en cours de route
+        }
+    }
+
+    // ---------- Commandes (même protocole que Client) ----------
+
+    private static boolean ls(Client.Conn c) throws IOException {
+        c.out.writeUTF("LS"); c.out.flush();
+        int n = c.in.readInt();
+        for (int i = 0; i < n; i++) c.in.readUTF();
+        return n >= 0;
+    }
+
+    private static void mkdir(Client.Conn c, String dir) throws IOException {
+        c.out.writeUTF("MKDIR"); c.out.writeUTF(dir); c.out.flush();
+        c.in.readUTF();                             // "existe déjà" n'est pas une erreur ici (relance)
+    }
+
+    private static boolean cd(Client.Conn c, String dir) throws IOException {
+        c.out.writeUTF("CD"); c.out.writeUTF(dir); c.out.flush();
+        String msg = c.in.readUTF(); c.in.readUTF();
+        return !msg.startsWith("ERR");
+    }
+
+    private boolean upload(Client.Conn c, String name, int size) throws IOException {
+        c.out.writeUTF("UPLOAD"); c.out.writeUTF(name); c.out.writeLong(sizes[size]); c.out.writeUTF(digests[size]);
+        c.out.write(content, 0, (int) sizes[size]);
+        c.out.flush();
+        return c.in.readUTF().startsWith("UPLOAD_OK");
+    }
+
+    // Retourne le nb d'octets reçus, -1 si le serveur répond par une erreur (ex. fichier absent du sous-dossier)
+    private static long download(Client.Conn c, String name, boolean inSub) throws IOException {
+        c.out.writeUTF("DOWNLOAD"); c.out.writeUTF(inSub ? "../" + name : name); c.out.flush();
+        long size = c.in.readLong();
+        if (size < 0) { c.in.readUTF(); return -1; }
+        Client.skipExactly(c.in, size);
+        c.in.readUTF();                             // empreinte (vérifiée par le serveur à l'upload, pas recalculée ici)
+        return size;
+    }
+
+    // ---------- Rapport ----------
+
+    private void report(long elapsedNanos) {
+        double sec = elapsedNanos / 1e9;
+        long total = 0;
+        System.out.printf(Locale.ROOT, "%n%-10s %10s %10s %8s %10s %9s %9s %9s %9s%n",
+                "op", "nb", "op/s", "err", "Mo/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (int i = 0; i < OPS.length; i++) {
+            Histogram h = stats[i].latency;
+            if (h.count() == 0) continue;
+            total += h.count();
+            System.out.printf(Locale.ROOT, "%-10s %10d %10.1f %8d %10.1f %9.3f %9.3f %9.3f %9.3f%n",
+                    OPS[i], h.count(), h.count() / sec, stats[i].errors.sum(), stats[i].bytes.sum() / sec / 1048576.0,
+                    h.percentile(0.50) / 1e6, h.percentile(0.99) / 1e6, h.percentile(0.999) / 1e6, h.max() / 1e6);
+        }
+        System.out.printf(Locale.ROOT, "Total : %d commandes en %.1f s (%.1f commandes/s), sessions en échec : %d%n",
+                total, sec, total / sec, connectErrors.sum());
+    }
+
+    // ---------- Utilitaires ----------
+
+    // Threads virtuels (Java 21+, par réflexion pour rester compilable en Java 8), sinon un thread par session
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Threads virtuels non supportés par cette JVM (Java 21+) → 1 thread par session");
+            return Executors.newFixedThreadPool(SESSIONS);
+        }
+    }
+
+    // "a=1,b=2" → [[a,1],[b,2]]
+    private static List<String[]> pairs(String spec) {
+        List<String[]> out = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=", 2);
+            if (kv.length != 2) throw new IllegalArgumentException("format attendu nom=poids,... : " + spec);
+            out.add(new String[] { kv[0].trim(), kv[1].trim() });
+        }
+        return out;
+    }
+
+    // 512, 4k, 1m, 1g
+    private static long parseSize(String s) {
+        String v = s.toLowerCase(Locale.ROOT);
+        long unit = v.endsWith("k") ? 1024 : v.endsWith("m") ? 1024 * 1024 : v.endsWith("g") ? 1024L * 1024 * 1024 : 1;
+        if (unit > 1) v = v.substring(0, v.length() - 1);
+        return Long.parseLong(v) * unit;
+    }
+
+    private static int indexOf(String op) {
+        for (int i = 0; i < OPS.length; i++) if (OPS[i].equals(op)) return i;
+        return -1;
+    }
+
+    private static void cumulate(int[] w) {
+        for (int i = 1; i < w.length; i++) w[i] += w[i - 1];
+    }
+
+    private static int pick(int[] cumulative, Random rnd) {
+        int r = rnd.nextInt(cumulative[cumulative.length - 1]);
+        int i = 0;
+        while (r >= cumulative[i]) i++;
+        return i;
+    }
+}
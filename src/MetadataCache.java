@@ -0,0 +1,228 @@
+// MetadataCache.java — cache partagé des métadonnées de storage/ : contenu des dossiers (LS) et attributs des
+// chemins (CD, MKDIR, DELETE, DOWNLOAD), au lieu d'un Files.exists / isDirectory / list par client et par commande.
+// LRU borné (un attribut compte pour 1, un listage pour 1 + son nb de noms). Tenu à jour de deux façons :
+// - les commandes du serveur invalident ce qu'elles modifient (MKDIR, DELETE, UPLOAD...), de façon synchrone ;
+// - un WatchService surveille les dossiers présents dans le cache (changements faits hors du serveur, pris en
+//   compte dès que le système signale l'événement ; OVERFLOW → tout le cache est vidé).
+// Un chargement commencé avant une invalidation n'est pas mis en cache (compteur 'epoch').
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class MetadataCache {
+    // Attributs d'un chemin (ABSENT : n'existe pas, mis en cache lui aussi)
+    static final class Attrs {
+        static final Attrs ABSENT = new Attrs(false, false, 0, 0);
+        final boolean exists, directory;
+        final long size, modified;
+        Attrs(boolean exists, boolean directory, long size, long modified) {
+            this.exists = exists; this.directory = directory; this.size = size; this.modified = modified;
+        }
+    }
+
+    // Contenu visible d'un dossier (sans les fichiers internes), trié comme LS : noms insensibles à la casse
+    static final class Listing {
+        final String[] dirs, files;
+        Listing(String[] dirs, String[] files) { this.dirs = dirs; this.files = files; }
+        int size() { return dirs.length + files.length; }
+    }
+
+    // Ce que le cache sait d'un chemin (l'un ou l'autre peut manquer)
+    private static final class Entry {
+        Attrs attrs;
+        Listing listing;
+        int weight() { return (attrs != null ? 1 : 0) + (listing != null ? 1 + listing.size() : 0); }
+    }
+
+    private final Path root;
+    private final long maxWeight;                      // 0 → cache désactivé (toujours le système de fichiers)
+    private final LinkedHashMap<Path, Entry> lru = new LinkedHashMap<>(1024, 0.75f, true);   // ordre d'accès
+    private long weight, epoch;                        // protégés par 'lru'
+
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> watched = new ConcurrentHashMap<>();
+    private final Map<Path, WatchKey> watchedDirs = new ConcurrentHashMap<>();
+
+    final LongAdder hits = new LongAdder(), misses = new LongAdder(), invalidations = new LongAdder(), evictions = new LongAdder();
+
+    // Réglages : -Dserveur.metaCache=true|false, -Dserveur.metaCacheEntries (défaut 200000)
+    static MetadataCache fromProperties(Path root) {
+        boolean on = Boolean.parseBoolean(System.getProperty("serveur.metaCache", "true"));
+        return new MetadataCache(root, on ? Long.getLong("serveur.metaCacheEntries", 200_000) : 0);
+    }
+
+    MetadataCache(Path root, long maxWeight) {
+        this.root = root;
+        WatchService ws = null;
+        if (maxWeight > 0) {
+            try { ws = root.getFileSystem().newWatchService(); }
+            catch (IOException | UnsupportedOperationException e) {
+                System.err.println("Cache des métadonnées désactivé (surveillance de storage/ impossible: " + e.getMessage() + ")");
+            }
+        }
+        this.watcher = ws;
+        this.maxWeight = ws != null ? maxWeight : 0;
+        if (ws != null) {
+            Thread t = new Thread(this::watchLoop, "metadata-watch");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    // ---------- Lecture ----------
+
+    Attrs attrs(Path p) throws IOException {
+        if (!cacheable(p)) return loadAttrs(p);
+        long e;
+        synchronized (lru) {
+            Entry en = lru.get(p);
+            if (en != null && en.attrs != null) { hits.increment(); return en.attrs; }
+            e = epoch;
+        }
+        misses.increment();
+        if (!watch(p.getParent())) return loadAttrs(p);    // surveillé AVANT la lecture : aucun changement manqué
+        Attrs a = loadAttrs(p);
+        synchronized (lru) { if (epoch == e) store(p, a, null); }
+        return a;
+    }
+
+    Listing list(Path dir) throws IOException {
+        if (!cacheable(dir) && !dir.equals(root)) return loadListing(dir);
+        long e;
+        synchronized (lru) {
+            Entry en = lru.get(dir);
+            if (en != null && en.listing != null) { hits.increment(); return en.listing; }
+            e = epoch;
+        }
+        misses.increment();
+        if (!watch(dir)) return loadListing(dir);
+        Listing l = loadListing(dir);
+        synchronized (lru) { if (epoch == e) store(dir, null, l); }
+        return l;
+    }
+
+    // ---------- Invalidation ----------
+
+    // Le chemin a été créé / modifié / supprimé : oublie ses attributs et le contenu de son dossier parent
+    void invalidate(Path p) {
+        synchronized (lru) {
+            epoch++;
+            remove(p);
+            if (p.getParent() != null) remove(p.getParent());
+        }
+        invalidations.increment();
+    }
+
+    // Dossier supprimé ou rempli d'un coup (DELETE, MUPLOAD) : tout ce qui est dessous aussi
+    void invalidateTree(Path p) {
+        synchronized (lru) {
+            epoch++;
+            Iterator<Map.Entry<Path, Entry>> it = lru.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Path, Entry> en = it.next();
+                if (en.getKey().startsWith(p)) { weight -= en.getValue().weight(); it.remove(); }
+            }
+            if (p.getParent() != null) remove(p.getParent());
+        }
+        invalidations.increment();
+    }
+
+    void clear() {
+        synchronized (lru) { epoch++; lru.clear(); weight = 0; }
+        invalidations.increment();
+    }
+
+    int size() { synchronized (lru) { return lru.size(); } }
+    long weight() { synchronized (lru) { return weight; } }
+
+    // ---------- Surveillance (changements faits hors du serveur) ----------
+
+    private boolean watch(Path dir) {
+        if (dir == null) return false;
+        WatchKey old = watchedDirs.get(dir);
+        if (old != null && old.isValid()) return true;
+        try {
+            WatchKey k = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            watched.put(k, dir);
+            watchedDirs.put(dir, k);
+            return true;
+        } catch (IOException e) {
+            return false;                              // dossier absent ou limite de surveillances : pas de cache
+        }
+    }
+
+    private void watchLoop() {
+        while (true) {
+            WatchKey k;
+            try { k = watcher.take(); }
+            catch (InterruptedException | ClosedWatchServiceException e) { return; }
+            Path dir = watched.get(k);
+            for (WatchEvent<?> ev : k.pollEvents()) {
+                if (ev.kind() == StandardWatchEventKinds.OVERFLOW) { clear(); continue; }
+                if (dir == null) continue;
+                Path child = dir.resolve((Path) ev.context());
+                if (ClientHandler.isInternal(child)) continue;    // partiels d'upload, index : invisibles dans LS
+                invalidate(child);                     // dossier supprimé : son contenu part avec sa propre clé (reset)
+            }
+            if (!k.reset()) {                          // dossier supprimé (ou démonté)
+                watched.remove(k);
+                if (dir != null) { watchedDirs.remove(dir, k); invalidateTree(dir); }
+            }
+        }
+    }
+
+    // ---------- Interne ----------
+
+    private boolean cacheable(Path p) {
+        return maxWeight > 0 && p.startsWith(root) && !p.equals(root);
+    }
+
+    private void store(Path p, Attrs a, Listing l) {
+        Entry en = lru.get(p);
+        if (en == null) lru.put(p, en = new Entry());
+        weight -= en.weight();
+        if (a != null) en.attrs = a;
+        if (l != null) en.listing = l;
+        weight += en.weight();
+        trim();
+    }
+
+    private void remove(Path p) {
+        Entry en = lru.remove(p);
+        if (en != null) weight -= en.weight();
+    }
+
+    // Évince les entrées les moins récemment utilisées au-delà du budget
+    private void trim() {
+        Iterator<Entry> it = lru.values().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            weight -= it.next().weight();
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    private static Attrs loadAttrs(Path p) throws IOException {
+        try {
+            BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class);
+            return new Attrs(true, a.isDirectory(), a.size(), a.lastModifiedTime().toMillis());
+        } catch (NoSuchFileException e) {
+            return Attrs.ABSENT;
+        }
+    }
+
+    private static Listing loadListing(Path dir) throws IOException {
+        List<String> dirs = new ArrayList<>(), files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) if (!ClientHandler.isInternal(p)) (Files.isDirectory(p) ? dirs : files).add(p.getFileName().toString());
+        }
+        dirs.sort(String.CASE_INSENSITIVE_ORDER);
+        files.sort(String.CASE_INSENSITIVE_ORDER);
+        return new Listing(dirs.toArray(new String[0]), files.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,245 @@
+// Metrics.java — compteurs du serveur : par commande (nb, erreurs, octets reçus/envoyés, latences) + sessions
+// Alimenté par ClientHandler (autour de chaque commande) et NioServeur ; lu par la commande STATS et par
+// l'export HTTP au format texte Prometheus (-Dserveur.metricsPort, écoute sur 127.0.0.1 uniquement).
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+public final class Metrics {
+    private Metrics() {}
+
+    // Statistiques d'une commande (LS, CD, UPLOAD_RESUME, ...)
+    static final class Op {
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final Histogram latency = new Histogram();     // nanosecondes
+    }
+
+    private static final ConcurrentHashMap<String, Op> ops = new ConcurrentHashMap<>();
+    static final AtomicInteger activeSessions = new AtomicInteger();
+    static final LongAdder totalSessions = new LongAdder();
+    // Threads qui exécutent les sessions (pool, threads virtuels ou event loops) : fourni par Serveur
+    static volatile IntSupplier handlerThreads = () -> 0;
+
+    static void record(String op, long nanos, long bytesIn, long bytesOut, boolean error) {
+        Op o = ops.computeIfAbsent(op, k -> new Op());
+        o.count.increment();
+        if (error) o.errors.increment();
+        o.bytesIn.add(bytesIn);
+        o.bytesOut.add(bytesOut);
+        o.latency.record(nanos);
+    }
+
+    static void sessionOpened() { activeSessions.incrementAndGet(); totalSessions.increment(); }
+    static void sessionClosed() { activeSessions.decrementAndGet(); }
+
+    // ---------- STATS : une ligne par commande, lisible dans le client ----------
+
+    static List<String> report() {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format(Locale.ROOT, "sessions actives=%d total=%d threads=%d",
+                activeSessions.get(), totalSessions.sum(), handlerThreads.getAsInt()));
+        MetadataCache m = ClientHandler.meta;
+        lines.add(String.format(Locale.ROOT, "cache métadonnées entrées=%d poids=%d hits=%d misses=%d invalidations=%d évictions=%d",
+                m.size(), m.weight(), m.hits.sum(), m.misses.sum(), m.invalidations.sum(), m.evictions.sum()));
+        ContentCache c = ClientHandler.contents;
+        lines.add(String.format(Locale.ROOT, "cache contenus fichiers=%d octets=%d/%d hits=%d misses=%d admis=%d refusés=%d",
+                c.size(), c.used(), c.budget(), c.hits.sum(), c.misses.sum(), c.admitted.sum(), c.rejected.sum()));
+        NameIndex n = ClientHandler.names;
+        lines.add(String.format(Locale.ROOT, "index des noms entrées=%d dossiers=%d %s mises à jour=%d recherches=%d",
+                n.size(), n.directories(), !n.enabled() ? "désactivé" : n.ready() ? "construit en " + n.buildMillis + " ms" : "en construction",
+                n.updates.sum(), n.queries.sum()));
+        ReplicationLog rl = ClientHandler.replication;
+        for (Replicator r : rl.replicas())
+            lines.add(String.format(Locale.ROOT, "réplica %s %s retard=%d enr. (%.1f s) envoyé=%d requêtes=%d erreurs=%d reconnexions=%d resync=%d",
+                    r.name, r.connected ? "connecté" : "déconnecté", r.lagRecords(), r.lagSeconds(), r.sentBytes.sum(),
+                    r.requests.sum(), r.errors.sum(), r.reconnects.sum(), r.resyncs.sum()));
+        PathLocks l = ClientHandler.locks, u = ClientHandler.uploads;
+        lines.add(String.format(Locale.ROOT, "verrous chemins=%d attentes=%d partiels=%d attentes=%d refusés=%d (%d verrous)",
+                l.acquired.sum(), l.contended.sum(), u.acquired.sum(), u.contended.sum(), u.refused.sum(), l.stripes()));
+        lines.add(String.format(Locale.ROOT, "débit corps global=%s session=%s attentes=%d (%.1f s)",
+                kbs(RateLimiter.GLOBAL.rate()), kbs(RateLimiter.SESSION_RATE), RateLimiter.throttled.sum(), RateLimiter.throttledNanos.sum() / 1e9));
+        lines.add(String.format(Locale.ROOT, "%-16s %8s %6s %12s %12s %9s %9s %9s %9s",
+                "op", "nb", "err", "reçu", "envoyé", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+        for (Map.Entry<String, Op> e : new TreeMap<>(ops).entrySet()) {
+            Op o = e.getValue();
+            Histogram h = o.latency;
+            lines.add(String.format(Locale.ROOT, "%-16s %8d %6d %12d %12d %9.3f %9.3f %9.3f %9.3f",
+                    e.getKey(), o.count.sum(), o.errors.sum(), o.bytesIn.sum(), o.bytesOut.sum(),
+                    h.percentile(0.50) / 1e6, h.percentile(0.99) / 1e6, h.percentile(0.999) / 1e6, h.max() / 1e6));
+        }
+        return lines;
+    }
+
+    // ---------- Export Prometheus (format texte 0.0.4) ----------
+
+    static String prometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        Map<String, Op> snapshot = new TreeMap<>(ops);
+        counter(sb, "fileserver_ops_total", "Commandes traitées", snapshot, o -> o.count.sum());
+        counter(sb, "fileserver_op_errors_total", "Commandes terminées en erreur", snapshot, o -> o.errors.sum());
+        counter(sb, "fileserver_op_received_bytes_total", "Octets reçus du client (commande + corps)", snapshot, o -> o.bytesIn.sum());
+        counter(sb, "fileserver_op_sent_bytes_total", "Octets envoyés au client (réponse + corps)", snapshot, o -> o.bytesOut.sum());
+        sb.append("# HELP fileserver_op_latency_seconds Durée de traitement d'une commande\n");
+        sb.append("# TYPE fileserver_op_latency_seconds summary\n");
+        for (Map.Entry<String, Op> e : snapshot.entrySet()) {
+            Histogram h = e.getValue().latency;
+            for (double q : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+                sb.append("fileserver_op_latency_seconds{op=\"").append(e.getKey()).append("\",quantile=\"").append(q).append("\"} ")
+                  .append(seconds(h.percentile(q))).append('\n');
+            }
+            sb.append("fileserver_op_latency_seconds_sum{op=\"").append(e.getKey()).append("\"} ").append(seconds(h.sum())).append('\n');
+            sb.append("fileserver_op_latency_seconds_count{op=\"").append(e.getKey()).append("\"} ").append(h.count()).append('\n');
+        }
+        sb.append("# HELP fileserver_sessions_active Sessions ouvertes\n# TYPE fileserver_sessions_active gauge\n");
+        sb.append("fileserver_sessions_active ").append(activeSessions.get()).append('\n');
+        sb.append("# HELP fileserver_sessions_total Sessions acceptées depuis le démarrage\n# TYPE fileserver_sessions_total counter\n");
+        sb.append("fileserver_sessions_total ").append(totalSessions.sum()).append('\n');
+        sb.append("# HELP fileserver_handler_threads Threads qui exécutent les sessions\n# TYPE fileserver_handler_threads gauge\n");
+        sb.append("fileserver_handler_threads ").append(handlerThreads.getAsInt()).append('\n');
+        MetadataCache m = ClientHandler.meta;
+        sb.append("# HELP fileserver_metadata_cache_requests_total Lectures du cache des métadonnées (listages, attributs)\n");
+        sb.append("# TYPE fileserver_metadata_cache_requests_total counter\n");
+        sb.append("fileserver_metadata_cache_requests_total{result=\"hit\"} ").append(m.hits.sum()).append('\n');
+        sb.append("fileserver_metadata_cache_requests_total{result=\"miss\"} ").append(m.misses.sum()).append('\n');
+        sb.append("# HELP fileserver_metadata_cache_invalidations_total Invalidations (commandes du serveur et surveillance de storage/)\n");
+        sb.append("# TYPE fileserver_metadata_cache_invalidations_total counter\n");
+        sb.append("fileserver_metadata_cache_invalidations_total ").append(m.invalidations.sum()).append('\n');
+        sb.append("# HELP fileserver_metadata_cache_evictions_total Entrées évincées (LRU)\n# TYPE fileserver_metadata_cache_evictions_total counter\n");
+        sb.append("fileserver_metadata_cache_evictions_total ").append(m.evictions.sum()).append('\n');
+        sb.append("# HELP fileserver_metadata_cache_entries Chemins en cache\n# TYPE fileserver_metadata_cache_entries gauge\n");
+        sb.append("fileserver_metadata_cache_entries ").append(m.size()).append('\n');
+        ContentCache c = ClientHandler.contents;
+        sb.append("# HELP fileserver_content_cache_requests_total DOWNLOAD de petits fichiers vus par le cache des contenus\n");
+        sb.append("# TYPE fileserver_content_cache_requests_total counter\n");
+        sb.append("fileserver_content_cache_requests_total{result=\"hit\"} ").append(c.hits.sum()).append('\n');
+        sb.append("fileserver_content_cache_requests_total{result=\"miss\"} ").append(c.misses.sum()).append('\n');
+        sb.append("# HELP fileserver_content_cache_admissions_total Fichiers admis / refusés (fréquence insuffisante)\n");
+        sb.append("# TYPE fileserver_content_cache_admissions_total counter\n");
+        sb.append("fileserver_content_cache_admissions_total{result=\"admitted\"} ").append(c.admitted.sum()).append('\n');
+        sb.append("fileserver_content_cache_admissions_total{result=\"rejected\"} ").append(c.rejected.sum()).append('\n');
+        sb.append("# HELP fileserver_content_cache_bytes Octets en cache (hors tas)\n# TYPE fileserver_content_cache_bytes gauge\n");
+        sb.append("fileserver_content_cache_bytes ").append(c.used()).append('\n');
+        NameIndex n = ClientHandler.names;
+        sb.append("# HELP fileserver_name_index_entries Entrées de l'index des noms (FIND)\n# TYPE fileserver_name_index_entries gauge\n");
+        sb.append("fileserver_name_index_entries ").append(n.size()).append('\n');
+        sb.append("# HELP fileserver_name_index_updates_total Chemins relus après une modification faite par le serveur\n");
+        sb.append("# TYPE fileserver_name_index_updates_total counter\n");
+        sb.append("fileserver_name_index_updates_total ").append(n.updates.sum()).append('\n');
+        List<Replicator> replicas = ClientHandler.replication.replicas();
+        if (!replicas.isEmpty()) {
+            sb.append("# HELP fileserver_replication_log_records Dernier n° du journal de réplication\n# TYPE fileserver_replication_log_records counter\n");
+            sb.append("fileserver_replication_log_records ").append(ClientHandler.replication.last()).append('\n');
+            sb.append("# HELP fileserver_replication_lag_records Enregistrements du journal pas encore acquittés par le suiveur\n");
+            sb.append("# TYPE fileserver_replication_lag_records gauge\n");
+            for (Replicator r : replicas) sb.append("fileserver_replication_lag_records{replica=\"").append(r.name).append("\"} ").append(r.lagRecords()).append('\n');
+            sb.append("# HELP fileserver_replication_lag_seconds Âge du plus ancien enregistrement pas encore acquitté\n");
+            sb.append("# TYPE fileserver_replication_lag_seconds gauge\n");
+            for (Replicator r : replicas) sb.append("fileserver_replication_lag_seconds{replica=\"").append(r.name).append("\"} ").append(r.lagSeconds()).append('\n');
+            sb.append("# HELP fileserver_replication_connected 1 si la connexion au suiveur est ouverte\n# TYPE fileserver_replication_connected gauge\n");
+            for (Replicator r : replicas) sb.append("fileserver_replication_connected{replica=\"").append(r.name).append("\"} ").append(r.connected ? 1 : 0).append('\n');
+            sb.append("# HELP fileserver_replication_sent_bytes_total Octets de fichiers envoyés au suiveur\n# TYPE fileserver_replication_sent_bytes_total counter\n");
+            for (Replicator r : replicas) sb.append("fileserver_replication_sent_bytes_total{replica=\"").append(r.name).append("\"} ").append(r.sentBytes.sum()).append('\n');
+            sb.append("# HELP fileserver_replication_reconnects_total Tentatives de reconnexion au suiveur\n# TYPE fileserver_replication_reconnects_total counter\n");
+            for (Replicator r : replicas) sb.append("fileserver_replication_reconnects_total{replica=\"").append(r.name).append("\"} ").append(r.reconnects.sum()).append('\n');
+        }
+        sb.append("# HELP fileserver_path_locks_total Verrous par chemin obtenus (kind=path : storage/, part : fichiers partiels)\n");
+        sb.append("# TYPE fileserver_path_locks_total counter\n");
+        sb.append("fileserver_path_locks_total{kind=\"path\"} ").append(ClientHandler.locks.acquired.sum()).append('\n');
+        sb.append("fileserver_path_locks_total{kind=\"part\"} ").append(ClientHandler.uploads.acquired.sum()).append('\n');
+        sb.append("# HELP fileserver_path_lock_waits_total Verrous obtenus après attente (chemin déjà pris par une autre session)\n");
+        sb.append("# TYPE fileserver_path_lock_waits_total counter\n");
+        sb.append("fileserver_path_lock_waits_total{kind=\"path\"} ").append(ClientHandler.locks.contended.sum()).append('\n');
+        sb.append("fileserver_path_lock_waits_total{kind=\"part\"} ").append(ClientHandler.uploads.contended.sum()).append('\n');
+        sb.append("# HELP fileserver_path_lock_refusals_total UPLOAD refusés par le moteur nio (même partiel déjà en cours)\n");
+        sb.append("# TYPE fileserver_path_lock_refusals_total counter\n");
+        sb.append("fileserver_path_lock_refusals_total ").append(ClientHandler.uploads.refused.sum()).append('\n');
+        sb.append("# HELP fileserver_rate_limit_waits_total Pauses imposées aux transferts par la limitation de débit\n");
+        sb.append("# TYPE fileserver_rate_limit_waits_total counter\n");
+        sb.append("fileserver_rate_limit_waits_total ").append(RateLimiter.throttled.sum()).append('\n');
+        sb.append("# HELP fileserver_rate_limit_wait_seconds_total Durée cumulée de ces pauses\n");
+        sb.append("# TYPE fileserver_rate_limit_wait_seconds_total counter\n");
+        sb.append("fileserver_rate_limit_wait_seconds_total ").append(seconds(RateLimiter.throttledNanos.sum())).append('\n');
+        return sb.toString();
+    }
+
+    private static String kbs(long bytesPerSecond) {
+        return bytesPerSecond <= 0 ? "illimité" : bytesPerSecond / 1024 + "Ko/s";
+    }
+
+    private interface OpValue { long of(Op o); }
+
+    private static void counter(StringBuilder sb, String name, String help, Map<String, Op> ops, OpValue v) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        for (Map.Entry<String, Op> e : ops.entrySet())
+            sb.append(name).append("{op=\"").append(e.getKey()).append("\"} ").append(v.of(e.getValue())).append('\n');
+    }
+
+    private static String seconds(long nanos) { return String.format(Locale.ROOT, "%.9f", nanos / 1e9); }
+
+    // GET http://127.0.0.1:<port>/metrics
+    static HttpServer startHttp(int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        http.createContext("/metrics", ex -> {
+            byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+        });
+        http.start();
+        return http;
+    }
+
+    // ---------- Comptage des octets d'une session (au-dessus des tampons : attribués à la bonne commande) ----------
+
+    static final class CountingInputStream extends FilterInputStream {
+        long count;
+        CountingInputStream(InputStream in) { super(in); }
+        @Override public int read() throws IOException { int b = in.read(); if (b >= 0) count++; return b; }
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            int r = in.read(b, off, len);
+            if (r > 0) count += r;
+            return r;
+        }
+        @Override public long skip(long n) throws IOException { long k = in.skip(n); count += k; return k; }
+    }
+
+    // Repère aussi les réponses d'erreur : writeUTF écrit chaque trame d'un seul bloc [longueur][texte],
+    // donc une trame dont le texte commence par "ERR" ou "xxx_ERR" marque la commande en erreur
+    static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+        boolean error;
+        CountingOutputStream(OutputStream out) { super(out); }
+        @Override public void write(int b) throws IOException { out.write(b); count++; }
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            if (!error && len >= 5 && ((b[off] & 0xFF) << 8 | (b[off + 1] & 0xFF)) == len - 2) error = isErrorText(b, off + 2, len - 2);
+            out.write(b, off, len);
+            count += len;
+        }
+        void sent(long n) { count += n; }              // octets partis sans passer par le flux (zéro-copie)
+
+        private static boolean isErrorText(byte[] b, int off, int len) {
+            int end = off + Math.min(len, 12);
+            for (int i = off; i + 3 <= end; i++) {
+                if (b[i] == 'E' && b[i + 1] == 'R' && b[i + 2] == 'R' && (i == off || b[i - 1] == '_')) return true;
+                if (b[i] == ' ') return false;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,829 @@
+// NioServeur.java — moteur non bloquant (Selector) : quelques threads "event loop" servent toutes les sessions
+// Même protocole que ClientHandler (UTF DataOutputStream + octets bruts), décodé au fil de l'eau depuis des ByteBuffer.
+// Une session inactive ne coûte ni thread ni tampon : seul l'état (cwd, octets d'une trame incomplète) est gardé.
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class NioServeur {
+    private final ServerSocketChannel listener;
+    private final EventLoop[] loops;
+
+    public NioServeur(ServerSocketChannel listener, int nLoops) throws IOException {
+        this.listener = listener;
+        this.loops = new EventLoop[Math.max(1, nLoops)];
+        for (int i = 0; i < loops.length; i++) loops[i] = new EventLoop(i);
+    }
+
+    // Boucle d'acceptation (thread appelant) : accept bloquant puis répartition round-robin sur les event loops
+    public void run() throws IOException {
+        for (EventLoop l : loops) l.start();
+        System.out.println("Moteur NIO : " + loops.length + " event loop(s)");
+        int clientNumber = 0;
+        while (true) {
+            SocketChannel ch = listener.accept();     // bloquant
+            ch.configureBlocking(false);
+            ch.socket().setTcpNoDelay(true);
+            loops[clientNumber % loops.length].register(new Session(ch, clientNumber++));
+        }
+    }
+
+    // Arrêt : ferme toutes les sessions (appelé par le shutdown hook)
+    public void stop() {
+        for (EventLoop l : loops) l.shutdown();
+    }
+
+    // Octets de corps envoyés au plus par une session à chaque tour de la loop : les autres sessions (commandes
+    // courtes comprises) passent entre deux tranches d'un gros DOWNLOAD
+    static final int QUANTUM = 512 * 1024;
+
+    // Hachages complets qui ne peuvent pas se faire au fil du transfert (DOWNLOAD_RANGE d'un fichier absent de l'index
+    // des empreintes, début déjà reçu d'un UPLOAD repris) : faits hors des loops, la session reprend ensuite sur sa loop
+    private static final ExecutorService HASHERS = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2), r -> {
+                Thread t = new Thread(r, "nio-hash"); t.setDaemon(true); return t;
+            });
+
+    // Commandes qui modifient storage/ (verrou d'écriture à attendre, DELETE récursif, mise en place d'un UPLOAD) et
+    // DOWNLOAD d'un chemin en cours d'écriture : exécutés ici, la réponse est rendue à la loop de la session
+    private static final ExecutorService WORKERS = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread t = new Thread(r, "nio-work"); t.setDaemon(true); return t;
+            });
+
+    // Travail d'une commande hors loop : écrit sa réponse dans 'out'
+    interface Work { void run(DataOutputStream out) throws IOException; }
+
+    // ====== Event loop : 1 thread + 1 Selector pour N sessions ======
+    static final class EventLoop extends Thread {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Session> pending = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();   // venues d'autres threads
+        private final ArrayList<Session> paused = new ArrayList<>();   // débit épuisé, en attente (thread de la loop)
+        private final ByteBuffer readBuf = ByteBuffer.allocateDirect(128 * 1024); // partagé par toutes les sessions de la loop
+        private volatile boolean running = true;
+
+        EventLoop(int id) throws IOException {
+            super("nio-loop-" + id);
+            this.selector = Selector.open();
+        }
+
+        void register(Session s) { s.loop = this; pending.add(s); selector.wakeup(); }
+
+        // Exécute 'r' sur le thread de la loop (suite d'un travail fait ailleurs)
+        void execute(Runnable r) { tasks.add(r); selector.wakeup(); }
+
+        // Session au débit épuisé (RateLimiter) : plus aucun événement pendant 'nanos', puis reprise
+        void pause(Session s, long nanos) {
+            s.resumeAt = System.nanoTime() + nanos;
+            s.key.interestOps(0);
+            paused.add(s);
+        }
+
+        // Attente maximale du select : jusqu'à la prochaine reprise (0 = aucune session en pause)
+        private long timeoutMillis() {
+            long next = Long.MAX_VALUE;
+            for (Session s : paused) next = Math.min(next, s.resumeAt);
+            return next == Long.MAX_VALUE ? 0 : Math.max(1, (next - System.nanoTime() + 999_999) / 1_000_000);
+        }
+
+        private void resumeDue() {
+            long now = System.nanoTime();
+            for (Iterator<Session> it = paused.iterator(); it.hasNext(); ) {
+                Session s = it.next();
+                if (s.resumeAt - now > 0) continue;
+                it.remove();
+                s.resumeAt = 0;
+                if (s.key.isValid()) s.key.interestOps(s.wanted);
+            }
+        }
+
+        void shutdown() { running = false; selector.wakeup(); }
+
+        @Override public void run() {
+            try {
+                while (running) {
+                    selector.select(timeoutMillis());
+                    if (!paused.isEmpty()) resumeDue();
+                    Session s;
+                    while ((s = pending.poll()) != null) s.attach(selector);
+                    for (Runnable r; (r = tasks.poll()) != null; ) r.run();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey k = it.next();
+                        it.remove();
+                        Session ss = (Session) k.attachment();
+                        try {
+                            if (k.isValid() && k.isWritable()) ss.onWritable();
+                            if (k.isValid() && k.isReadable()) ss.onReadable(readBuf);
+                        } catch (IOException e) {
+                            Serveur.log("Error handling client# " + ss.clientNumber + ": " + e);
+                            ss.close();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Erreur event loop " + getName() + ": " + e.getMessage());
+            } finally {
+                for (SelectionKey k : selector.keys()) ((Session) k.attachment()).close();
+                try { selector.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    // ====== Session : état d'UN client (cwd via ClientHandler, trame partielle, transfert en cours) ======
+    static final class Session {
+        private final SocketChannel ch;
+        private final Socket socket;
+        final int clientNumber;
+        private final ClientHandler cmds;              // porte le cwd + LS/CD/MKDIR/DELETE
+        private SelectionKey key;
+        private EventLoop loop;
+        private int wanted = SelectionKey.OP_READ;     // événements attendus (appliqués hors pause)
+        private long resumeAt;                         // != 0 : en pause jusqu'à cet instant (débit limité)
+        private long allowance;                        // octets de corps déjà réservés auprès du RateLimiter
+
+        private ByteBuffer partial;                    // octets d'une trame incomplète (null si aucun)
+        private final ArrayDeque<ByteBuffer> outQ = new ArrayDeque<>();
+        private final ByteArrayOutputStream bout = new ByteArrayOutputStream(256);
+        private final Metrics.CountingOutputStream rcount = new Metrics.CountingOutputStream(bout);
+        private final DataOutputStream reply = new DataOutputStream(rcount);
+        private boolean closeAfterWrite;
+
+        // UPLOAD en cours (réception du corps) : upMd != null ; upFile null → corps lu puis ignoré (upError)
+        private PartWriter upFile;
+        private PathLocks.Hold upHold;                 // partiel réservé jusqu'à la fin du corps
+        private String upError;
+        private long upRemaining, upSize;
+        private MessageDigest upMd, upSha;             // upSha : stockage cas, SHA-256 du blob dans la même passe
+        private String upName, upClientMd5;
+        private Path upTarget, upPart;
+        private long upOffset;
+        private boolean upHashing;                     // début du partiel (reprise) en cours de hachage (HASHERS)
+        private boolean working;                       // commande en cours dans WORKERS (réponse rendue par worked)
+        private int skipEntries;                       // manifeste MUPLOAD refusé : entrées restant à ignorer
+        private long skipBody;                         // UPLOAD_CHUNK refusé : octets du morceau restant à ignorer
+
+        // DOWNLOAD / DOWNLOAD_RANGE en cours (envoi du corps = plage [downPos, downEnd) du fichier)
+        private FileChannel downFile;
+        private long downPos, downEnd, downLen, downSize;
+        private boolean downRange;
+        private MessageDigest downMd;                  // null → envoi zéro-copie
+        private String downName, downMd5;              // MD5 du fichier entier (index)
+        private Path downPath;
+        private BasicFileAttributes downAttrs;         // version envoyée : empreinte calculée au vol → index
+        private boolean downHashing;                   // empreinte du fichier entier en calcul (HASHERS)
+        private ByteBuffer downBuf;
+        private long downT0;
+
+        // Métriques de la commande en cours : terminée dans decodeCommand, ou à la fin du corps (UPLOAD / DOWNLOAD)
+        private String opName;
+        private long opT0, opIn, opOut, opOut0;
+
+        Session(SocketChannel ch, int clientNumber) {
+            Metrics.sessionOpened();
+            this.ch = ch;
+            this.socket = ch.socket();
+            this.clientNumber = clientNumber;
+            this.cmds = new ClientHandler(socket, clientNumber);
+        }
+
+        void attach(Selector sel) {
+            try {
+                key = ch.register(sel, SelectionKey.OP_READ, this);
+                reply.writeUTF(ClientHandler.greeting(clientNumber));
+                reply.writeUTF("CWD: " + cmds.relPath());
+                send();
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        // ---------- Lecture : décode autant de trames complètes que possible ----------
+        void onReadable(ByteBuffer buf) throws IOException {
+            // Corps d'UPLOAD en cours : ne lit que ce que le débit permet (sinon pause, le client est freiné par TCP)
+            if (upMd != null && !permit(upRemaining)) return;
+            buf.clear();
+            if (partial != null) { buf.put(partial); partial = null; }
+            if (upMd != null && buf.remaining() > allowance) buf.limit((int) (buf.position() + allowance));
+            int r = ch.read(buf);
+            if (r == -1) { close(); return; }
+            if (upMd != null) allowance -= r;
+            buf.flip();
+            process(buf);
+            if (!ch.isOpen()) return;
+            if (buf.hasRemaining()) {                    // garde le reste (buf est partagé par la loop)
+                partial = ByteBuffer.allocate(buf.remaining());
+                partial.put(buf).flip();
+            }
+            flush();
+        }
+
+        // On s'arrête dès qu'une réponse est en attente : garde l'ordre des réponses et borne la mémoire
+        private void process(ByteBuffer b) throws IOException {
+            while (b.hasRemaining() && !busy() && !closeAfterWrite) {
+                if (upMd != null) { receiveUpload(b); continue; }
+                if (skipEntries > 0) { if (!skipManifestEntry(b)) break; continue; }
+                if (skipBody > 0) { int n = (int) Math.min(b.remaining(), skipBody); b.position(b.position() + n); skipBody -= n; continue; }
+                int start = b.position();
+                if (!decodeCommand(b)) { b.position(start); break; } // trame incomplète
+            }
+        }
+
+        private boolean busy() { return !outQ.isEmpty() || downFile != null || upHashing || working; }
+
+        // Retourne false si la commande n'est pas encore complète dans le tampon
+        private boolean decodeCommand(ByteBuffer b) throws IOException {
+            int start = b.position();
+            String op = readUtf(b);
+            if (op == null) return false;
+            beginOp(op);
+            switch (op) {
+                case "EXIT": {
+                    reply.writeUTF("Bye!");
+                    send();
+                    endOp();
+                    Serveur.log(socket, "exit");
+                    closeAfterWrite = true;
+                    return true;
+                }
+                case "LS": { cmds.handleLs(reply); break; }
+                case "INTEGRITY": { String a = readUtf(b); if (a == null) return false; cmds.handleIntegrity(reply, a); break; }
+                case "STATS": { cmds.handleStats(reply); break; }
+                case "FIND": {                             // réponse complète dans 'reply' (bornée par FIND_MAX)
+                    String glob = readUtf(b);
+                    if (glob == null || b.remaining() < 20) return false;
+                    long min = b.getLong(), max = b.getLong();
+                    cmds.handleFind(reply, glob, min, max, b.getInt());
+                    break;
+                }
+                case "LS_PAGE": {                          // page complète dans 'reply' (bornée par LS_PAGE_MAX)
+                    String cursor = readUtf(b);
+                    if (cursor == null || b.remaining() < 4) return false;
+                    int pageSize = b.getInt();
+                    String glob = readUtf(b);
+                    if (glob == null) return false;
+                    cmds.handleLsPage(reply, cursor, pageSize, glob);
+                    break;
+                }
+                case "CD":    { String a = readUtf(b); if (a == null) return false; cmds.handleCd(reply, a); break; }
+                case "MKDIR": { String a = readUtf(b); if (a == null) return false; offload(o -> cmds.handleMkdir(o, a)); break; }
+                case "DELETE":{ String a = readUtf(b); if (a == null) return false; offload(o -> cmds.handleDelete(o, a)); break; }
+                case "UPLOAD":
+                case "UPLOAD_RESUME": {
+                    String name = readUtf(b);
+                    if (name == null || b.remaining() < 8) return false;
+                    long size = b.getLong();
+                    String md5 = readUtf(b);
+                    if (md5 == null) return false;
+                    startUpload(name, size, md5, op.equals("UPLOAD_RESUME"));
+                    break;
+                }
+                case "UPLOAD_HASH": {
+                    String name = readUtf(b);
+                    if (name == null || b.remaining() < 8) return false;
+                    long size = b.getLong();
+                    String md5 = readUtf(b), sha = md5 == null ? null : readUtf(b);
+                    if (sha == null) return false;
+                    offload(o -> cmds.handleUploadHash(o, name, size, md5, sha));
+                    break;
+                }
+                case "DOWNLOAD": { String a = readUtf(b); if (a == null) return false; startDownload(a, false, 0, -1); break; }
+                case "DOWNLOAD_RANGE": {
+                    String a = readUtf(b);
+                    if (a == null || b.remaining() < 16) return false;
+                    long offset = b.getLong(), length = b.getLong();
+                    startDownload(a, true, offset, length);
+                    break;
+                }
+                // Pas de compression dans ce moteur : on consomme l'algo proposé et on refuse (le client reste en brut)
+                case "COMPRESS": { String a = readUtf(b); if (a == null) return false; reply.writeUTF("COMPRESS_NONE"); break; }
+                case "MDELETE": { String a = readUtf(b); if (a == null) return false; offload(o -> cmds.handleMdelete(o, a)); break; }
+                // Transferts par lot : pas de machine à états ici, on consomme la requête et on refuse proprement
+                // (le client n'envoie les corps qu'après MUPLOAD_OK)
+                case "MDOWNLOAD": { String a = readUtf(b); if (a == null) return false; reply.writeUTF("ERR mdownload: non supporté par le moteur nio"); break; }
+                case "MUPLOAD": {
+                    String a = readUtf(b);
+                    if (a == null || b.remaining() < 4) return false;
+                    skipEntries = b.getInt();
+                    reply.writeUTF("ERR mupload: non supporté par le moteur nio");
+                    if (skipEntries < 0 || skipEntries > ClientHandler.MUPLOAD_MAX) { skipEntries = 0; closeAfterWrite = true; }
+                    break;
+                }
+                // Envoi différentiel (Delta) : pas de signature ici, le client fait alors un UPLOAD complet
+                case "SIGNATURE": {
+                    String a = readUtf(b); if (a == null) return false;
+                    reply.writeLong(-1L); reply.writeUTF("ERR signature: non supporté par le moteur nio");
+                    break;
+                }
+                case "UPLOAD_DELTA": {                   // instructions de longueur inconnue : session terminée
+                    String a = readUtf(b);
+                    if (a == null || b.remaining() < 12) return false;
+                    b.position(b.position() + 12);
+                    reply.writeUTF("UPLOAD_ERR delta: non supporté par le moteur nio");
+                    closeAfterWrite = true;
+                    break;
+                }
+                // Upload parallèle : pas de fichier de morceaux ici, le client s'arrête au refus d'UPLOAD_PARALLEL
+                // (arguments et corps d'un morceau tout de même consommés : la session reste synchronisée)
+                case "UPLOAD_PARALLEL":
+                case "UPLOAD_COMMIT": {
+                    String name = readUtf(b);
+                    if (name == null || b.remaining() < 8) return false;
+                    b.getLong();
+                    if (readUtf(b) == null) return false;
+                    reply.writeUTF(op.equals("UPLOAD_PARALLEL") ? "ERR upload parallèle: non supporté par le moteur nio"
+                                                                : "UPLOAD_ERR upload parallèle non ouvert");
+                    break;
+                }
+                case "UPLOAD_CHUNK": {
+                    String name = readUtf(b);
+                    if (name == null || b.remaining() < 8) return false;
+                    b.getLong();
+                    if (readUtf(b) == null || b.remaining() < 16) return false;
+                    b.getLong();
+                    long length = b.getLong();
+                    if (readUtf(b) == null) return false;
+                    skipBody = Math.max(0, length);
+                    reply.writeUTF("CHUNK_ERR upload parallèle non supporté par le moteur nio");
+                    break;
+                }
+                default: opName = "UNKNOWN"; reply.writeUTF("ERR Unknown command");
+            }
+            send();
+            opIn += b.position() - start;
+            if (upMd == null && downFile == null && !working) endOp();   // sinon : à la fin du corps / par worked
+            return true;
+        }
+
+        // Exécute 'w' dans WORKERS : la session ne lit plus la socket (busy) jusqu'à ce que sa réponse revienne
+        // sur la loop ; les verrous d'écriture et les suppressions récursives n'arrêtent ainsi jamais la loop
+        private void offload(Work w) {
+            working = true;
+            WORKERS.execute(() -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+                IOException err = null;
+                try { w.run(new DataOutputStream(out)); }
+                catch (IOException e) { err = e; }
+                catch (RuntimeException e) { err = new IOException(e); }
+                IOException failure = err;
+                loop.execute(() -> worked(out.toByteArray(), failure));
+            });
+        }
+
+        private void worked(byte[] r, IOException err) {
+            working = false;
+            if (!ch.isOpen()) return;                  // session fermée entre-temps
+            try {
+                if (err != null) throw err;
+                reply.write(r);                        // en une fois : une réponse d'erreur est reconnue par rcount
+                send();
+                endOp();
+                flush();
+            } catch (IOException e) {
+                Serveur.log("Error handling client# " + clientNumber + ": " + e);
+                close();
+            }
+        }
+
+        private void beginOp(String op) {
+            opName = op;
+            opT0 = System.nanoTime();
+            opIn = opOut = 0;
+            opOut0 = rcount.count;
+            rcount.error = false;
+        }
+
+        private void endOp() {
+            if (opName == null) return;
+            Metrics.record(opName, System.nanoTime() - opT0, opIn, rcount.count - opOut0 + opOut, rcount.error);
+            opName = null;
+        }
+
+        private boolean skipManifestEntry(ByteBuffer b) throws IOException {
+            int start = b.position();
+            if (readUtf(b) == null || b.remaining() < 8) { b.position(start); return false; }
+            b.getLong();
+            skipEntries--;
+            return true;
+        }
+
+        // ---------- UPLOAD / UPLOAD_RESUME : mêmes règles que ClientHandler.handleUpload (fichier partiel + renommage) ----------
+        private void startUpload(String remoteName, long size, String clientMd5, boolean resume) throws IOException {
+            String err = null;
+            if (remoteName.isEmpty()) err = "ERR upload: nom de fichier manquant";
+            else if (size < 0) err = "ERR upload: taille négative";
+            Path target = null;
+            if (err == null) {
+                remoteName = Paths.get(remoteName).getFileName().toString();
+                target = cmds.cwd.resolve(remoteName).normalize();
+                if (!cmds.inRoot(target)) err = "ERR upload: accès hors racine interdit";
+            }
+            if (err != null) {
+                if (resume) reply.writeLong(-1L);
+                reply.writeUTF(err);
+                return;
+            }
+
+            // Partiel réservé sans attendre (la loop ne se bloque pas sur une autre session) : s'il est déjà en cours
+            // d'envoi, le corps est lu puis ignoré et l'UPLOAD refusé (le moteur bloquant, lui, attend son tour)
+            Path part = ClientHandler.partFile(target, clientMd5);
+            upHold = ClientHandler.uploads.tryWrite(part);
+            upError = upHold == null ? "UPLOAD_ERR upload du même contenu déjà en cours" : null;
+            if (upError != null && resume) { reply.writeLong(-1L); reply.writeUTF(upError); upHold = null; return; }
+            long offset = 0;
+            if (upError == null && resume && Files.exists(part)) {
+                offset = Files.size(part);
+                if (offset > size) { Files.delete(part); offset = 0; }
+            }
+            if (resume) reply.writeLong(offset);
+
+            upMd = cmds.digest();
+            upSha = ClientHandler.blobs != null ? BlobStore.newSha256() : null;
+            if (upError == null) {
+                try {
+                    upFile = new PartWriter(part, offset);   // écrit par grands blocs
+                } catch (NoSuchFileException | FileNotFoundException e) {
+                    upError = "UPLOAD_ERR dossier cible supprimé pendant l'envoi";
+                }
+            }
+            upTarget = target; upPart = part; upOffset = offset;
+            upName = remoteName; upSize = size; upRemaining = size - offset; upClientMd5 = clientMd5;
+            if (offset > 0) { hashPrefix(); return; }
+            if (upRemaining == 0) finishUpload();
+        }
+
+        // Reprise : les octets déjà reçus entrent dans les empreintes avant le reste du corps. Lecture du partiel
+        // (jusqu'à plusieurs Go) par HASHERS ; la session ne lit plus la socket d'ici là (busy), puis reprend sur la loop
+        private void hashPrefix() {
+            upHashing = true;
+            MessageDigest md = upMd, sha = upSha;
+            Path part = upPart;
+            long len = upOffset;
+            HASHERS.execute(() -> {
+                IOException err = null;
+                try {
+                    ClientHandler.updateFromFile(md, part, len);
+                    if (sha != null) ClientHandler.updateFromFile(sha, part, len);
+                } catch (IOException e) {
+                    err = e;
+                }
+                IOException failure = err;
+                loop.execute(() -> prefixHashed(failure));
+            });
+        }
+
+        private void prefixHashed(IOException err) {
+            upHashing = false;
+            if (!ch.isOpen() || upMd == null) return;              // session fermée entre-temps
+            try {
+                if (err != null && upError == null) {        // corps lu puis ignoré, partiel laissé tel quel
+                    upError = "UPLOAD_ERR reprise: " + err.getMessage();
+                    if (upFile != null) { upFile.close(); upFile = null; }
+                }
+                if (upRemaining == 0) finishUpload();
+                flush();
+            } catch (IOException e) {
+                Serveur.log("Error handling client# " + clientNumber + ": " + e);
+                close();
+            }
+        }
+
+        private void receiveUpload(ByteBuffer b) throws IOException {
+            int n = (int) Math.min(b.remaining(), upRemaining);
+            ByteBuffer slice = b.duplicate();
+            slice.limit(slice.position() + n);
+            upMd.update(slice.duplicate());
+            if (upSha != null) upSha.update(slice.duplicate());
+            if (upFile != null) upFile.write(slice);
+            b.position(b.position() + n);
+            upRemaining -= n;
+            opIn += n;
+            if (upRemaining == 0) finishUpload();
+        }
+
+        // Corps reçu : partiel mis en place (verrou d'écriture de la cible) ou supprimé par WORKERS, puis rendu
+        private void finishUpload() {
+            String serverMd5 = ClientHandler.toHex(upMd.digest());
+            boolean match = serverMd5.equalsIgnoreCase(upClientMd5);
+            String sha256 = upSha != null ? ClientHandler.toHex(upSha.digest()) : null;
+            PartWriter file = upFile;
+            PathLocks.Hold hold = upHold;
+            String error = upError, name = upName, clientMd5 = upClientMd5, algo = cmds.integrity;
+            Path part = upPart, target = upTarget;
+            long size = upSize, offset = upOffset;
+            upMd = null; upSha = null; upFile = null; upHold = null;
+            allowance = 0;
+            offload(o -> {
+                String err = error;
+                try {
+                    if (file != null) file.close();
+                    if (err == null && !match) Files.deleteIfExists(part);
+                    else if (err == null && !ClientHandler.install(part, target, algo, serverMd5, sha256))
+                        err = "UPLOAD_ERR dossier cible supprimé pendant l'envoi";
+                } finally {
+                    if (hold != null) hold.close();
+                }
+                if (err != null) o.writeUTF(err);
+                else if (match) o.writeUTF("UPLOAD_OK " + name + " size=" + size + " " + algo + "=" + serverMd5);
+                else o.writeUTF("UPLOAD_ERR " + algo + "_mismatch client=" + clientMd5 + " server=" + serverMd5);
+                Serveur.log(socket, (offset > 0 ? "upload (reprise @" + offset + ") " : "upload ") + name + " size=" + size + " " + algo + "=" + serverMd5);
+            });
+        }
+
+        // ---------- DOWNLOAD / DOWNLOAD_RANGE : en-tête, corps envoyé quand la socket est prête, puis MD5 ----------
+        // range=false : [taille] octets [md5]           (zéro-copie possible, empreinte de l'index)
+        // range=true  : [total][n] octets [md5 plage][md5 fichier]
+        private void startDownload(String name, boolean range, long offset, long length) throws IOException {
+            if (name.isEmpty()) { reply.writeLong(-1L); reply.writeUTF("ERR download: argument manquant"); return; }
+            Path src = cmds.cwd.resolve(name).normalize();
+            if (!cmds.inRoot(src)) { serve(name, src, range, offset, length, new Source()); return; }
+            PathLocks.Hold h = ClientHandler.locks.tryRead(src);
+            if (h != null) { serve(name, src, range, offset, length, open(src, range, h)); return; }
+
+            // Chemin en cours d'écriture (mise en place d'un UPLOAD, DELETE...) : le verrou est attendu par WORKERS
+            working = true;
+            WORKERS.execute(() -> {
+                Source opened = null;
+                IOException err = null;
+                try { opened = open(src, range, ClientHandler.locks.read(src)); }
+                catch (IOException e) { err = e; }
+                catch (RuntimeException e) { err = new IOException(e); }
+                Source o = opened;
+                IOException failure = err;
+                loop.execute(() -> opened(name, src, range, offset, length, o, failure));
+            });
+        }
+
+        // Fichier à envoyer : contenu du cache, ou descripteur + attributs (+ empreinte si elle est dans l'index)
+        private static final class Source {
+            ContentCache.Body hot;
+            FileChannel fc;
+            String md5;
+            BasicFileAttributes attrs;
+        }
+
+        // Comme ClientHandler.handleDownload : empreinte et descripteur obtenus sous verrou de lecture ('h', rendu ici,
+        // jamais gardé d'une itération de la loop à l'autre), corps envoyé ensuite depuis le descripteur.
+        // Empreinte prise dans l'index seulement (jamais de hachage complet sur la loop) : absente, elle est
+        // calculée au fil de l'envoi (DOWNLOAD) ou par HASHERS avant l'envoi (DOWNLOAD_RANGE)
+        private Source open(Path src, boolean range, PathLocks.Hold h) throws IOException {
+            Source s = new Source();
+            try (PathLocks.Hold held = h) {
+                MetadataCache.Attrs a = ClientHandler.meta.attrs(src);
+                if (a.exists && !a.directory) {
+                    s.hot = ClientHandler.contents.get(src, a, cmds.integrity);
+                    if (s.hot == null) {
+                        s.fc = FileChannel.open(src, StandardOpenOption.READ);
+                        s.attrs = Files.readAttributes(src, BasicFileAttributes.class);
+                        if (range || ClientHandler.ZERO_COPY) s.md5 = ClientHandler.checksums(cmds.integrity).cached(src, s.attrs);
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // supprimé entre le cache des attributs et l'ouverture
+            } catch (IOException | RuntimeException e) {
+                if (s.fc != null) s.fc.close();
+                throw e;
+            }
+            return s;
+        }
+
+        // Retour de WORKERS (verrou attendu) : envoi comme si le verrou avait été libre
+        private void opened(String name, Path src, boolean range, long offset, long length, Source s, IOException err) {
+            working = false;
+            try {
+                if (!ch.isOpen()) { if (s != null && s.fc != null) s.fc.close(); return; }   // session fermée entre-temps
+                if (err != null) throw err;
+                serve(name, src, range, offset, length, s);
+                send();
+                if (downFile == null && !downHashing) endOp();
+                flush();
+            } catch (IOException e) {
+                Serveur.log("Error handling client# " + clientNumber + ": " + e);
+                close();
+            }
+        }
+
+        private void serve(String name, Path src, boolean range, long offset, long length, Source s) throws IOException {
+            ContentCache.Body hot = s.hot;
+            FileChannel fc = s.fc;
+            String md5 = s.md5;
+            BasicFileAttributes attrs = s.attrs;
+            if (hot == null && fc == null) {
+                reply.writeLong(-1L); reply.writeUTF("ERR download: fichier introuvable"); return;
+            }
+            long total = hot != null ? hot.size : fc.size();
+            if (range && (offset < 0 || offset > total)) {
+                if (fc != null) fc.close();
+                reply.writeLong(-1L); reply.writeUTF("ERR download: position hors du fichier (taille " + total + ")"); return;
+            }
+            if (!range) { offset = 0; length = -1; }
+            long n = (length < 0) ? total - offset : Math.min(length, total - offset);
+            if (hot != null) {                         // fichier chaud : les trames partent ensemble (flush groupé)
+                send();
+                for (ByteBuffer f : hot.frames(range, offset, n, cmds.integrity)) { opOut += f.remaining(); outQ.add(f); }
+                Serveur.log(socket, "download " + name + (range ? " n=" + n : "") + " size=" + total + " " + cmds.integrity + "=" + hot.digest(cmds.integrity) + " (cache)");
+                return;
+            }
+
+            downT0 = System.nanoTime();
+            downRange = range;
+            downMd5 = md5;
+            downFile = fc;
+            downPath = src; downAttrs = attrs;
+            downSize = total; downPos = offset; downEnd = offset + n; downLen = n;
+            downName = name;
+            if (range && md5 == null) { hashThenSend(); return; }
+            beginBody();
+        }
+
+        // En-tête puis corps (envoyé par pumpDownload quand la socket est prête)
+        private void beginBody() throws IOException {
+            if (downRange || downMd5 == null) {            // copie par tampon (MD5 de la plage / du fichier au vol)
+                downMd = cmds.digest();
+                downBuf = ByteBuffer.allocate(64 * 1024);
+                downBuf.flip();
+            }
+            reply.writeLong(downSize);
+            if (downRange) reply.writeLong(downLen);
+        }
+
+        // DOWNLOAD_RANGE sans empreinte du fichier entier dans l'index : calcul par HASHERS sur le descripteur déjà
+        // ouvert, la session n'avance plus (busy) ; puis en-tête et corps, de retour sur la loop
+        private void hashThenSend() {
+            downHashing = true;
+            FileChannel fc = downFile;
+            String algo = cmds.integrity;
+            HASHERS.execute(() -> {
+                String digest;
+                IOException err = null;
+                try { digest = ChecksumIndex.hash(fc, algo); }
+                catch (IOException e) { digest = null; err = e; }
+                String d = digest;
+                IOException failure = err;
+                loop.execute(() -> hashed(d, failure));
+            });
+        }
+
+        private void hashed(String digest, IOException err) {
+            downHashing = false;
+            if (!ch.isOpen() || downFile == null) return;           // session fermée entre-temps
+            try {
+                if (err != null) {
+                    downFile.close();
+                    downFile = null;
+                    reply.writeLong(-1L); reply.writeUTF("ERR download: " + err.getMessage());
+                    send();
+                    endOp();
+                } else {
+                    ClientHandler.checksums(cmds.integrity).put(downPath, downAttrs, digest);
+                    downMd5 = digest;
+                    beginBody();
+                    send();
+                }
+                flush();
+            } catch (IOException e) {
+                Serveur.log("Error handling client# " + clientNumber + ": " + e);
+                close();
+            }
+        }
+
+        // Remplit la socket tant qu'elle accepte ; rend la main dès qu'elle est pleine
+        // Au plus QUANTUM octets par appel (puis retour à la loop), et au débit permis (RateLimiter, pause sinon)
+        private void pumpDownload() throws IOException {
+            long quota = QUANTUM;
+            if (downMd == null) {                      // zéro-copie : transferTo renvoie 0 quand la socket est pleine
+                while (downPos < downEnd) {
+                    if (quota <= 0 || !permit(downEnd - downPos)) return;
+                    long n = downFile.transferTo(downPos, Math.min(Math.min(allowance, quota), downEnd - downPos), ch);
+                    if (n == 0) return;
+                    downPos += n; allowance -= n; quota -= n;
+                }
+                finishDownload();
+                return;
+            }
+            while (true) {
+                if (!downBuf.hasRemaining()) {
+                    if (downPos == downEnd) { finishDownload(); return; }
+                    if (quota <= 0 || !permit(downEnd - downPos)) return;
+                    downBuf.clear();
+                    long max = Math.min(allowance, downEnd - downPos);
+                    if (downBuf.remaining() > max) downBuf.limit((int) max);
+                    int r = downFile.read(downBuf, downPos);
+                    if (r == -1) throw new EOFException("Fichier tronqué pendant l'envoi");
+                    downBuf.flip();
+                    downMd.update(downBuf.duplicate());
+                    downPos += r; allowance -= r; quota -= r;
+                }
+                ch.write(downBuf);
+                if (downBuf.hasRemaining()) return;   // socket pleine : on attend OP_WRITE
+            }
+        }
+
+        private void finishDownload() throws IOException {
+            allowance = 0;
+            downFile.close();
+            downFile = null;
+            downBuf = null;
+            String bodyMd5 = downMd != null ? ClientHandler.toHex(downMd.digest()) : downMd5;
+            if (!downRange && downMd5 == null && downAttrs != null)      // fichier entier haché au vol : dans l'index
+                ClientHandler.checksums(cmds.integrity).put(downPath, downAttrs, bodyMd5);
+            downMd = null; downPath = null; downAttrs = null;
+            reply.writeUTF(bodyMd5);
+            if (downRange) reply.writeUTF(downMd5);
+            send();
+            long n = downLen;
+            opOut += n;
+            endOp();
+            Serveur.log(socket, "download " + downName + (downRange ? " n=" + n : "") + " size=" + downSize + " " + cmds.integrity + "="
+                    + (downRange ? downMd5 : bodyMd5) + " " + ClientHandler.throughput(n, downT0));
+        }
+
+        // ---------- Écriture ----------
+        // Transfère la réponse accumulée dans 'reply' vers la file d'envoi
+        private void send() {
+            if (bout.size() == 0) return;
+            outQ.add(ByteBuffer.wrap(bout.toByteArray()));
+            bout.reset();
+        }
+
+        void onWritable() throws IOException { flush(); }
+
+        // Vide la file d'envoi, pousse le corps d'un DOWNLOAD, puis reprend les commandes déjà reçues
+        private void flush() throws IOException {
+            while (true) {
+                if (!outQ.isEmpty()) {                    // une seule écriture groupée pour toute la file
+                    ch.write(outQ.toArray(new ByteBuffer[0]));
+                    while (!outQ.isEmpty() && !outQ.peek().hasRemaining()) outQ.poll();
+                    if (!outQ.isEmpty()) { interest(SelectionKey.OP_WRITE); return; } // socket pleine
+                }
+                if (downHashing || upHashing || working) { interest(0); return; }   // reprise par hashed() / prefixHashed() / worked()
+                if (downFile != null) {
+                    pumpDownload();
+                    if (downFile != null) { interest(SelectionKey.OP_WRITE); return; }
+                    continue;                             // le MD5 final est dans outQ
+                }
+                if (closeAfterWrite) { close(); return; }
+                if (partial == null) break;
+                ByteBuffer b = partial;
+                partial = null;
+                process(b);
+                if (b.hasRemaining()) partial = b.slice();
+                if (!busy()) break;
+            }
+            interest(SelectionKey.OP_READ);
+        }
+
+        private void interest(int ops) {
+            wanted = ops;
+            if (resumeAt == 0) key.interestOps(ops);
+        }
+
+        // Octets de corps permis (allowance) : réserve une tranche si besoin ; false → session mise en pause
+        private boolean permit(long want) {
+            if (allowance > 0) return true;
+            allowance = RateLimiter.slice(cmds.limiter, want);
+            long w = RateLimiter.reserve(cmds.limiter, allowance);
+            if (w <= 0) return true;
+            loop.pause(this, w);
+            return false;
+        }
+
+        void close() {
+            if (key != null) key.cancel();
+            try { if (upFile != null) upFile.close(); } catch (IOException ignored) {}
+            try { if (downFile != null) downFile.close(); } catch (IOException ignored) {}
+            if (upHold != null) upHold.close();
+            upFile = null; downFile = null; upHold = null; upMd = null; upSha = null;
+            cmds.closeListings();
+            if (ch.isOpen()) {
+                Metrics.sessionClosed();
+                try { ch.close(); } catch (IOException ignored) {}
+                Serveur.log("Connection with client#" + clientNumber + " closed");
+            }
+        }
+
+        // Lit une chaîne au format DataOutputStream.writeUTF (u2 longueur + UTF-8 modifié), ou null si incomplète
+        private static String readUtf(ByteBuffer b) throws IOException {
+            if (b.remaining() < 2) return null;
+            int len = b.getShort(b.position()) & 0xFFFF;
+            if (b.remaining() < 2 + len) return null;
+            byte[] raw = new byte[2 + len];
+            b.get(raw);
+            return new DataInputStream(new ByteArrayInputStream(raw)).readUTF();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+// PartWriter.java — écriture du corps d'un UPLOAD dans son fichier partiel ".<nom>.<md5>.part"
+// Les octets reçus passent par un grand tampon direct (serveur.uploadBufferKb, 1 Mo par défaut), écrit à sa
+// position par FileChannel : peu d'appels système, aucune copie supplémentaire vers un tampon natif.
+// Le partiel n'est jamais agrandi d'avance : sa taille est toujours le nombre d'octets reçus, celle que
+// UPLOAD_RESUME annonce, même si le serveur meurt sans fermer le fichier. La cible n'est jamais touchée ici
+// (renommage atomique par ClientHandler.install, après vérification du MD5).
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+
+public final class PartWriter extends OutputStream {
+    private static final int BUFFER = Integer.getInteger("serveur.uploadBufferKb", 1024) * 1024;
+    // Tampons directs réutilisés d'un upload à l'autre (leur mémoire n'est rendue qu'au GC)
+    private static final ArrayBlockingQueue<ByteBuffer> pool = new ArrayBlockingQueue<>(16);
+
+    private final RandomAccessFile raf;
+    private final FileChannel fc;
+    private final ByteBuffer buf;
+    private long written;                              // octets déjà sur disque (hors tampon)
+    private boolean closed;
+
+    // Reprend à 'offset' (octets déjà présents dans le partiel) ; ce qui dépasse est coupé
+    PartWriter(Path part, long offset) throws IOException {
+        raf = new RandomAccessFile(part.toFile(), "rw");
+        fc = raf.getChannel();
+        try {
+            if (raf.length() > offset) raf.setLength(offset);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        written = offset;
+        ByteBuffer b = pool.poll();
+        buf = b != null ? b : ByteBuffer.allocateDirect(BUFFER);
+        buf.clear();
+    }
+
+    @Override public void write(int b) throws IOException {
+        if (!buf.hasRemaining()) drain();
+        buf.put((byte) b);
+    }
+
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buf.hasRemaining()) drain();
+            int k = Math.min(len, buf.remaining());
+            buf.put(b, off, k);
+            off += k;
+            len -= k;
+        }
+    }
+
+    // Moteur nio : octets lus de la socket (tampon direct de la loop)
+    void write(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            if (!buf.hasRemaining()) drain();
+            int k = Math.min(src.remaining(), buf.remaining());
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + k);
+            buf.put(part);
+            src.position(src.position() + k);
+        }
+    }
+
+    private void drain() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) written += fc.write(buf, written);   // écriture positionnelle
+        buf.clear();
+    }
+
+    // Vide le tampon ; le tampon direct retourne au pool
+    @Override public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            drain();
+        } finally {
+            raf.close();
+            buf.clear();
+            pool.offer(buf);
+        }
+    }
+}
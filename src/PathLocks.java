@@ -0,0 +1,112 @@
+// PathLocks.java — verrous lecture/écriture par chemin de storage/, partagés par toutes les sessions
+// Les chemins sont hachés vers un tableau fixe de verrous (striping, serveur.lockStripes, 1024 par défaut) : la
+// mémoire ne dépend pas du nombre de fichiers et deux chemins différents ne tombent presque jamais sur le même verrou.
+// - lecture (DOWNLOAD) : partagée ; écriture (mise en place d'un UPLOAD, DELETE, MKDIR) : exclusive ;
+// - une opération prend aussi ses dossiers parents en lecture : un DELETE de dossier attend les transferts en cours
+//   dessous, et les transferts attendent la fin du DELETE ;
+// - les verrous d'une opération sont pris en une fois, par indice croissant (jamais d'interblocage), un indice
+//   demandé à la fois en lecture et en écriture n'étant pris qu'en écriture.
+// StampedLock : pas lié au thread (le moteur nio peut garder un verrou d'une itération de sa boucle à l'autre), mais
+// non réentrant : une opération ne reprend jamais un verrou de la même instance avant d'avoir rendu le sien.
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+public final class PathLocks {
+    // Verrous tenus par une opération ; close() les rend (une seule fois)
+    final class Hold implements AutoCloseable {
+        private final int[] stripes;
+        private final long[] stamps;
+        private final boolean[] write;
+        private boolean released;
+
+        private Hold(int[] stripes, boolean[] write, long[] stamps) {
+            this.stripes = stripes; this.write = write; this.stamps = stamps;
+        }
+
+        @Override public void close() {
+            if (released) return;
+            released = true;
+            for (int i = stripes.length - 1; i >= 0; i--) locks[stripes[i]].unlock(stamps[i]);
+        }
+    }
+
+    private final Path root;
+    private final StampedLock[] locks;
+    private final int mask;
+
+    final LongAdder acquired = new LongAdder(), contended = new LongAdder(), refused = new LongAdder();
+
+    PathLocks(Path root, int stripes) {
+        int n = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.root = root;
+        this.locks = new StampedLock[n];
+        for (int i = 0; i < n; i++) locks[i] = new StampedLock();
+        this.mask = n - 1;
+    }
+
+    int stripes() { return locks.length; }
+
+    // Lecture de 'p' (fichier ou dossier), parents en lecture ; attend si un écrivain tient l'un d'eux
+    Hold read(Path p) { return acquire(p, false, true); }
+
+    // Écriture de 'p', parents en lecture ; attend lecteurs et écrivains en cours
+    Hold write(Path p) { return acquire(p, true, true); }
+
+    // Comme write, sans attendre : null si l'un des verrous est déjà pris (moteur nio)
+    Hold tryWrite(Path p) { return acquire(p, true, false); }
+
+    // Comme read, sans attendre : null si un écrivain tient l'un des verrous (moteur nio)
+    Hold tryRead(Path p) { return acquire(p, false, false); }
+
+    private Hold acquire(Path p, boolean writeLeaf, boolean wait) {
+        // Indices demandés : p puis ses parents (jusqu'à la racine exclue), triés, doublons fusionnés
+        int depth = 1;
+        for (Path a = p.getParent(); a != null && a.startsWith(root) && !a.equals(root); a = a.getParent()) depth++;
+        long[] keyed = new long[depth];                // indice << 1 | écriture, pour un tri simple
+        keyed[0] = (long) stripe(p) << 1 | (writeLeaf ? 1 : 0);
+        int k = 1;
+        for (Path a = p.getParent(); k < depth; a = a.getParent()) keyed[k++] = (long) stripe(a) << 1;
+        Arrays.sort(keyed);
+        int[] stripes = new int[depth];
+        boolean[] write = new boolean[depth];
+        int n = 0;
+        for (long kv : keyed) {
+            int s = (int) (kv >>> 1);
+            boolean w = (kv & 1) != 0;
+            if (n > 0 && stripes[n - 1] == s) { write[n - 1] |= w; continue; }
+            stripes[n] = s; write[n] = w; n++;
+        }
+        if (n < depth) { stripes = Arrays.copyOf(stripes, n); write = Arrays.copyOf(write, n); }
+
+        long[] stamps = new long[n];
+        boolean waited = false;
+        for (int i = 0; i < n; i++) {
+            StampedLock l = locks[stripes[i]];
+            long st = write[i] ? l.tryWriteLock() : l.tryReadLock();
+            if (st == 0L) {
+                if (!wait) {
+                    for (int j = i - 1; j >= 0; j--) locks[stripes[j]].unlock(stamps[j]);
+                    refused.increment();
+                    return null;
+                }
+                waited = true;
+                st = write[i] ? l.writeLock() : l.readLock();
+            }
+            stamps[i] = st;
+        }
+        acquired.increment();
+        if (waited) contended.increment();
+        return new Hold(stripes, write, stamps);
+    }
+
+    private int stripe(Path p) {
+        int h = p.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h & mask;
+    }
+}
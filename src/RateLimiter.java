@@ -0,0 +1,101 @@
+// RateLimiter.java — limitation du débit des corps de fichiers (seau à jetons), pour tout le serveur et par session
+// Seuls les octets de contenu (UPLOAD, DOWNLOAD, morceaux, lots) passent par ici : les commandes de contrôle
+// (LS, CD, STATS, réponses courtes) ne sont jamais retenues, elles doublent donc les gros transferts.
+// - serveur.rateLimitKBs : débit total des corps, en Ko/s (0 = illimité, défaut) ; à régler un peu sous la capacité
+//   du lien pour laisser de la marge aux commandes interactives ;
+// - serveur.sessionRateKBs : débit d'une session (0 = illimité, défaut).
+// Réservation avec dette : une demande retire ses octets du solde, qui peut devenir négatif ; le délai à attendre est
+// celui du remboursement. Les sessions qui se partagent le seau global sont servies par tranches, à tour de rôle.
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class RateLimiter {
+    static final RateLimiter GLOBAL = new RateLimiter(Long.getLong("serveur.rateLimitKBs", 0) * 1024);
+    static final long SESSION_RATE = Long.getLong("serveur.sessionRateKBs", 0) * 1024;
+    // Tranche réservée d'un coup quand une limite est active (zéro-copie, moteur nio)
+    static final int CHUNK = 64 * 1024;
+
+    // Attentes imposées (toutes sessions), pour STATS / Prometheus
+    static final LongAdder throttled = new LongAdder(), throttledNanos = new LongAdder();
+
+    private final long rate, burst;                    // octets/s (0 = illimité) ; solde maximal
+    private double tokens;
+    private long last;
+
+    RateLimiter(long bytesPerSecond) {
+        this.rate = Math.max(0, bytesPerSecond);
+        this.burst = Math.max(CHUNK, rate / 10);       // 100 ms de débit d'avance au plus
+        this.tokens = burst;
+        this.last = System.nanoTime();
+    }
+
+    long rate() { return rate; }
+
+    boolean unlimited() { return rate == 0; }
+
+    // Retire n octets du solde ; renvoie le délai (ns) avant que ces octets soient permis
+    synchronized long reserve(long n) {
+        if (rate == 0) return 0;
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - last) * (double) rate / 1e9);
+        last = now;
+        tokens -= n;
+        return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+    }
+
+    // Réserve sur la session puis sur le seau global : délai = le plus long des deux (0 si aucune limite)
+    static long reserve(RateLimiter session, long n) {
+        if (session.rate == 0 && GLOBAL.rate == 0) return 0;
+        long w = Math.max(session.reserve(n), GLOBAL.reserve(n));
+        if (w > 0) { throttled.increment(); throttledNanos.add(w); }
+        return w;
+    }
+
+    // Moteur bloquant : attend que n octets soient permis
+    static void acquire(RateLimiter session, long n) throws InterruptedIOException {
+        long w = reserve(session, n);
+        if (w <= 0) return;
+        try { TimeUnit.NANOSECONDS.sleep(w); }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transfert interrompu");
+        }
+    }
+
+    // Tranche à envoyer d'un coup : tout le reste sans limite, sinon au plus CHUNK octets
+    static long slice(RateLimiter session, long remaining) {
+        return session.rate == 0 && GLOBAL.rate == 0 ? remaining : Math.min(CHUNK, remaining);
+    }
+
+    // Flux limités (corps compressés : c'est le volume sur le réseau qui est compté)
+    static InputStream throttle(InputStream in, RateLimiter session) {
+        if (session.rate == 0 && GLOBAL.rate == 0) return in;
+        return new FilterInputStream(in) {
+            @Override public int read() throws IOException {
+                int b = in.read();
+                if (b >= 0) acquire(session, 1);
+                return b;
+            }
+            @Override public int read(byte[] b, int off, int len) throws IOException {
+                int r = in.read(b, off, len);
+                if (r > 0) acquire(session, r);
+                return r;
+            }
+        };
+    }
+
+    static OutputStream throttle(OutputStream out, RateLimiter session) {
+        if (session.rate == 0 && GLOBAL.rate == 0) return out;
+        return new FilterOutputStream(out) {
+            @Override public void write(int b) throws IOException { acquire(session, 1); out.write(b); }
+            @Override public void write(byte[] b, int off, int len) throws IOException { acquire(session, len); out.write(b, off, len); }
+        };
+    }
+}
@@ -0,0 +1,301 @@
+// ReplicationLog.java — journal des modifications de storage/, rejoué vers des serveurs suiveurs (Replicator)
+// Actif seulement avec -Dserveur.replicas=hôte:port[,hôte:port...]. Chaque modification faite par le serveur
+// (ClientHandler.changed / removed : UPLOAD, MKDIR, DELETE, MDELETE, MUPLOAD...) devient un enregistrement :
+// - chemin chaud : un ajout dans une file en mémoire, sans verrou ni écriture disque ;
+// - un thread écrivain numérote les enregistrements et les ajoute par lots au fichier storage/.replog ;
+// - UPDATE = "relire ce chemin" (le contenu n'est pas copié dans le journal : le Replicator envoie l'état du disque
+//   au moment du rejeu), DELETE = "supprimer ce chemin". Rejouer deux fois un enregistrement ne change rien.
+// Fichier : [long n° de base] puis [long n°][long heure ms][byte type][UTF chemin][boolean arbre] ... Quand il dépasse
+// serveur.replLogMaxMb et que tous les suiveurs sont à jour, il est vidé (n° de base = dernier n°) ; au double de la
+// limite, il est vidé quand même et les suiveurs en retard repartent d'une resynchronisation complète.
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public final class ReplicationLog {
+    static final String FILE_NAME = ".replog";          // + ".<hôte>_<port>" : position d'un suiveur
+    static final byte UPDATE = 1, DELETE = 2;
+
+    // Un enregistrement ; path relatif à la racine, séparateur '/' ("" = la racine)
+    static final class Record {
+        final long seq, time;
+        final byte kind;
+        final String path;
+        final boolean tree;
+        Record(long seq, long time, byte kind, String path, boolean tree) {
+            this.seq = seq; this.time = time; this.kind = kind; this.path = path; this.tree = tree;
+        }
+    }
+
+    // Lot lu par un Replicator : enregistrements et position (octets) juste après le dernier
+    static final class Batch {
+        final List<Record> records;
+        final long end;
+        Batch(List<Record> records, long end) { this.records = records; this.end = end; }
+    }
+
+    private final Path root, file;
+    private final List<Replicator> replicas = new ArrayList<>();
+    private final long maxBytes;
+
+    private final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<>();
+    private Thread writer;
+    private volatile boolean closing;
+
+    // Fichier : écrit par le seul thread écrivain ; vidé sous le verrou d'écriture, lu sous le verrou de lecture
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private DataOutputStream out;
+    private volatile long base, last, committed;        // n° de base ; dernier n° écrit ; taille lisible du fichier
+    private volatile int generation;                    // +1 à chaque vidage (positions des lecteurs périmées)
+    // Heure du premier enregistrement de chaque seconde : retard des suiveurs en secondes (précision 1 s)
+    private final ConcurrentSkipListMap<Long, Long> times = new ConcurrentSkipListMap<>();
+
+    static ReplicationLog fromProperties(Path root) {
+        return new ReplicationLog(root, System.getProperty("serveur.replicas", ""), Long.getLong("serveur.replLogMaxMb", 256) * 1024 * 1024);
+    }
+
+    ReplicationLog(Path root, String replicas, long maxBytes) {
+        this.root = root;
+        this.file = root.resolve(FILE_NAME);
+        this.maxBytes = Math.max(1024 * 1024, maxBytes);
+        for (String r : replicas.split(",")) {
+            r = r.trim();
+            int colon = r.lastIndexOf(':');
+            if (r.isEmpty()) continue;
+            if (colon <= 0) { System.err.println("Réplica ignoré (hôte:port attendu) : " + r); continue; }
+            try { this.replicas.add(new Replicator(this, root, r.substring(0, colon), Integer.parseInt(r.substring(colon + 1)))); }
+            catch (NumberFormatException e) { System.err.println("Réplica ignoré (port invalide) : " + r); }
+        }
+    }
+
+    boolean enabled() { return !replicas.isEmpty(); }
+    List<Replicator> replicas() { return replicas; }
+    long last() { return last; }
+    long bytes() { return committed; }
+
+    // ---------- Chemin chaud (sessions) ----------
+
+    // 'p' créé / remplacé par le serveur ; tree : tout ce qui est dessous aussi (dossier rempli d'un coup)
+    void updated(Path p, boolean tree) { if (writer != null) add(UPDATE, p, tree); }
+
+    // 'p' supprimé par le serveur (fichier ou dossier entier)
+    void deleted(Path p) { if (writer != null) add(DELETE, p, true); }
+
+    private void add(byte kind, Path p, boolean tree) {
+        queue.add(new Record(0, System.currentTimeMillis(), kind, root.relativize(p).toString().replace('\\', '/'), tree));
+        LockSupport.unpark(writer);
+    }
+
+    // ---------- Démarrage / arrêt ----------
+
+    // Ouvre (ou crée) le journal puis lance l'écrivain et un Replicator par suiveur
+    void start() throws IOException {
+        if (!enabled()) return;
+        Files.createDirectories(root);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < 8) {
+            channel.truncate(0);
+            channel.write(ByteBuffer.allocate(8), 0);
+        }
+        long end = 8;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new BoundedChannelStream(channel, 0, channel.size()), 64 * 1024))) {
+            base = last = in.readLong();
+            while (true) {                               // dernier enregistrement complet (la fin d'un arrêt brutal est coupée)
+                Record r;
+                try { r = read(in); } catch (IOException e) { break; }
+                if (r == null) break;
+                last = r.seq;
+                times.putIfAbsent(r.time / 1000, r.seq);
+                end += size(r);
+            }
+        }
+        channel.truncate(end);
+        channel.position(end);
+        committed = end;
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+        writer = new Thread(this::writeLoop, "replication-log");
+        writer.setDaemon(true);
+        writer.start();
+        for (Replicator r : replicas) r.start();
+        System.out.println("Réplication vers " + replicas.size() + " suiveur(s), journal " + file.getFileName() + " n°" + last);
+    }
+
+    // Arrêt du serveur : ce qui est en file est écrit, les positions des suiveurs sont sauvegardées
+    void close() {
+        if (writer == null) return;
+        closing = true;
+        LockSupport.unpark(writer);
+        try { writer.join(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        for (Replicator r : replicas) r.stop();
+        saveCursors();
+    }
+
+    void saveCursors() {
+        for (Replicator r : replicas) r.saveCursor();
+    }
+
+    // ---------- Écrivain ----------
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>();
+        while (true) {
+            for (Record r; batch.size() < 4096 && (r = queue.poll()) != null; ) batch.add(r);
+            if (batch.isEmpty()) {
+                if (closing) return;
+                LockSupport.parkNanos(100_000_000L);
+                continue;
+            }
+            try {
+                long seq = last;
+                for (Record r : batch) {
+                    out.writeLong(++seq);
+                    out.writeLong(r.time);
+                    out.writeByte(r.kind);
+                    out.writeUTF(r.path);
+                    out.writeBoolean(r.tree);
+                    times.putIfAbsent(r.time / 1000, seq);
+                }
+                out.flush();
+                committed = channel.position();
+                last = seq;
+            } catch (IOException e) {
+                System.err.println("Journal de réplication : écriture impossible (" + e.getMessage() + "), " + batch.size() + " enregistrement(s) perdus");
+            }
+            batch.clear();
+            synchronized (this) { notifyAll(); }         // Replicators en attente de nouveaux enregistrements
+            if (committed > maxBytes) compact();
+        }
+    }
+
+    // Vide le journal si tous les suiveurs sont à jour (ou s'il atteint le double de la limite)
+    private void compact() {
+        boolean force = committed > 2 * maxBytes;
+        for (Replicator r : replicas) if (r.acked() < last && !force) return;
+        lock.writeLock().lock();
+        try {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(8).putLong(0, last);
+            channel.write(header, 0);
+            channel.position(8);
+            base = last;
+            committed = 8;
+            generation++;
+            times.headMap(System.currentTimeMillis() / 1000).clear();
+            for (Replicator r : replicas) if (r.acked() < last) r.resyncNeeded();
+        } catch (IOException e) {
+            System.err.println("Journal de réplication : vidage impossible (" + e.getMessage() + ")");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ---------- Lecture (Replicators) ----------
+
+    int generation() { return generation; }
+    long base() { return base; }
+
+    // Enregistrements à partir de la position 'from' (octets ; 8 = début), au plus 'max' ; attend jusqu'à 'waitMs'
+    // s'il n'y en a pas. null si le journal a été vidé depuis 'gen' (repartir de la position 8).
+    Batch read(long from, int gen, int max, long waitMs) throws IOException {
+        if (committed <= from && waitMs > 0 && gen == generation) {
+            synchronized (this) {
+                try { if (committed <= from && !closing) wait(waitMs); }
+                catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new InterruptedIOException(); }
+            }
+        }
+        lock.readLock().lock();
+        try {
+            if (gen != generation) return null;
+            long end = committed, pos = from;
+            List<Record> records = new ArrayList<>();
+            if (pos >= end) return new Batch(records, pos);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new BoundedChannelStream(channel, pos, end), 64 * 1024))) {
+                while (records.size() < max && pos < end) {
+                    Record r = read(in);
+                    if (r == null) break;
+                    records.add(r);
+                    pos += size(r);
+                }
+            }
+            return new Batch(records, pos);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Heure (ms, à la seconde près) de l'enregistrement n° seq ; 0 s'il n'est plus connu
+    long timeOf(long seq) {
+        Map.Entry<Long, Long> best = null;
+        for (Map.Entry<Long, Long> e : times.entrySet()) {         // peu d'entrées : une par seconde d'activité
+            if (e.getValue() > seq) break;
+            best = e;
+        }
+        return best == null ? 0 : best.getKey() * 1000;
+    }
+
+    // Oublie les secondes déjà répliquées partout (appelé après un acquittement)
+    void forgetBefore(long seq) {
+        for (Replicator r : replicas) seq = Math.min(seq, r.acked());
+        Iterator<Map.Entry<Long, Long>> it = times.entrySet().iterator();
+        Map.Entry<Long, Long> prev = null;
+        while (it.hasNext()) {
+            Map.Entry<Long, Long> e = it.next();
+            if (e.getValue() > seq) break;
+            if (prev != null) times.remove(prev.getKey());      // garde la seconde qui contient seq + 1
+            prev = e;
+        }
+    }
+
+    private static Record read(DataInputStream in) throws IOException {
+        try {
+            long seq = in.readLong(), time = in.readLong();
+            byte kind = in.readByte();
+            String path = in.readUTF();
+            boolean tree = in.readBoolean();
+            return new Record(seq, time, kind, path, tree);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static long size(Record r) {
+        return 8 + 8 + 1 + 2 + utfLength(r.path) + 1;
+    }
+
+    private static int utfLength(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            n += (c >= 0x0001 && c <= 0x007F) ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        return n;
+    }
+
+    // Flux sur [from, end) du fichier, en lectures positionnées (ne touche pas à la position d'écriture)
+    private static final class BoundedChannelStream extends InputStream {
+        private final FileChannel ch;
+        private long pos;
+        private final long end;
+        BoundedChannelStream(FileChannel ch, long from, long end) { this.ch = ch; this.pos = from; this.end = end; }
+        @Override public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            if (pos >= end) return -1;
+            int r = ch.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - pos)), pos);
+            if (r > 0) pos += r;
+            return r;
+        }
+    }
+}
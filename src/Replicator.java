@@ -0,0 +1,547 @@
+// Replicator.java — rejoue le journal de réplication (ReplicationLog) vers UN serveur suiveur
+// Le suiveur est un Serveur ordinaire : on s'y connecte comme un client et on utilise le protocole existant
+// (CD, MKDIR, UPLOAD, DELETE, LS_PAGE), en mode PIPELINE si le suiveur l'accepte. Deux threads par suiveur :
+// - l'envoyeur lit le journal par lots, fusionne les enregistrements d'un même chemin et envoie les requêtes sans
+//   attendre les réponses (au plus WINDOW en vol ; flush à la fin du lot) ;
+// - le lecteur lit les réponses dans l'ordre et avance la position acquittée (sauvegardée dans
+//   storage/.replog.<hôte>_<port>, pour reprendre là où on en était après une coupure ou un redémarrage).
+// Resynchronisation complète (premier démarrage, journal vidé avant que le suiveur ait tout reçu, réponse
+// inattendue) : dossier par dossier, le listage du suiveur (LS_PAGE) est comparé à storage/ ; on supprime ce qui
+// est en trop, on crée les dossiers et on envoie les fichiers absents, de taille différente ou plus récents.
+// Rien de tout cela ne passe par les sessions des clients : seul l'ajout au journal est sur leur chemin.
+// Réglages : serveur.replRateKBs (débit des envois, défaut 0 = illimité), serveur.replRetrySec (délai max entre
+// deux tentatives de connexion, défaut 30).
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Replicator {
+    static final int WINDOW = 256;                      // requêtes en vol (sans réponse) au plus
+    static final int BATCH = 512;                       // enregistrements lus par lot
+    private static final int LS_PAGE = 10_000;
+    private static final RateLimiter RATE = new RateLimiter(Long.getLong("serveur.replRateKBs", 0) * 1024);
+    private static final long RETRY_MAX_MS = Long.getLong("serveur.replRetrySec", 30) * 1000;
+
+    private final ReplicationLog log;
+    private final Path root, cursorFile;
+    final String name;                                  // hôte:port
+    private final String host;
+    private final int port;
+
+    // Position acquittée : tout jusqu'au n° 'acked' est sur le suiveur ; 'ackOffset' = position dans le journal juste
+    // après (valable pour la génération 'ackGen') ; resync : le suiveur doit d'abord être comparé en entier
+    private volatile long acked;
+    private volatile long ackOffset = 8;
+    private volatile int ackGen;
+    private volatile boolean resync;
+    private volatile int resyncEpoch;                   // +1 à chaque demande (journal vidé pendant une resynchronisation)
+
+    private volatile boolean running;
+    private Thread thread;
+    private volatile Socket socket;
+
+    // Métriques (STATS / Prometheus)
+    volatile boolean connected;
+    volatile String lastError = "";
+    final LongAdder sentBytes = new LongAdder(), requests = new LongAdder(), errors = new LongAdder(),
+            reconnects = new LongAdder(), resyncs = new LongAdder();
+
+    Replicator(ReplicationLog log, Path root, String host, int port) {
+        this.log = log;
+        this.root = root;
+        this.host = host;
+        this.port = port;
+        this.name = host + ":" + port;
+        this.cursorFile = root.resolve(ReplicationLog.FILE_NAME + "." + host.replace(':', '_') + "_" + port);
+    }
+
+    long acked() { return acked; }
+    void resyncNeeded() { resyncEpoch++; resync = true; }
+
+    // Enregistrements pas encore acquittés par le suiveur, et âge (s) du plus ancien
+    long lagRecords() { return Math.max(0, log.last() - acked); }
+    double lagSeconds() {
+        if (acked >= log.last()) return 0;
+        long t = log.timeOf(acked + 1);
+        return t == 0 ? 0 : Math.max(0, (System.currentTimeMillis() - t) / 1000.0);
+    }
+
+    // ---------- Position sauvegardée ----------
+
+    private void loadCursor() {
+        ackGen = log.generation();
+        try {
+            long seq = Long.parseLong(new String(Files.readAllBytes(cursorFile), StandardCharsets.UTF_8).trim());
+            if (seq >= log.base() && seq <= log.last()) { acked = seq; ackOffset = 8; return; }   // relu depuis le début du journal
+        } catch (IOException | NumberFormatException ignored) {}
+        acked = log.base();                              // premier démarrage, ou journal vidé depuis
+        resyncNeeded();
+    }
+
+    void saveCursor() {
+        if (thread == null) return;
+        String v = resync ? "resync" : Long.toString(acked);
+        try {
+            Path tmp = cursorFile.resolveSibling(cursorFile.getFileName() + ".tmp.part");
+            Files.write(tmp, v.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, cursorFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Réplica " + name + " : position non sauvegardée (" + e.getMessage() + ")");
+        }
+    }
+
+    // ---------- Boucle de connexion ----------
+
+    void start() {
+        loadCursor();
+        running = true;
+        thread = new Thread(this::run, "replicator-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        Socket s = socket;
+        if (s != null) try { s.close(); } catch (IOException ignored) {}
+        if (thread != null) thread.interrupt();
+    }
+
+    private void run() {
+        long backoff = 500;
+        while (running) {
+            try (SocketChannel ch = SocketChannel.open()) {
+                ch.socket().connect(new InetSocketAddress(host, port), 5000);
+                ch.socket().setTcpNoDelay(true);
+                socket = ch.socket();
+                backoff = 500;
+                new Link(ch).run();
+            } catch (IOException | RuntimeException e) {
+                if (!running) return;
+                lastError = e.getMessage() != null ? e.getMessage() : e.toString();
+                if (connected) Serveur.log("Réplica " + name + " déconnecté : " + lastError);
+            } finally {
+                connected = false;
+                socket = null;
+            }
+            if (!running) return;
+            reconnects.increment();
+            try { Thread.sleep(backoff); } catch (InterruptedException e) { return; }
+            backoff = Math.min(RETRY_MAX_MS, backoff * 2);
+        }
+    }
+
+    // ---------- Une connexion au suiveur ----------
+
+    // Requête envoyée, en attente de sa réponse
+    private static final class Op {
+        static final int CD = 1, MKDIR = 2, UPLOAD = 3, DELETE = 4, LIST = 5, MARK = 6;
+        final int kind, id;
+        final String arg;
+        long seq, offset;                                // MARK : position acquittée une fois les réponses précédentes lues
+        int gen;
+        int endsResync = -1;                              // MARK de fin de resynchronisation : sa demande
+        CompletableFuture<Listing> listing;               // LIST : réponse attendue par l'envoyeur
+        Op(int kind, int id, String arg) { this.kind = kind; this.id = id; this.arg = arg; }
+    }
+
+    // Une page de listage du suiveur : nom → {dossier ? 1 : 0, taille, date ms}
+    private static final class Listing {
+        final Map<String, long[]> entries = new HashMap<>();
+        String cursor;
+    }
+
+    private final class Link {
+        private final SocketChannel ch;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private boolean framed;                         // PIPELINE accepté : requêtes et réponses numérotées
+        private int nextId;
+        private final BlockingQueue<Op> inflight = new ArrayBlockingQueue<>(WINDOW + 1);
+        private final Semaphore window = new Semaphore(WINDOW);
+        private volatile IOException failure;
+        private final List<String> cwd = new ArrayList<>();        // dossier courant de la session sur le suiveur
+        private final Set<String> known = new HashSet<>();         // dossiers qui existent sur le suiveur (cette session)
+
+        Link(SocketChannel ch) throws IOException {
+            this.ch = ch;
+            Socket s = ch.socket();
+            this.in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024));
+            this.out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 64 * 1024));
+        }
+
+        void run() throws IOException {
+            in.readUTF();                                // accueil
+            in.readUTF();                                // CWD: /
+            out.writeUTF("PIPELINE"); out.flush();
+            framed = "PIPELINE_OK".equals(in.readUTF());
+            connected = true;
+            Serveur.log("Réplica " + name + " connecté (n°" + acked + (resync ? ", resynchronisation" : "") + ")");
+
+            Thread reader = new Thread(this::readLoop, "replicator-" + name + "-acks");
+            reader.setDaemon(true);
+            reader.start();
+            try {
+                long offset = ackOffset;
+                int gen = ackGen;
+                long skip = acked;                      // position relue depuis le début : enregistrements déjà reçus sautés
+                int done = -1;                          // dernière demande de resynchronisation traitée sur cette connexion
+                while (running) {
+                    check();
+                    int epoch = resyncEpoch;
+                    if (resync && epoch != done) {      // 'resync' ne retombe qu'à l'acquittement du MARK final
+                        long last = log.last(), end = log.bytes();
+                        int g = log.generation();
+                        resyncs.increment();
+                        syncDir(Collections.emptyList());
+                        mark(last, end, g, epoch);
+                        out.flush();
+                        offset = end; gen = g; skip = last; done = epoch;
+                        continue;
+                    }
+                    ReplicationLog.Batch b = log.read(offset, gen, BATCH, 1000);
+                    if (b == null) { offset = 8; gen = log.generation(); continue; }   // journal vidé (à jour)
+                    if (b.records.isEmpty()) { out.flush(); continue; }
+                    long last = 0;
+                    for (ReplicationLog.Record r : coalesce(b.records, skip)) apply(r);
+                    for (ReplicationLog.Record r : b.records) last = r.seq;
+                    if (last > skip) mark(last, b.end, gen, -1);
+                    offset = b.end;
+                    out.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try { ch.close(); } catch (IOException ignored) {}
+                try { reader.join(1000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            }
+            check();
+        }
+
+        private void check() throws IOException {
+            if (failure != null) throw failure;
+        }
+
+        // Dernier enregistrement de chaque chemin dans le lot (les suppressions gardent leur place) ; déjà reçus exclus
+        private List<ReplicationLog.Record> coalesce(List<ReplicationLog.Record> records, long skip) {
+            Map<String, Integer> lastUpdate = new HashMap<>();
+            for (int i = 0; i < records.size(); i++) {
+                ReplicationLog.Record r = records.get(i);
+                if (r.kind == ReplicationLog.UPDATE) lastUpdate.put(r.path, i);
+                else lastUpdate.clear();                  // une suppression sépare les mises à jour d'avant et d'après
+            }
+            List<ReplicationLog.Record> outList = new ArrayList<>();
+            boolean[] treeOf = new boolean[records.size()];
+            for (int i = 0; i < records.size(); i++) {
+                ReplicationLog.Record r = records.get(i);
+                if (r.seq <= skip) continue;
+                if (r.kind == ReplicationLog.UPDATE) {
+                    Integer keep = lastUpdate.get(r.path);
+                    if (keep != null && keep != i) { treeOf[keep] |= r.tree; continue; }
+                }
+                if (r.kind == ReplicationLog.UPDATE && treeOf[i] && !r.tree)
+                    r = new ReplicationLog.Record(r.seq, r.time, r.kind, r.path, true);
+                outList.add(r);
+            }
+            return outList;
+        }
+
+        // ---------- Rejeu d'un enregistrement ----------
+
+        private void apply(ReplicationLog.Record r) throws IOException, InterruptedException {
+            List<String> segs = r.path.isEmpty() ? Collections.emptyList() : Arrays.asList(r.path.split("/"));
+            if (r.kind == ReplicationLog.DELETE) {
+                if (segs.isEmpty()) return;
+                cd(Collections.emptyList());
+                send(Op.DELETE, r.path);
+                String prefix = r.path + "/";
+                known.removeIf(k -> k.equals(r.path) || k.startsWith(prefix));
+                return;
+            }
+            Path p = root.resolve(r.path);
+            BasicFileAttributes a = attrs(p);
+            if (a == null || ClientHandler.isInternal(p)) return;     // supprimé depuis : un DELETE suit dans le journal
+            if (a.isDirectory()) {
+                ensureDir(segs);
+                if (r.tree) copyTree(p, segs);
+            } else if (!segs.isEmpty()) {
+                List<String> parent = segs.subList(0, segs.size() - 1);
+                ensureDir(parent);
+                cd(parent);
+                upload(p, segs.get(segs.size() - 1));
+            }
+        }
+
+        private void copyTree(Path dir, List<String> segs) throws IOException, InterruptedException {
+            List<Path> children = new ArrayList<>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+                for (Path c : ds) if (!ClientHandler.isInternal(c)) children.add(c);
+            } catch (NoSuchFileException e) {
+                return;
+            }
+            Collections.sort(children);
+            for (Path c : children) {
+                BasicFileAttributes a = attrs(c);
+                if (a == null) continue;
+                List<String> cs = append(segs, c.getFileName().toString());
+                if (a.isDirectory()) { ensureDir(cs); copyTree(c, cs); }
+                else { cd(segs); upload(c, c.getFileName().toString()); }
+            }
+        }
+
+        // Resynchronisation d'un dossier (puis de ses sous-dossiers) d'après le listage du suiveur
+        private void syncDir(List<String> segs) throws IOException, InterruptedException {
+            Path dir = segs.isEmpty() ? root : root.resolve(String.join("/", segs));
+            ensureDir(segs);
+            cd(segs);
+            Map<String, long[]> remote = list();
+            Map<String, BasicFileAttributes> local = new TreeMap<>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+                for (Path c : ds) {
+                    if (ClientHandler.isInternal(c)) continue;
+                    BasicFileAttributes a = attrs(c);
+                    if (a != null) local.put(c.getFileName().toString(), a);
+                }
+            } catch (NoSuchFileException e) {
+                return;
+            }
+            for (Map.Entry<String, long[]> e : remote.entrySet()) {                 // en trop, ou fichier ↔ dossier
+                BasicFileAttributes a = local.get(e.getKey());
+                if (a == null || a.isDirectory() != (e.getValue()[0] == 1)) {
+                    cd(segs);
+                    send(Op.DELETE, e.getKey());
+                    known.remove(String.join("/", append(segs, e.getKey())));
+                }
+            }
+            List<List<String>> subdirs = new ArrayList<>();
+            for (Map.Entry<String, BasicFileAttributes> e : local.entrySet()) {
+                BasicFileAttributes a = e.getValue();
+                long[] r = remote.get(e.getKey());
+                boolean same = r != null && (r[0] == 1) == a.isDirectory();
+                if (a.isDirectory()) {
+                    List<String> cs = append(segs, e.getKey());
+                    if (same) known.add(String.join("/", cs));
+                    subdirs.add(cs);
+                } else if (!same || r[1] != a.size() || r[2] < a.lastModifiedTime().toMillis()) {
+                    cd(segs);
+                    upload(dir.resolve(e.getKey()), e.getKey());
+                }
+            }
+            for (List<String> cs : subdirs) syncDir(cs);
+        }
+
+        // Listage complet du dossier courant du suiveur (pages LS_PAGE, réponses attendues)
+        private Map<String, long[]> list() throws IOException, InterruptedException {
+            Map<String, long[]> all = new HashMap<>();
+            String cursor = "";
+            do {
+                Op op = send(Op.LIST, cursor);
+                out.flush();
+                Listing l;
+                try { l = op.listing.get(); }
+                catch (ExecutionException e) { check(); throw new IOException(e.getCause()); }
+                all.putAll(l.entries);
+                cursor = l.cursor;
+            } while (!cursor.isEmpty());
+            return all;
+        }
+
+        // ---------- Requêtes ----------
+
+        // Crée les dossiers manquants du chemin (MKDIR sur un dossier existant : refus sans effet)
+        private void ensureDir(List<String> segs) throws IOException, InterruptedException {
+            for (int i = 1; i <= segs.size(); i++) {
+                String key = String.join("/", segs.subList(0, i));
+                if (known.contains(key)) continue;
+                cd(segs.subList(0, i - 1));
+                send(Op.MKDIR, segs.get(i - 1));
+                known.add(key);
+            }
+        }
+
+        // CD relatif depuis le dossier courant suivi ici ("../../a/b")
+        private void cd(List<String> target) throws IOException, InterruptedException {
+            if (cwd.equals(target)) return;
+            int common = 0;
+            while (common < cwd.size() && common < target.size() && cwd.get(common).equals(target.get(common))) common++;
+            StringBuilder rel = new StringBuilder();
+            for (int i = common; i < cwd.size(); i++) rel.append(rel.length() == 0 ? "" : "/").append("..");
+            for (int i = common; i < target.size(); i++) rel.append(rel.length() == 0 ? "" : "/").append(target.get(i));
+            send(Op.CD, rel.toString());
+            cwd.clear();
+            cwd.addAll(target);
+        }
+
+        // UPLOAD du fichier dans le dossier courant du suiveur : ouverture et attributs sous verrou de lecture (section
+        // courte), empreinte hors verrou (index, sinon hachage du descripteur ouvert), envoi depuis ce descripteur
+        private void upload(Path p, String remoteName) throws IOException, InterruptedException {
+            FileChannel fc;
+            BasicFileAttributes a;
+            try (PathLocks.Hold h = ClientHandler.locks.read(p)) {
+                a = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (!a.isRegularFile()) return;
+                fc = FileChannel.open(p, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                return;                                  // supprimé depuis : un DELETE suit dans le journal
+            }
+            try {
+                ChecksumIndex index = ClientHandler.checksums(Integrity.DEFAULT);
+                String md5 = index.cached(p, a);
+                if (md5 == null) {
+                    md5 = ChecksumIndex.hash(fc, Integrity.DEFAULT);
+                    index.put(p, a, md5);
+                }
+                long size = fc.size();
+                send(Op.UPLOAD, remoteName);
+                out.writeLong(size);
+                out.writeUTF(md5);
+                long pos = 0;
+                if (size <= 64 * 1024) {                 // petit fichier : dans le tampon, envoyé avec le lot
+                    byte[] buf = new byte[(int) size];
+                    java.nio.ByteBuffer bb = java.nio.ByteBuffer.wrap(buf);
+                    while (bb.hasRemaining() && fc.read(bb, bb.position()) > 0) { }
+                    if (bb.hasRemaining()) throw new EOFException("Fichier raccourci pendant la réplication: " + p);
+                    out.write(buf);
+                    pace(size);
+                } else {
+                    out.flush();
+                    while (pos < size) {
+                        long k = fc.transferTo(pos, Math.min(RateLimiter.CHUNK * 16L, size - pos), ch);
+                        if (k <= 0) throw new EOFException("Fichier raccourci pendant la réplication: " + p);
+                        pace(k);
+                        pos += k;
+                    }
+                }
+                sentBytes.add(size);
+            } finally {
+                fc.close();
+            }
+        }
+
+        private void pace(long n) throws InterruptedIOException {
+            long w = RATE.reserve(n);
+            if (w <= 0) return;
+            try { TimeUnit.NANOSECONDS.sleep(w); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new InterruptedIOException(); }
+        }
+
+        // Repère dans la file des réponses : une fois les réponses précédentes lues, tout jusqu'au n° seq est acquitté
+        private void mark(long seq, long offset, int gen, int endsResync) throws IOException, InterruptedException {
+            Op op = new Op(Op.MARK, 0, null);
+            op.seq = seq; op.offset = offset; op.gen = gen; op.endsResync = endsResync;
+            enqueue(op);
+        }
+
+        private void enqueue(Op op) throws IOException, InterruptedException {
+            check();
+            if (!window.tryAcquire()) {                   // fenêtre pleine : on pousse ce qui attend avant de bloquer
+                out.flush();
+                while (!window.tryAcquire(1, TimeUnit.SECONDS)) check();
+            }
+            inflight.put(op);
+        }
+
+        // Écrit l'en-tête d'une requête (le corps éventuel suit)
+        private Op send(int kind, String arg) throws IOException, InterruptedException {
+            Op op = new Op(kind, ++nextId, arg);
+            if (kind == Op.LIST) op.listing = new CompletableFuture<>();
+            enqueue(op);
+            requests.increment();
+            if (framed) out.writeInt(op.id);
+            switch (kind) {
+                case Op.CD:     out.writeUTF("CD"); out.writeUTF(arg); break;
+                case Op.MKDIR:  out.writeUTF("MKDIR"); out.writeUTF(arg); break;
+                case Op.DELETE: out.writeUTF("DELETE"); out.writeUTF(arg); break;
+                case Op.UPLOAD: out.writeUTF("UPLOAD"); out.writeUTF(arg); break;   // taille, empreinte et corps : upload()
+                case Op.LIST:   out.writeUTF("LS_PAGE"); out.writeUTF(arg); out.writeInt(LS_PAGE); out.writeUTF(""); break;
+            }
+            return op;
+        }
+
+        // ---------- Réponses (thread lecteur) ----------
+
+        private void readLoop() {
+            try {
+                while (true) {
+                    Op op = inflight.take();
+                    if (op.kind != Op.MARK) readReply(op);
+                    else {
+                        acked = op.seq; ackOffset = op.offset; ackGen = op.gen;
+                        if (op.endsResync == resyncEpoch) resync = false;
+                        log.forgetBefore(op.seq);
+                    }
+                    window.release();
+                }
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                failure = new InterruptedIOException();
+            } finally {
+                for (Op op; (op = inflight.poll()) != null; ) if (op.listing != null) op.listing.completeExceptionally(failure);
+                window.release(WINDOW);                   // débloque l'envoyeur, qui verra 'failure'
+            }
+        }
+
+        private void readReply(Op op) throws IOException {
+            if (framed) {
+                int id = in.readInt();
+                if (id != op.id) throw new IOException("réponse " + id + " reçue, " + op.id + " attendue");
+            }
+            switch (op.kind) {
+                case Op.CD: {
+                    String msg = in.readUTF();
+                    in.readUTF();                        // CWD: ...
+                    if (msg.startsWith("ERR")) { resync = true; throw new IOException("cd " + op.arg + " : " + msg); }
+                    break;
+                }
+                case Op.MKDIR: case Op.DELETE: in.readUTF(); break;   // déjà là / déjà supprimé : sans effet
+                case Op.UPLOAD: {
+                    String msg = in.readUTF();
+                    if (!msg.startsWith("UPLOAD_OK")) { errors.increment(); lastError = msg; }
+                    break;
+                }
+                case Op.LIST: {
+                    Listing l = new Listing();
+                    while (in.readBoolean()) {
+                        String n = in.readUTF();
+                        boolean dir = in.readBoolean();
+                        long size = in.readLong(), mtime = in.readLong();
+                        l.entries.put(n, new long[] { dir ? 1 : 0, size, mtime });
+                    }
+                    l.cursor = in.readUTF();
+                    if (l.cursor.startsWith("ERR")) { IOException e = new IOException("ls : " + l.cursor); op.listing.completeExceptionally(e); throw e; }
+                    op.listing.complete(l);
+                    break;
+                }
+            }
+        }
+    }
+
+    // ---------- Utilitaires ----------
+
+    private static BasicFileAttributes attrs(Path p) {
+        try { return Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS); }
+        catch (IOException e) { return null; }
+    }
+
+    private static List<String> append(List<String> segs, String name) {
+        List<String> l = new ArrayList<>(segs.size() + 1);
+        l.addAll(segs);
+        l.add(name);
+        return l;
+    }
+}
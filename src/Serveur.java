@@ -1,102 +1,247 @@
-// Serveur.java
-import java.net.*;
-import java.io.*;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-
-public class Serveur {
-    private static ServerSocket listener;
-
-    // Port du TP : 5000–5050
-    private static boolean isValidPort(int p) { return p >= 5000 && p <= 5050; }
-
-    public static void main(String[] args) {
-        try {
-            // 1) Demande IP/port à l'utilisateur (avec valeurs par défaut pour aller plus vite)
-            BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-            String ip = askIp(br);
-            int port  = askPort(br);
-
-            // 2) Bind du serveur
-            listener = new ServerSocket();
-            listener.setReuseAddress(true);
-            try {
-                InetAddress addr = InetAddress.getByName(ip);
-                listener.bind(new InetSocketAddress(addr, port));
-            } catch (BindException e) {
-                System.err.println("Port " + port + " déjà utilisé sur " + ip + ". Relancez et choisissez un autre port.");
-                return;
-            } catch (UnknownHostException e) {
-                System.err.println("Adresse IP invalide: " + ip);
-                return;
-            }
-
-            System.out.printf("The server is running on %s:%d%n", ip, port);
-
-            // 3) Fermeture avec Ctrl+C (pas tres necesaire)
-            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                try { if (listener != null && !listener.isClosed()) listener.close(); } catch (Exception ignored) {}
-            }));
-            
-            // Boucle d’acceptation : le serveur crée et DÉMARRE un nouveau thread par client.
-            // La logique exécutée en parallèle est dans ClientHandler.run().
-            
-            int clientNumber = 0;
-            try {
-                while (true) {
-                    Socket s = listener.accept();                 // bloquant
-                    new ClientHandler(s, clientNumber++).start(); // un thread par client
-                }
-            } finally {
-                listener.close();
-            }
-        } catch (IOException e) {
-            System.err.println("Erreur I/O serveur: " + e.getMessage());
-        }
-    }
-
-    // === Prompts interactifs === 
-    //Pour gérer les bons formats pour les adresses IP et les numéros de ports 
-
-    private static String askIp(BufferedReader br) throws IOException {
-        while (true) {
-            System.out.print("Adresse IP d’écoute (ENTER = 127.0.0.1) : ");
-            String line = br.readLine();
-            if (line == null) return "127.0.0.1"; // fallback si stdin fermé
-            line = line.trim();
-            if (line.isEmpty()) return "127.0.0.1";
-            // Laisse InetAddress valider (permet aussi un hostname si jamais)
-            try {
-                InetAddress.getByName(line);
-                return line;
-            } catch (UnknownHostException e) {
-                System.out.println("Adresse invalide. Exemples: 127.0.0.1, 0.0.0.0, 192.168.1.20");
-            }
-        }
-    }
-
-    private static int askPort(BufferedReader br) throws IOException {
-        while (true) {
-            System.out.print("Port (5000–5050) (ENTER = 5000) : ");
-            String line = br.readLine();
-            if (line == null || line.trim().isEmpty()) return 5000;
-            try {
-                int p = Integer.parseInt(line.trim());
-                if (isValidPort(p)) return p;
-            } catch (NumberFormatException ignored) {}
-            System.out.println("Port invalide. Choisis un entier entre 5000 et 5050.");
-        }
-    }
-
-    // === Logging demandé par l'énoncé ===
-    //Affichages des commandes de chaque client à chaque fois avec la date, numéro de port etc.
-    public static void log(Socket s, String cmd) {
-        InetSocketAddress rsa = (InetSocketAddress) s.getRemoteSocketAddress();
-        String ip   = rsa.getAddress().getHostAddress();
-        int    port = rsa.getPort();
-        String ts = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd@HH:mm:ss"));
-        System.out.printf("[%s:%d - %s] : %s%n", ip, port, ts, cmd);
-    }
-}
-
-
+// Serveur.java
+import java.net.*;
+import java.io.*;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Serveur {
+    private static ServerSocket listener;
+
+    // === Exécution des sessions (réglable avec -D au lancement) ===
+    // serveur.exec        : "pool" (pool borné de threads plateforme) ou "virtual" (1 thread virtuel par session, Java 21+)
+    // serveur.maxSessions : nb max de sessions simultanées ; au-delà on n'appelle plus accept()
+    // serveur.backlog     : taille de la file d'attente TCP (connexions en attente d'accept)
+    // serveur.drainSec    : délai laissé aux sessions actives pour finir lors de l'arrêt
+    // serveur.engine      : "blocking" (1 ClientHandler par session) ou "nio" (NioServeur, Selector + event loops)
+    // serveur.nioLoops    : nb de threads event loop du moteur nio
+    // serveur.indexThreads: nb de threads du parcours initial de storage/ (index des noms, FIND)
+    private static final String EXEC_MODE    = System.getProperty("serveur.exec", "pool");
+    private static final int    MAX_SESSIONS = Integer.getInteger("serveur.maxSessions", 256);
+    private static final int    BACKLOG      = Integer.getInteger("serveur.backlog", 128);
+    private static final int    DRAIN_SEC    = Integer.getInteger("serveur.drainSec", 10);
+    private static final String ENGINE       = System.getProperty("serveur.engine", "blocking");
+    private static final int    NIO_LOOPS    = Integer.getInteger("serveur.nioLoops", Runtime.getRuntime().availableProcessors());
+    private static final int    INDEX_THREADS = Integer.getInteger("serveur.indexThreads", Runtime.getRuntime().availableProcessors());
+    private static final int    METRICS_PORT = Integer.getInteger("serveur.metricsPort", -1);   // -1 = pas d'export HTTP
+    private static final long   PART_MAX_AGE_H = Long.getLong("serveur.partMaxAgeHours", 24);    // 0 = partiels jamais supprimés
+
+    private static ExecutorService sessions;                                     // exécute les ClientHandler
+    private static final Semaphore slots = new Semaphore(MAX_SESSIONS);          // plafond de sessions
+    private static final Set<ClientHandler> active = ConcurrentHashMap.newKeySet(); // sessions en cours
+    static final AccessLog accessLog = AccessLog.fromProperties();                // journal des commandes (asynchrone)
+
+    // Port du TP : 5000–5050
+    private static boolean isValidPort(int p) { return p >= 5000 && p <= 5050; }
+
+    public static void main(String[] args) {
+        try {
+            // 1) Demande IP/port à l'utilisateur (avec valeurs par défaut pour aller plus vite)
+            BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+            String ip = askIp(br);
+            int port  = askPort(br);
+
+            // 2) Bind du serveur
+            // Toujours via un ServerSocketChannel : les sockets acceptées ont un canal (DOWNLOAD zéro-copie)
+            boolean nio = "nio".equalsIgnoreCase(ENGINE);
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            listener = channel.socket();
+            listener.setReuseAddress(true);
+            try {
+                InetAddress addr = InetAddress.getByName(ip);
+                listener.bind(new InetSocketAddress(addr, port), BACKLOG);
+            } catch (BindException e) {
+                System.err.println("Port " + port + " déjà utilisé sur " + ip + ". Relancez et choisissez un autre port.");
+                return;
+            } catch (UnknownHostException e) {
+                System.err.println("Adresse IP invalide: " + ip);
+                return;
+            }
+
+            System.out.printf("The server is running on %s:%d%n", ip, port);
+            if (ClientHandler.blobs != null) System.out.println("Stockage dédupliqué (cas) : " + ClientHandler.blobs.size() + " contenu(s) distinct(s)");
+
+            // Index des noms (FIND) : parcours parallèle de storage/ pendant que le serveur répond déjà
+            ClientHandler.names.buildAsync(INDEX_THREADS);
+
+            // Réplication asynchrone vers les suiveurs (serveur.replicas) : journal + un envoyeur par suiveur
+            try { ClientHandler.replication.start(); }
+            catch (IOException e) { System.err.println("Réplication désactivée (journal illisible) : " + e.getMessage()); }
+
+            // Index des empreintes : sauvegarde périodique (si modifiés) + à l'arrêt
+            ScheduledExecutorService bg = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "checksum-index"); t.setDaemon(true); return t;
+            });
+            bg.scheduleWithFixedDelay(ClientHandler::saveChecksums, 5, 5, TimeUnit.SECONDS);
+            bg.scheduleWithFixedDelay(ClientHandler.replication::saveCursors, 5, 5, TimeUnit.SECONDS);
+
+            // Partiels d'uploads abandonnés (clients jamais revenus) : au démarrage puis toutes les heures, sur un
+            // thread à part (parcours de tout storage/)
+            if (PART_MAX_AGE_H > 0) {
+                ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "part-sweeper"); t.setDaemon(true); return t;
+                });
+                sweeper.scheduleWithFixedDelay(() -> {
+                    int n = ClientHandler.sweepPartials(TimeUnit.HOURS.toMillis(PART_MAX_AGE_H));
+                    if (n > 0) log("Partiels abandonnés supprimés : " + n + " (plus de " + PART_MAX_AGE_H + " h)");
+                }, 0, 1, TimeUnit.HOURS);
+            }
+
+            // Métriques au format Prometheus sur http://127.0.0.1:<port>/metrics (local uniquement)
+            if (METRICS_PORT >= 0) {
+                try {
+                    int p = Metrics.startHttp(METRICS_PORT).getAddress().getPort();
+                    System.out.println("Métriques : http://127.0.0.1:" + p + "/metrics");
+                } catch (IOException e) {
+                    System.err.println("Export des métriques impossible (port " + METRICS_PORT + "): " + e.getMessage());
+                }
+            }
+
+            // Moteur non bloquant : pas de thread par session, le plafond maxSessions ne s'applique pas
+            if (nio) {
+                NioServeur engine = new NioServeur(channel, NIO_LOOPS);
+                Metrics.handlerThreads = () -> NIO_LOOPS;
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try { listener.close(); } catch (Exception ignored) {}
+                    engine.stop();
+                    ClientHandler.saveChecksums();
+                    ClientHandler.replication.close();
+                    accessLog.close();
+                }));
+                engine.run();
+                return;
+            }
+            sessions = newSessionExecutor();
+
+            // 3) Fermeture avec Ctrl+C : on ferme l'écoute puis on laisse les sessions se terminer (drain)
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try { if (listener != null && !listener.isClosed()) listener.close(); } catch (Exception ignored) {}
+                drain();
+                ClientHandler.saveChecksums();
+                ClientHandler.replication.close();
+                accessLog.close();
+            }));
+            
+            // Boucle d’acceptation : chaque client est une tâche (ClientHandler.run()) soumise à l'exécuteur.
+            // Backpressure : on prend un "slot" AVANT accept() ; si le plafond est atteint, les nouvelles
+            // connexions restent dans le backlog TCP au lieu de créer des threads à l'infini.
+            
+            int clientNumber = 0;
+            try {
+                while (true) {
+                    slots.acquireUninterruptibly();
+                    Socket s;
+                    try { s = listener.accept(); }            // bloquant
+                    catch (IOException e) { slots.release(); throw e; }
+                    submit(new ClientHandler(s, clientNumber++));
+                }
+            } finally {
+                listener.close();
+            }
+        } catch (IOException e) {
+            if (listener == null || !listener.isClosed()) System.err.println("Erreur I/O serveur: " + e.getMessage());
+        }
+    }
+
+    // === Exécution / arrêt des sessions ===
+
+    // "virtual" → Executors.newVirtualThreadPerTaskExecutor() (par réflexion pour rester compilable en Java 8),
+    // sinon (ou si la JVM ne le supporte pas) → pool borné à MAX_SESSIONS threads.
+    private static ExecutorService newSessionExecutor() {
+        if ("virtual".equalsIgnoreCase(EXEC_MODE)) {
+            try {
+                ExecutorService ex = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                System.out.println("Sessions: threads virtuels (max " + MAX_SESSIONS + ")");
+                Metrics.handlerThreads = active::size;      // 1 thread virtuel par session
+                return ex;
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Threads virtuels non supportés par cette JVM (Java 21+) → pool borné");
+            }
+        }
+        AtomicInteger n = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_SESSIONS, MAX_SESSIONS, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), r -> new Thread(r, "client-handler-" + n.getAndIncrement()));
+        pool.allowCoreThreadTimeOut(true);   // les threads inactifs disparaissent après 60 s
+        Metrics.handlerThreads = pool::getPoolSize;
+        System.out.println("Sessions: pool borné (max " + MAX_SESSIONS + ")");
+        return pool;
+    }
+
+    // Soumet une session ; le slot pris avant accept() est rendu quand la session se termine
+    private static void submit(ClientHandler h) {
+        active.add(h);
+        try {
+            sessions.execute(() -> {
+                try { h.run(); }
+                finally { active.remove(h); slots.release(); }
+            });
+        } catch (RejectedExecutionException e) {   // serveur en cours d'arrêt
+            active.remove(h);
+            slots.release();
+            h.close();
+        }
+    }
+
+    // Arrêt propre : plus de nouvelles sessions, on attend DRAIN_SEC puis on coupe les sockets restantes
+    private static void drain() {
+        if (sessions == null) return;
+        sessions.shutdown();
+        try {
+            if (!sessions.awaitTermination(DRAIN_SEC, TimeUnit.SECONDS)) {
+                System.out.println("Arrêt: fermeture de " + active.size() + " session(s) encore active(s)");
+                for (ClientHandler h : active) h.close();
+                sessions.awaitTermination(2, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // === Prompts interactifs === 
+    //Pour gérer les bons formats pour les adresses IP et les numéros de ports 
+
+    private static String askIp(BufferedReader br) throws IOException {
+        while (true) {
+            System.out.print("Adresse IP d’écoute (ENTER = 127.0.0.1) : ");
+            String line = br.readLine();
+            if (line == null) return "127.0.0.1"; // fallback si stdin fermé
+            line = line.trim();
+            if (line.isEmpty()) return "127.0.0.1";
+            // Laisse InetAddress valider (permet aussi un hostname si jamais)
+            try {
+                InetAddress.getByName(line);
+                return line;
+            } catch (UnknownHostException e) {
+                System.out.println("Adresse invalide. Exemples: 127.0.0.1, 0.0.0.0, 192.168.1.20");
+            }
+        }
+    }
+
+    private static int askPort(BufferedReader br) throws IOException {
+        while (true) {
+            System.out.print("Port (5000–5050) (ENTER = 5000) : ");
+            String line = br.readLine();
+            if (line == null || line.trim().isEmpty()) return 5000;
+            try {
+                int p = Integer.parseInt(line.trim());
+                if (isValidPort(p)) return p;
+            } catch (NumberFormatException ignored) {}
+            System.out.println("Port invalide. Choisis un entier entre 5000 et 5050.");
+        }
+    }
+
+    // === Logging demandé par l'énoncé ===
+    //Affichages des commandes de chaque client à chaque fois avec la date, numéro de port etc.
+    // Publié dans le journal asynchrone (AccessLog) : la mise en forme et l'écriture se font sur son thread
+    public static void log(Socket s, String cmd) {
+        accessLog.publish(s, cmd);
+    }
+
+    // Ligne sans client associé (connexion, déconnexion), dans le même ordre que les commandes
+    public static void log(String line) {
+        accessLog.publish(null, line);
+    }
+}
+
+